@@ -23,9 +23,21 @@ package eu.interiot.intermw.bridge.iotivity;
 import eu.interiot.intermw.bridge.BridgeConfiguration;
 import eu.interiot.intermw.bridge.abstracts.AbstractBridge;
 import eu.interiot.intermw.bridge.annotations.Bridge;
+import eu.interiot.intermw.bridge.iotivity.client.BulkExecutor;
 import eu.interiot.intermw.bridge.iotivity.client.IoTivityClient;
-import eu.interiot.intermw.bridge.iotivity.client.IoTivityCoapHandler;
+import eu.interiot.intermw.bridge.iotivity.client.ObservationMultiplexer;
 import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+import eu.interiot.intermw.bridge.iotivity.pipeline.BatchPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.FilterPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.ObservationPipeline;
+import eu.interiot.intermw.bridge.iotivity.pipeline.OverflowPolicy;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceEntry;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceFingerprint;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceIndex;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceSnapshotStore;
+import eu.interiot.intermw.bridge.iotivity.registry.LastValueCache;
+import eu.interiot.intermw.bridge.iotivity.registry.MultiDeviceQuery;
+import eu.interiot.intermw.bridge.iotivity.registry.ResourceTypeRoutes;
 import eu.interiot.intermw.bridge.iotivity.scheduler.DeviceCheckScheduler;
 import eu.interiot.intermw.commons.exceptions.MiddlewareException;
 import eu.interiot.intermw.commons.model.Platform;
@@ -40,7 +52,7 @@ import eu.interiot.message.managers.URI.URIManagerMessageMetadata.MessageTypesEn
 import eu.interiot.message.metadata.PlatformMessageMetadata;
 
 import org.apache.jena.rdf.model.Model;
-import org.eclipse.californium.core.CoapHandler;
+import org.apache.jena.rdf.model.ModelFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,9 +61,17 @@ import com.google.common.base.Strings;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Bridge(platformType = "http://inter-iot.eu/IoTivity")
 public class IoTivityBridge extends AbstractBridge {
@@ -60,8 +80,26 @@ public class IoTivityBridge extends AbstractBridge {
 	private IotivityTranslator translator = new IotivityTranslator();
     private String url;
     private String proxyIp;
+    private int discoveryConcurrency = IoTivityCoapClientImpl.DEFAULT_DISCOVERY_CONCURRENCY;
 	private IoTivityClient iotivityClient = null;
+	private DeviceIndex deviceIndex = null;
+	private ResourceTypeRoutes routes = null;
 	private DeviceCheckScheduler scheduler = null;
+	private ObservationMultiplexer observations = null;
+	private ObservationPipeline pipeline = null;
+	private int observationQueueSize = ObservationPipeline.DEFAULT_QUEUE_SIZE;
+	private int observationPartitions = ObservationPipeline.DEFAULT_PARTITIONS;
+	private OverflowPolicy overflowPolicy = ObservationPipeline.DEFAULT_POLICY;
+	private BatchPolicy batchPolicy = BatchPolicy.NONE;
+	private FilterPolicy filterPolicy = FilterPolicy.NONE;
+	private LastValueCache lastValues = null;
+	private long cacheMaxBytes = LastValueCache.DEFAULT_MAX_BYTES;
+	private long cacheMaxAge = LastValueCache.DEFAULT_MAX_AGE;
+	private long cacheStaleWindow = LastValueCache.DEFAULT_STALE_WINDOW;
+	private MultiDeviceQuery deviceQuery = null;
+	private int queryConcurrency = MultiDeviceQuery.DEFAULT_CONCURRENCY;
+	private BulkExecutor bulkExecutor = new BulkExecutor(BulkExecutor.DEFAULT_WINDOW);
+	private File snapshotDir;
 
 	public IoTivityBridge(BridgeConfiguration configuration, Platform platform) throws MiddlewareException {
 		super(configuration, platform);
@@ -84,6 +122,80 @@ public class IoTivityBridge extends AbstractBridge {
         if (!Strings.isNullOrEmpty(iotivityServerPort) && !iotivityServerPort.isEmpty()) {
 			Integer.parseInt(iotivityServerPort);
 		}
+        String concurrency = configuration.getProperties().getProperty(IoTivityProperty.DISCOVERY_CONCURRENCY);
+        if (!Strings.isNullOrEmpty(concurrency)) {
+        	discoveryConcurrency = Integer.parseInt(concurrency);
+        }
+        String queueSize = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_QUEUE_SIZE);
+        if (!Strings.isNullOrEmpty(queueSize)) {
+        	observationQueueSize = Integer.parseInt(queueSize);
+        }
+        String partitions = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_PARTITIONS);
+        if (!Strings.isNullOrEmpty(partitions)) {
+        	observationPartitions = Integer.parseInt(partitions);
+        }
+        String policy = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_OVERFLOW_POLICY);
+        if (!Strings.isNullOrEmpty(policy)) {
+        	try {
+        		overflowPolicy = OverflowPolicy.parse(policy);
+        	} catch (IllegalArgumentException e) {
+        		throw new MiddlewareException("Invalid bridge configuration: unknown '"+IoTivityProperty.OBSERVATION_OVERFLOW_POLICY+"' " + policy);
+        	}
+        }
+        String batchSize = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_BATCH_SIZE);
+        String batchLinger = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_BATCH_LINGER);
+        if (!Strings.isNullOrEmpty(batchSize)) {
+        	try {
+        		batchPolicy = new BatchPolicy(Integer.parseInt(batchSize),
+        				Strings.isNullOrEmpty(batchLinger) ? BatchPolicy.DEFAULT_LINGER : Long.parseLong(batchLinger));
+        	} catch (IllegalArgumentException e) {
+        		throw new MiddlewareException("Invalid bridge configuration: '"+IoTivityProperty.OBSERVATION_BATCH_SIZE+"' " + batchSize
+        				+ ", '"+IoTivityProperty.OBSERVATION_BATCH_LINGER+"' " + batchLinger);
+        	}
+        }
+        String conflationInterval = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_CONFLATION_INTERVAL);
+        String deadband = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_DEADBAND);
+        String dropUnchanged = configuration.getProperties().getProperty(IoTivityProperty.OBSERVATION_DROP_UNCHANGED);
+        try {
+        	filterPolicy = new FilterPolicy(Strings.isNullOrEmpty(conflationInterval) ? 0 : Long.parseLong(conflationInterval),
+        			Strings.isNullOrEmpty(deadband) ? 0 : Double.parseDouble(deadband), Boolean.parseBoolean(dropUnchanged));
+        } catch (IllegalArgumentException e) {
+        	throw new MiddlewareException("Invalid bridge configuration: '"+IoTivityProperty.OBSERVATION_CONFLATION_INTERVAL+"' " + conflationInterval
+        			+ ", '"+IoTivityProperty.OBSERVATION_DEADBAND+"' " + deadband);
+        }
+        String maxBytes = configuration.getProperties().getProperty(IoTivityProperty.CACHE_MAX_BYTES);
+        if (!Strings.isNullOrEmpty(maxBytes)) {
+        	cacheMaxBytes = Long.parseLong(maxBytes);
+        }
+        String maxAge = configuration.getProperties().getProperty(IoTivityProperty.CACHE_MAX_AGE);
+        if (!Strings.isNullOrEmpty(maxAge)) {
+        	cacheMaxAge = Long.parseLong(maxAge);
+        }
+        String staleWindow = configuration.getProperties().getProperty(IoTivityProperty.CACHE_STALE_WINDOW);
+        if (!Strings.isNullOrEmpty(staleWindow)) {
+        	cacheStaleWindow = Long.parseLong(staleWindow);
+        }
+        if (cacheMaxBytes < 0 || cacheMaxAge < 0 || cacheStaleWindow < 0) {
+        	throw new MiddlewareException("Invalid bridge configuration: the properties '"+IoTivityProperty.CACHE_MAX_BYTES+"', '"
+        			+IoTivityProperty.CACHE_MAX_AGE+"' and '"+IoTivityProperty.CACHE_STALE_WINDOW+"' must not be negative");
+        }
+        String concurrentQueries = configuration.getProperties().getProperty(IoTivityProperty.QUERY_CONCURRENCY);
+        if (!Strings.isNullOrEmpty(concurrentQueries)) {
+        	queryConcurrency = Integer.parseInt(concurrentQueries);
+        	if (queryConcurrency < 1) {
+        		throw new MiddlewareException("Invalid bridge configuration: '"+IoTivityProperty.QUERY_CONCURRENCY+"' must be positive");
+        	}
+        }
+        String bulkWindow = configuration.getProperties().getProperty(IoTivityProperty.BULK_WINDOW);
+        if (!Strings.isNullOrEmpty(bulkWindow)) {
+        	try {
+        		bulkExecutor = new BulkExecutor(Integer.parseInt(bulkWindow));
+        	} catch (IllegalArgumentException e) {
+        		throw new MiddlewareException("Invalid bridge configuration: '"+IoTivityProperty.BULK_WINDOW+"' " + bulkWindow);
+        	}
+        }
+        String snapshotDirectory = configuration.getProperties().getProperty(IoTivityProperty.REGISTRY_SNAPSHOT_DIR);
+        snapshotDir = Strings.isNullOrEmpty(snapshotDirectory) ? new File(System.getProperty("java.io.tmpdir"), "iotivity-bridge") : new File(snapshotDirectory);
 		logger.info("Bridge has been initialized successfully.");
 	}
 
@@ -92,12 +204,48 @@ public class IoTivityBridge extends AbstractBridge {
 		Message responseMessage = createResponseMessage(message);
 		try {
 			logger.debug("Registering platform {}...", platform.getPlatformId());
-			iotivityClient  = new IoTivityCoapClientImpl(url, proxyIp, null);			
+			releasePlatform();
+			iotivityClient  = new IoTivityCoapClientImpl(url, proxyIp, null);
+			iotivityClient.setDiscoveryConcurrency(discoveryConcurrency);
+			lastValues = new LastValueCache(cacheMaxBytes, cacheMaxAge, cacheStaleWindow);
+			pipeline = new ObservationPipeline(translator, publisher, observationQueueSize, observationPartitions, overflowPolicy);
+			pipeline.setLastValueCache(lastValues);
+			pipeline.start();
+			observations = new ObservationMultiplexer(iotivityClient, pipeline);
+			iotivityClient.start();
+			//the server may have been restarted on another port since the last registration
+			iotivityClient.invalidateDiscovery();
 			iotivityClient.discoverServer();
+			deviceIndex = new DeviceIndex(iotivityClient);
+			deviceQuery = new MultiDeviceQuery(deviceIndex, this::fetchResource, translator, queryConcurrency,
+					Runtime.getRuntime().availableProcessors());
+			try {
+				deviceIndex.load(iotivityClient.listDevices());
+			} catch (Exception e) {
+				logger.warn("Device index could not be loaded, it will be filled on demand: {}", e.getMessage());
+			}
+			routes = new ResourceTypeRoutes(iotivityClient);
+			try {
+				routes.refresh();
+			} catch (Exception e) {
+				logger.warn("Resource type routes could not be loaded, they will be loaded on demand: {}", e.getMessage());
+			}
+			DeviceSnapshotStore snapshotStore = new DeviceSnapshotStore(new File(snapshotDir, getSnapshotFileName(platform.getPlatformId())));
+			Map<String, DeviceFingerprint> knownDevices = new ConcurrentHashMap<String, DeviceFingerprint>();
+			try {
+				knownDevices.putAll(snapshotStore.load());
+				logger.debug("{} known devices loaded from {}", knownDevices.size(), snapshotStore.getFile());
+			} catch (Exception e) {
+				logger.warn("Device snapshot could not be loaded, all devices will be announced: {}", e.getMessage());
+				snapshotStore = null;
+			}
+			scheduler = new DeviceCheckScheduler(iotivityClient, deviceIndex, knownDevices, snapshotStore, publisher, platform.getPlatformId());
 			logger.debug("Platform {} has been registered.", platform.getPlatformId());
 		} catch (Exception e) {
 			logger.error("Register Platform  " + e);
 			e.printStackTrace();
+			//the requests are rejected until the platform is registered, instead of reaching a partly created state
+			releasePlatform();
 			IoTivityUtils.createErrorResponseMessage(responseMessage, e);
 		}
 		return responseMessage;
@@ -114,7 +262,31 @@ public class IoTivityBridge extends AbstractBridge {
 		if (platform.getBaseEndpoint() != null) {
 			url = platform.getBaseEndpoint().toString();
 		}
-		iotivityClient.setIp(url);
+		try {
+			iotivityClient.setIp(url);
+			iotivityClient.invalidateDiscovery();
+			iotivityClient.discoverServer();
+			deviceIndex.clear();
+			routes.invalidate();
+			//the relations of the old address are replaced before its payloads are dropped, so they are not cached again
+			observations.restart();
+			lastValues.clear();
+			if (scheduler != null) {
+				//the devices of the new address are diffed against the known ones
+				DeviceCheckScheduler previous = scheduler;
+				previous.stop();
+				scheduler = new DeviceCheckScheduler(iotivityClient, deviceIndex, previous.getDeviceMap(), previous.getSnapshotStore(), publisher, platform.getPlatformId());
+				if (previous.getMessage() != null) {
+					scheduler.start(previous.getMessage());
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Update Platform  " + e);
+			e.printStackTrace();
+			//the platform must be registered again, as with a failed registration
+			releasePlatform();
+			IoTivityUtils.createErrorResponseMessage(responseMessage, e);
+		}
 		return responseMessage;
 	}
 
@@ -124,7 +296,11 @@ public class IoTivityBridge extends AbstractBridge {
 		String platformId = platform.getPlatformId();	
 		logger.debug("Unregistering platform {}...", platformId);
 		try {
-			iotivityClient = null;
+			if (scheduler != null && scheduler.getSnapshotStore() != null) {
+				//the platform is removed, so a new registration starts without known devices
+				scheduler.getSnapshotStore().delete();
+			}
+			releasePlatform();
 			logger.debug("Platform {} has been unregistered.", platformId);
 		} catch (Exception e) {
 			logger.error("Unregister Platform  " + e);
@@ -149,7 +325,6 @@ public class IoTivityBridge extends AbstractBridge {
 		
 		iotivityClient.isPlatformRegistered();
 		String conversationId = message.getMetadata().getConversationId().orElse(null);
-		Map<String, JsonElement> deviceMap = iotivityClient.listDevices();
 		for (String thingId : entities) {
 			logger.debug("Subscribing to thing {} using conversationId {}...", thingId, conversationId);	
 			try {
@@ -160,14 +335,13 @@ public class IoTivityBridge extends AbstractBridge {
 				metadata.setSenderPlatformId(new EntityID(platform.getPlatformId()));
 				metadata.setConversationId(conversationId);
 	
-				CoapHandler handler = new IoTivityCoapHandler(metadata, translator, publisher);
 				String id = IoTivityUtils.getThingId(thingId);
-				JsonElement deviceJsonElement = deviceMap.get(id);
-				if (deviceJsonElement == null) {
+				DeviceEntry device = deviceIndex.lookup(id);
+				if (device == null) {
 					throw new Exception("There is no device with id '"+id+"' to sunscribe to");
 				}
-				String href = deviceJsonElement.getAsJsonObject().get("href").getAsString();
-				iotivityClient.observeResource(href, handler);
+				String href = device.getHref();
+				observations.subscribe(href, conversationId, metadata, batchPolicy, filterPolicy);
 			} catch (Exception e) {
 				logger.error("Error subscribing: " + e.getMessage());
 				IoTivityUtils.createErrorResponseMessage(responseMessage, e);
@@ -184,17 +358,22 @@ public class IoTivityBridge extends AbstractBridge {
 			return responseMessage;
 		}	
 		Set<String> entities = IoTivityUtils.getDeviceIDsFromPayload(message);
-		Map<String, JsonElement> deviceMap = iotivityClient.listDevices();
+		String conversationId = message.getMetadata().getConversationId().orElse(null);
 		try{
 			for (String entityId : entities) {
 				String id = IoTivityUtils.getThingId(entityId);
 				logger.info("Unsubscribing from thing {}...", entityId);
-				JsonElement deviceJsonElement = deviceMap.get(id);
-				if (deviceJsonElement == null) {
+				DeviceEntry device = deviceIndex.lookup(id);
+				if (device == null) {
 					return responseMessage;
 				}
-				String href = deviceJsonElement.getAsJsonObject().get("href").getAsString();
-				iotivityClient.stopObservingResource(href);
+				String href = device.getHref();
+				if (conversationId != null) {
+					observations.unsubscribe(href, conversationId);
+				}
+				else {
+					observations.unsubscribeAll(href);
+				}
 			}
 		} catch (Exception e){ 
 			logger.error("Error unsubscribing: " + e.getMessage());
@@ -213,25 +392,26 @@ public class IoTivityBridge extends AbstractBridge {
 		}	
 		try{
 			Set<String> entities = IoTivityUtils.getDeviceIDsFromPayload(message);			
-			//get a map that contains all registered devices on the server
-			Map<String, JsonElement> deviceMap = iotivityClient.listDevices();
 			if (entities.size() == 1) {
 				for (String entityId : entities) {
 					responseMessage = createResponseMessage(message);
 					String id = IoTivityUtils.getThingId(entityId);
-					JsonElement deviceJsonElement = deviceMap.get(id);
-					if (deviceJsonElement == null) {
+					DeviceEntry device = deviceIndex.lookup(id);
+					if (device == null) {
 						throw new Exception("There is no device with given id : " + entityId);
 					}
-					String href = deviceJsonElement.getAsJsonObject().get("href").getAsString();
+					String href = device.getHref();
 					logger.debug("Querying thing {}...", entityId);				
-					JsonElement resource = iotivityClient.getResource(href);
-					Model translatedModel = translator.toJenaModel(resource.toString());
+					byte[] resource = lastValues.get(href, observations.isObserving(href), this::retrieveResource);
+					Model translatedModel = translator.toJenaModel(resource);
 					MessagePayload responsePayload = new MessagePayload(translatedModel);
 					responseMessage.setPayload(responsePayload);
 				}
 			}
 			else if (entities.size() == 0) {
+				//get a map that contains all registered devices on the server
+				Map<String, JsonElement> deviceMap = iotivityClient.listDevices();
+				deviceIndex.load(deviceMap);
 				JsonArray allDeviceList = new JsonArray();
 				for (JsonElement d : deviceMap.values()) {
 						allDeviceList.add(d);
@@ -241,8 +421,19 @@ public class IoTivityBridge extends AbstractBridge {
 				responseMessage.setPayload(responsePayload);
 			}
 			else {
-				IoTivityUtils.createErrorResponseMessage(responseMessage, new Exception("Current version does not support querying with multiple ids"));
-				return responseMessage;
+				Map<String, String> entityIds = getThingIds(entities);
+				logger.debug("Querying {} things...", entityIds.size());
+				MultiDeviceQuery.Result result = deviceQuery.query(entityIds.keySet());
+				if (result.getDeviceCount() == 0) {
+					Throwable cause = result.getFailures().values().iterator().next();
+					throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+				}
+				Model translatedModel = result.getModel();
+				for (Entry<String, Throwable> failure : result.getFailures().entrySet()) {
+					logger.warn("Thing {} could not be queried: {}", entityIds.get(failure.getKey()), failure.getValue().getMessage());
+					IoTivityUtils.addQueryError(translatedModel, failure.getKey(), failure.getValue());
+				}
+				responseMessage.setPayload(new MessagePayload(translatedModel));
 			}
 			responseMessage.getMetadata().setStatus("OK");
     		logger.debug("Success");
@@ -254,6 +445,60 @@ public class IoTivityBridge extends AbstractBridge {
 		return responseMessage;
 	}
 
+	/**
+	 * @return the ids of the given things, mapped to the URIs of the things, in the order of the things
+	 */
+	private static Map<String, String> getThingIds(Set<String> entities) throws Exception {
+		Map<String, String> entityIds = new LinkedHashMap<String, String>();
+		for (String entityId : entities) {
+			entityIds.put(IoTivityUtils.getThingId(entityId), entityId);
+		}
+		return entityIds;
+	}
+
+	/**
+	 * Reports the outcome of each entity of a bulk operation in the response, which has the error status
+	 * (with the first cause) only if no entity succeeded
+	 */
+	private void setBulkResult(Message responseMessage, BulkExecutor.Result outcome, Map<String, String> entityIds) {
+		Map<String, Throwable> failures = outcome.getFailures();
+		Model model = ModelFactory.createDefaultModel();
+		for (Entry<String, Throwable> entity : outcome.getOutcomes().entrySet()) {
+			if (entity.getValue() != null) {
+				logger.warn("Operation on thing {} failed: {}", entityIds.get(entity.getKey()), entity.getValue().getMessage());
+			}
+			IoTivityUtils.addOperationResult(model, entity.getKey(), entity.getValue());
+		}
+		responseMessage.setPayload(new MessagePayload(model));
+		if (outcome.getSuccessCount() == 0 && !failures.isEmpty()) {
+			Throwable cause = failures.values().iterator().next();
+			IoTivityUtils.createErrorResponseMessage(responseMessage, cause instanceof Exception ? (Exception) cause : new Exception(cause));
+		}
+		else {
+			responseMessage.getMetadata().setStatus("OK");
+		}
+		logger.debug("{} things succeeded, {} failed", outcome.getSuccessCount(), failures.size());
+	}
+
+	/**
+	 * Retrieves the CBOR representation of a resource through the last value cache
+	 */
+	private CompletableFuture<byte[]> fetchResource(String href) {
+		return lastValues.getAsync(href, observations.isObserving(href), this::retrieveResource);
+	}
+
+	/**
+	 * Retrieves the CBOR representation of a resource, for the last value cache
+	 */
+	private CompletableFuture<byte[]> retrieveResource(String href) {
+		return iotivityClient.getResourceResponseAsync(href).thenApply(response -> {
+			if (!response.isSuccess() || response.getPayload() == null || response.getPayload().length == 0) {
+				throw new CompletionException(new Exception("Did not receive any data for the resource: " + href));
+			}
+			return response.getPayload();
+		});
+	}
+
 	@Override
 	public Message listDevices(Message message) throws Exception {
 		Message responseMessage = createResponseMessage(message);
@@ -263,9 +508,18 @@ public class IoTivityBridge extends AbstractBridge {
 		}	
 		
 		try {
-			deviceRegistryInitialization(message);			
-			scheduler = new DeviceCheckScheduler(iotivityClient, new HashMap<String, JsonElement>(), message, publisher, platform.getPlatformId());
-			scheduler.check();
+			if (scheduler == null) {
+				throw getPlatformUnregisterException();
+			}
+			if (scheduler.isStarted() || scheduler.getDeviceMap().isEmpty()) {
+				deviceRegistryInitialization(message);
+			}
+			else {
+				//warm start: the registry already contains the persisted devices, only the changes are announced
+				logger.info("{} devices are already known, only the changes will be announced", scheduler.getDeviceMap().size());
+			}
+			//the first request starts the tracking of the devices, the next ones announce all devices again
+			scheduler.start(message);
 			
 			responseMessage.getMetadata().setStatus("OK");
 			logger.info("Completed listDevices");			
@@ -278,6 +532,59 @@ public class IoTivityBridge extends AbstractBridge {
 		return responseMessage;
 	}
 	
+	/**
+	 * Stops the tracking and the observations of the platform and shuts its client down,
+	 * so that the requests are rejected until the platform is registered
+	 */
+	private void releasePlatform() {
+		stopDeviceTracking();
+		stopObservations();
+		if (iotivityClient != null) {
+			iotivityClient.shutdown();
+		}
+		iotivityClient = null;
+		deviceIndex = null;
+		routes = null;
+		lastValues = null;
+	}
+	
+	private void stopDeviceTracking() {
+		if (deviceQuery != null) {
+			deviceQuery.shutdown();
+			deviceQuery = null;
+		}
+		if (scheduler != null) {
+			scheduler.stop();
+			if (scheduler.getSnapshotStore() != null) {
+				try {
+					scheduler.getSnapshotStore().close();
+				} catch (IOException e) {
+					logger.warn("Device snapshot could not be closed: {}", e.getMessage());
+				}
+			}
+			scheduler = null;
+		}
+	}
+	
+	/**
+	 * Stops the supervision of the observations, which are cancelled by the shutdown of the client,
+	 * and lets the pipeline publish the observations it has already received
+	 */
+	private void stopObservations() {
+		if (observations != null) {
+			observations.close();
+			observations = null;
+		}
+		if (pipeline != null) {
+			pipeline.shutdown();
+			pipeline = null;
+		}
+	}
+	
+	private static String getSnapshotFileName(String platformId) {
+		return platformId.replaceAll("[^A-Za-z0-9._-]", "_") + ".snapshot";
+	}
+	
 	private Message deviceRegistryInitialization(Message original) throws Exception {
 		try{
 		    Message deviceRegistryInitializeMessage = new Message();
@@ -303,32 +610,40 @@ public class IoTivityBridge extends AbstractBridge {
 		}	
 		try{			
 			String body = translator.toFormatX(message.getPayload().getJenaModel());
-			Set<String> entities = IoTivityUtils.getDeviceIDsFromPayload(message);
-			
-			//get a map that contains all registered devices on the server
-			Map<String, JsonElement> deviceMap = iotivityClient.listDevices();
-
-			for (String entityId : entities) {		
-				//check if there is already registered a device with the given id
-				String id = IoTivityUtils.getThingId(entityId);
-				JsonElement deviceJsonElement = deviceMap.get(id);
-				if (deviceJsonElement != null) {
-					throw new Exception("There is already a device with given id : " + entityId);
+			Map<String, String> entityIds = getThingIds(IoTivityUtils.getDeviceIDsFromPayload(message));
+			//the devices share the payload, so its map and its resource type are resolved once
+			Map<String, Object> attributes = IoTivityUtils.jsonToMap(body);
+			String resourceType = IoTivityUtils.findResourceTypeOfRequest(attributes);
+			logger.debug("Registering {} things...", entityIds.size());
+			BulkExecutor.Result outcome = bulkExecutor.execute(entityIds.keySet(), id -> {
+				//the ids are new by definition, so they are checked against the index without refreshing it
+				if (deviceIndex.get(id) != null) {
+					return BulkExecutor.failed(new Exception("There is already a device with given id : " + entityIds.get(id)));
 				}
-				
 				//create map that will be used as payload
-				Map<String, Object> map = IoTivityUtils.jsonToMap(body);
+				Map<String, Object> map = new HashMap<String, Object>(attributes);
 				map.put("id", id);
-				logger.debug("Registering thing {}...", id);
-				
-				//find uri
-				JsonElement result = iotivityClient.getResource("/oic/res?rt=oic.wk.res");
-				String resourceType = IoTivityUtils.findResourceTypeOfRequest(map);
-				String url = IoTivityUtils.findHrefByResourceType(result, resourceType);
-				
-				iotivityClient.createResource(map, url);
-	    		logger.debug("Success");
-			}
+				String url;
+				try {
+					url = routes.route(resourceType);
+				} catch (Exception e) {
+					return BulkExecutor.failed(e);
+				}
+				if (url == null) {
+					return BulkExecutor.failed(new Exception("No collection accepts devices of resource type : " + resourceType));
+				}
+				return iotivityClient.createResourceAsync(map, url).whenComplete((href, error) -> {
+					if (error != null) {
+						//the collection may have moved, so the routes are rebuilt before the next creation
+						routes.invalidate();
+					}
+					else if (href != null) {
+						//the created device is indexed without retrieving it, otherwise by its first lookup
+						deviceIndex.put(new DeviceEntry(id, href, Collections.singleton(resourceType), Collections.<String>emptySet()));
+					}
+				});
+			});
+			setBulkResult(responseMessage, outcome, entityIds);
     	}catch(Exception e){
     		logger.error("Error creating devices: " + e.getMessage());
 			e.printStackTrace();
@@ -346,23 +661,20 @@ public class IoTivityBridge extends AbstractBridge {
 		}	
 		try{
 			String body = translator.toFormatX(message.getPayload().getJenaModel());
-			Set<String> entities = IoTivityUtils.getDeviceIDsFromPayload(message);
-			
-			//get a map that contains all registered devices on the server
-			Map<String, JsonElement> deviceMap = iotivityClient.listDevices();
+			Map<String, String> entityIds = getThingIds(IoTivityUtils.getDeviceIDsFromPayload(message));
+			Map<String, Object> map = IoTivityUtils.jsonToMap(body);
+			Map<String, DeviceEntry> devices = deviceIndex.lookupAll(entityIds.keySet());
 
-			for (String entityId : entities) {
-				String id = IoTivityUtils.getThingId(entityId);
-				JsonElement deviceJsonElement = deviceMap.get(id);
-				if (deviceJsonElement == null) {
-					throw new Exception("There is no device with given id : " + entityId);
+			logger.debug("Updating {} things...", entityIds.size());
+			BulkExecutor.Result outcome = bulkExecutor.execute(entityIds.keySet(), id -> {
+				DeviceEntry device = devices.get(id);
+				if (device == null) {
+					return BulkExecutor.failed(new Exception("There is no device with given id : " + entityIds.get(id)));
 				}
-				String href = deviceJsonElement.getAsJsonObject().get("href").getAsString();
-				logger.debug("Updating thing {}...", href);
-				Map<String, Object> map = IoTivityUtils.jsonToMap(body);
-				iotivityClient.editResource(map, href);
-	    		logger.debug("Success");
-			}
+				String href = device.getHref();
+				return iotivityClient.editResourceAsync(map, href).thenRun(() -> lastValues.invalidate(href));
+			});
+			setBulkResult(responseMessage, outcome, entityIds);
     	}catch(Exception e){
     		logger.error("Error updating device: " + e.getMessage());
 			e.printStackTrace();
@@ -380,20 +692,20 @@ public class IoTivityBridge extends AbstractBridge {
 		}	
 		try {
 			logger.debug("Removing devices...");
-			Set<String> entities = IoTivityUtils.getDeviceIDsFromPayload(message);
-			Map<String, JsonElement> map = iotivityClient.listDevices();
-			for(String deviceId : entities){
-				String id = IoTivityUtils.getThingId(deviceId);
-
-				JsonElement deviceJsonElement = map.get(id);
-				if (deviceJsonElement == null) {
-					throw new Exception("There is no device with id '"+id+"' to be deleted");
+			Map<String, String> entityIds = getThingIds(IoTivityUtils.getDeviceIDsFromPayload(message));
+			Map<String, DeviceEntry> devices = deviceIndex.lookupAll(entityIds.keySet());
+			BulkExecutor.Result outcome = bulkExecutor.execute(entityIds.keySet(), id -> {
+				DeviceEntry device = devices.get(id);
+				if (device == null) {
+					return BulkExecutor.failed(new Exception("There is no device with id '"+id+"' to be deleted"));
 				}
-				String deviceHref = IoTivityUtils.getHref(deviceJsonElement);
-				iotivityClient.deleteResource(deviceHref);
-				logger.debug("Device {} has been removed.", id);
-			}
-			responseMessage.getMetadata().setStatus("OK");
+				return iotivityClient.deleteResourceAsync(device.getHref()).thenRun(() -> {
+					lastValues.invalidate(device.getHref());
+					deviceIndex.remove(id);
+					logger.debug("Device {} has been removed.", id);
+				});
+			});
+			setBulkResult(responseMessage, outcome, entityIds);
 		} 
 		catch (Exception e) {
 			logger.error("Error removing devices: " + e.getMessage());
@@ -414,20 +726,18 @@ public class IoTivityBridge extends AbstractBridge {
 			String body = translator.toFormatX(message.getPayload().getJenaModel());
 			Set<String> entities = IoTivityUtils.getDeviceIDsFromPayload(message);
 			iotivityClient.isPlatformRegistered();
-			
-			//get a map that contains all registered devices on the server
-			Map<String, JsonElement> deviceMap = iotivityClient.listDevices();
 
 			for (String entityId : entities) {
 				String id = IoTivityUtils.getThingId(entityId);
-				JsonElement deviceJsonElement = deviceMap.get(id);
-				if (deviceJsonElement == null) {
+				DeviceEntry device = deviceIndex.lookup(id);
+				if (device == null) {
 					throw new Exception("There is no device with given id : " + entityId);
 				}
-				String href = deviceJsonElement.getAsJsonObject().get("href").getAsString();
+				String href = device.getHref();
 				logger.debug("Updating thing {}...", href);
 				Map<String, Object> map = IoTivityUtils.jsonToMap(body);
 				iotivityClient.editResource(map, href);
+				lastValues.invalidate(href);
 	    		logger.debug("Success");
 			}
     	}catch(Exception e){
@@ -8,4 +8,19 @@ public class IoTivityProperty {
 	public static final String SERVER_IP = "iotivity.server.ip";
 	public static final String PROXY_IP = "proxy.ip";
 	public static final String SERVER_PORT = "iotivity.server.port";
+	public static final String DISCOVERY_CONCURRENCY = "iotivity.discovery.concurrency";
+	public static final String REGISTRY_SNAPSHOT_DIR = "iotivity.registry.snapshot.dir";
+	public static final String OBSERVATION_QUEUE_SIZE = "iotivity.observation.queue.size";
+	public static final String OBSERVATION_PARTITIONS = "iotivity.observation.partitions";
+	public static final String OBSERVATION_OVERFLOW_POLICY = "iotivity.observation.overflow.policy";
+	public static final String OBSERVATION_BATCH_SIZE = "iotivity.observation.batch.size";
+	public static final String OBSERVATION_BATCH_LINGER = "iotivity.observation.batch.linger";
+	public static final String OBSERVATION_CONFLATION_INTERVAL = "iotivity.observation.conflation.interval";
+	public static final String OBSERVATION_DEADBAND = "iotivity.observation.deadband";
+	public static final String OBSERVATION_DROP_UNCHANGED = "iotivity.observation.drop.unchanged";
+	public static final String CACHE_MAX_BYTES = "iotivity.cache.max.bytes";
+	public static final String CACHE_MAX_AGE = "iotivity.cache.max.age";
+	public static final String CACHE_STALE_WINDOW = "iotivity.cache.stale.window";
+	public static final String QUERY_CONCURRENCY = "iotivity.query.concurrency";
+	public static final String BULK_WINDOW = "iotivity.bulk.window";
 }
@@ -66,6 +66,11 @@ public class IoTivityUtils {
 	public static final String EntityTypePlatform = URIsosa + "Platform";
 	public static final String EntityTypeDevice = "http://inter-iot.eu/syntax/Iotivity.owl#Device";
 	public static final String AiotesEntityTypeDevice = "http://inter-iot.eu/GOIoTP#IoTDevice";
+	//property of an instance that could not be retrieved by a query, whose value is the cause of the failure
+	public static final String PropertyQueryError = IotivityTranslator.iotivityBaseURI + "queryError";
+	//properties of an instance in the response of a bulk create, update or delete: OK or KO, and the cause of a failure
+	public static final String PropertyOperationStatus = IotivityTranslator.iotivityBaseURI + "operationStatus";
+	public static final String PropertyOperationError = IotivityTranslator.iotivityBaseURI + "operationError";
 
 	
 	/**
@@ -102,6 +107,33 @@ public class IoTivityUtils {
 		responseMessage.getMetadata().asErrorMessageMetadata().setExceptionStackTrace(e);
 	}
 	
+	/**
+	 * Reports a device that could not be retrieved by a query in the given response model
+	 * 
+	 * @param model : the model of the response
+	 * @param id : the id of the device
+	 * @param cause : the cause of the failure
+	 */
+	public static void addQueryError(Model model, String id, Throwable cause) {
+		Resource instance = model.createResource(EntityTypeInstance + "/" + id);
+		instance.addProperty(model.createProperty(PropertyQueryError), String.valueOf(cause.getMessage()));
+	}
+	
+	/**
+	 * Reports the outcome of the operation on a device in the response model of a bulk operation
+	 * 
+	 * @param model : the model of the response
+	 * @param id : the id of the device
+	 * @param cause : the cause of the failure or {@code null} if the operation succeeded
+	 */
+	public static void addOperationResult(Model model, String id, Throwable cause) {
+		Resource instance = model.createResource(EntityTypeInstance + "/" + id);
+		instance.addProperty(model.createProperty(PropertyOperationStatus), cause == null ? "OK" : "KO");
+		if (cause != null) {
+			instance.addProperty(model.createProperty(PropertyOperationError), String.valueOf(cause.getMessage()));
+		}
+	}
+	
 	/**
 	 * It processes the given resource URI ({@code thingId}) and retrieves the equivalent id
 	 * 
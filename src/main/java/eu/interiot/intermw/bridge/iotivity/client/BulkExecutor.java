@@ -0,0 +1,138 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ *
+ * Executes an asynchronous operation (e.g. a CoAP POST, PUT or DELETE request) for each entity of a bulk request
+ * At most {@code window} operations are in flight at the same time, and a failed operation does not stop the others,
+ * so that the outcome of every entity is reported
+ *
+ */
+public class BulkExecutor {
+
+	public static final int DEFAULT_WINDOW = 16;
+
+	private final int window;
+
+	/**
+	 * Constructor
+	 *
+	 * @param window : the maximum number of operations in flight
+	 */
+	public BulkExecutor(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("The bulk window must be positive: " + window);
+		}
+		this.window = window;
+	}
+
+	/**
+	 * Executes the given operation for each id and waits for all of them to complete
+	 *
+	 * @param ids : the ids of the entities
+	 * @param operation : the operation of an entity. It may fail by throwing or by returning a failed future
+	 * @return the outcome of each entity
+	 * @throws InterruptedException in case the thread was interrupted while waiting for a free slot of the window
+	 */
+	public Result execute(Collection<String> ids, Function<String, CompletableFuture<?>> operation) throws InterruptedException {
+		final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+		final Semaphore inFlight = new Semaphore(window);
+		List<CompletableFuture<Void>> requests = new ArrayList<CompletableFuture<Void>>();
+		for (final String id : ids) {
+			inFlight.acquire();
+			CompletableFuture<?> request;
+			try {
+				request = operation.apply(id);
+			} catch (Exception e) {
+				request = failed(e);
+			}
+			requests.add(request.handle((result, error) -> {
+				inFlight.release();
+				if (error != null) {
+					failures.put(id, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+				}
+				return null;
+			}));
+		}
+		CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+		Map<String, Throwable> outcomes = new LinkedHashMap<String, Throwable>();
+		for (String id : ids) {
+			outcomes.put(id, failures.get(id));
+		}
+		return new Result(outcomes);
+	}
+
+	/**
+	 * @return a future that is completed with the given error
+	 */
+	public static <T> CompletableFuture<T> failed(Throwable error) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(error);
+		return future;
+	}
+
+	public static class Result {
+
+		//id -> cause of the failure or null if the operation succeeded, in the order of the ids
+		private final Map<String, Throwable> outcomes;
+
+		Result(Map<String, Throwable> outcomes) {
+			this.outcomes = outcomes;
+		}
+
+		/**
+		 * @return the cause of the failure of each entity by id, {@code null} for the entities whose operation succeeded
+		 */
+		public Map<String, Throwable> getOutcomes() {
+			return outcomes;
+		}
+
+		/**
+		 * @return the cause of the failure of each failed entity by id
+		 */
+		public Map<String, Throwable> getFailures() {
+			Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+			for (Entry<String, Throwable> outcome : outcomes.entrySet()) {
+				if (outcome.getValue() != null) {
+					failures.put(outcome.getKey(), outcome.getValue());
+				}
+			}
+			return failures;
+		}
+
+		public int getSuccessCount() {
+			return outcomes.size() - getFailures().size();
+		}
+	}
+}
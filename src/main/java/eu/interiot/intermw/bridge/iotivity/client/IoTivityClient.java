@@ -21,9 +21,13 @@
 package eu.interiot.intermw.bridge.iotivity.client;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 /**
  * 
@@ -38,10 +42,17 @@ public interface IoTivityClient {
 	 * Method that identifies the randomly assigned port of the IoTivity server.
 	 * This port is needed for executing requests
 	 * 
+	 * @return the resources advertised by the server during the discovery (null if they are not known)
 	 * @throws Exception in case the client was not able to connect to the server
 	 */
 	public JsonElement discoverServer() throws Exception;
 	
+	/**
+	 * Forgets the cached discovery of the server, so that the next {@link #discoverServer()} contacts the network
+	 * (e.g. because the server was restarted on another port)
+	 */
+	public void invalidateDiscovery();
+	
 	/**
 	 * Method for creating a new resource on the IoTivity server
 	 * 
@@ -52,6 +63,17 @@ public interface IoTivityClient {
 	 */
 	public void createResource(Map<String, Object> attributesMap, final String resource) throws Exception;
 	
+	/**
+	 * Asynchronous version of {@link #createResource(Map, String)}
+	 * 
+	 * @param attributesMap : a {@code Map} that contains key-value pairs equivalent to the 
+	 * resource's attributes
+	 * @param resource : the URL of the resource to be created (e.g. /a/light)
+	 * @return a future that is completed with the href of the created resource (the Location-Path of the response,
+	 * or null if the server did not return one) and fails in case the POST request was not successful
+	 */
+	public CompletableFuture<String> createResourceAsync(Map<String, Object> attributesMap, final String resource);
+	
 	/**
 	 * Method for editing a registered resource of an IoTivity server
 	 * 
@@ -61,6 +83,15 @@ public interface IoTivityClient {
 	 */
 	public void editResource(Map<String, Object> attributesMap, final String resource) throws Exception;
 	
+	/**
+	 * Asynchronous version of {@link #editResource(Map, String)}
+	 * 
+	 * @param attributesMap : the attributes to be edited along with the new values
+	 * @param resource: the URL of the resource to be edited (e.g. /a/light)
+	 * @return a future that fails in case the PUT request was not successful
+	 */
+	public CompletableFuture<Void> editResourceAsync(Map<String, Object> attributesMap, final String resource);
+	
 	/**
 	 * Method for deleting a registered resource of an IoTivity server
 	 * 
@@ -69,6 +100,14 @@ public interface IoTivityClient {
 	 */
 	public void deleteResource(final String resource) throws Exception;
 	
+	/**
+	 * Asynchronous version of {@link #deleteResource(String)}
+	 * 
+	 * @param resource: the URL of the resource to be deleted (e.g. /a/light)
+	 * @return a future that fails in case the DELETE request was not successful
+	 */
+	public CompletableFuture<Void> deleteResourceAsync(final String resource);
+	
 	/**
 	 * Method for retrieving a registered resource of an IoTivity server
 	 * 
@@ -77,6 +116,25 @@ public interface IoTivityClient {
 	 */
 	public JsonElement getResource(final String resource) throws Exception;
 	
+	/**
+	 * Asynchronous version of {@link #getResource(String)}
+	 * 
+	 * @param resource: the URL of the resource to be retrieved (e.g. /a/light)
+	 * @return a future that is completed with the JSON representation of the resource
+	 * or fails in case the GET request was not successful
+	 */
+	public CompletableFuture<JsonElement> getResourceAsync(final String resource);
+	
+	/**
+	 * Asynchronous GET request that returns the response of the server as is,
+	 * e.g. in order to be handled like an observation of the resource
+	 * 
+	 * @param resource: the URL of the resource to be retrieved (e.g. /a/light)
+	 * @return a future that is completed with the response (successful or not)
+	 * or fails in case no response was received
+	 */
+	public CompletableFuture<CoapResponse> getResourceResponseAsync(final String resource);
+	
 	/**
 	 * Method for assigning an observer on a resource on an IoTivity server
 	 * 
@@ -87,12 +145,57 @@ public interface IoTivityClient {
 	public void observeResource(final String resource, final CoapHandler handler) throws Exception;
 	
 	/**
-	 * Method for removing an already registered observer on an IoTivity resource
+	 * Method for assigning an observer on a resource on an IoTivity server on behalf of a conversation
+	 * A resource can be observed by many conversations. Observing it again for the same conversation
+	 * replaces the previous observer
+	 * 
+	 * @param resource: the URL of the resource to be observed (e.g. /a/light)
+	 * @param conversationId : the conversation of the subscription (may be null)
+	 * @param handler : the observer of the resource
+	 * @throws Exception
+	 */
+	public void observeResource(final String resource, final String conversationId, final CoapHandler handler) throws Exception;
+	
+	/**
+	 * Asynchronous version of {@link #observeResource(String, CoapHandler)}
+	 * 
+	 * @param resource: the URL of the resource to be observed (e.g. /a/light)
+	 * @param handler : the observer of the resource
+	 * @return a future that is completed with the relation once the server answered. The relation is canceled
+	 * if no response was received or the server does not support the observation of the resource
+	 */
+	public CompletableFuture<CoapObserveRelation> observeResourceAsync(final String resource, final CoapHandler handler);
+	
+	/**
+	 * Method for removing all already registered observers on an IoTivity resource
 	 * 
 	 * @param resource: the URL of the resource to be observed (e.g. /a/light)
 	 */
 	public void stopObservingResource(final String resource);
 	
+	/**
+	 * Method for removing the observer of a conversation on an IoTivity resource
+	 * 
+	 * @param resource: the URL of the resource to be observed (e.g. /a/light)
+	 * @param conversationId : the conversation of the subscription
+	 */
+	public void stopObservingResource(final String resource, final String conversationId);
+	
+	/**
+	 * Method for observing the links of the devices registered on the IoTivity server (/oic/res), so that
+	 * additions and removals of devices are pushed by the server. The method blocks until the server answers
+	 * 
+	 * @param handler : the observer of the links, notified with the whole /oic/res content on every change
+	 * @return true if the observation was established, false if the server did not answer or it does not support observing /oic/res
+	 * @throws Exception in case the request could not be sent
+	 */
+	public boolean observeDeviceLinks(final CoapHandler handler) throws Exception;
+	
+	/**
+	 * Method for removing the observation of the device links, if any
+	 */
+	public void stopObservingDeviceLinks();
+	
 	/**
 	 * Method for assigning the port used by the IoTivity server
 	 * 
@@ -119,7 +222,74 @@ public interface IoTivityClient {
 	 */
 	public String findResourceURL(String id, String rootURL) throws Exception;
 	
+	/**
+	 * Method that retrieves all devices registered on the IoTivity server
+	 * 
+	 * @return a {@code Map} with the id of each device as key and its representation as value
+	 * @throws Exception in case the list of devices could not be retrieved
+	 */
 	public Map<String, JsonElement> listDevices() throws Exception;
 	
+	/**
+	 * Method that retrieves all devices registered on the IoTivity server. Devices that could not
+	 * be retrieved are not included in the result, instead the cause is added to {@code failures}
+	 * 
+	 * @param failures : it is filled with the href of each failed device along with the cause of the failure
+	 * @return a {@code Map} with the id of each device as key and its representation as value
+	 * @throws Exception in case the list of devices could not be retrieved
+	 */
+	public Map<String, JsonElement> listDevices(Map<String, Throwable> failures) throws Exception;
+	
+	/**
+	 * Same as {@link #listDevices(Map)}, but the devices are mapped by the href of their link,
+	 * since the representation of a device does not necessarily contain its href
+	 * 
+	 * @param failures : it is filled with the href of each failed device along with the cause of the failure
+	 * @return a {@code Map} with the href of each device as key and its representation as value
+	 * @throws Exception in case the list of devices could not be retrieved
+	 */
+	public Map<String, JsonElement> listDevicesByHref(Map<String, Throwable> failures) throws Exception;
+	
+	/**
+	 * Method that retrieves the links of all devices registered on the IoTivity server
+	 * 
+	 * @return a {@code JsonArray} that contains a link (with its href) for each device
+	 * @throws Exception in case the list of devices could not be retrieved
+	 */
+	public JsonArray listDeviceLinks() throws Exception;
+	
+	/**
+	 * Method that retrieves asynchronously the representation of a single device
+	 * 
+	 * @param href : the URL of the device, as found in its link
+	 * @return a future that is completed with the representation of the device
+	 */
+	public CompletableFuture<JsonElement> getDeviceAsync(final String href);
+	
+	/**
+	 * Method for assigning the maximum number of concurrent requests made while retrieving the devices
+	 * 
+	 * @param discoveryConcurrency
+	 */
+	public void setDiscoveryConcurrency(int discoveryConcurrency);
+	
+	/**
+	 * @return the maximum number of concurrent requests made while retrieving the devices
+	 */
+	public int getDiscoveryConcurrency();
+	
 	public void setIp(String ip);
+	
+	/**
+	 * Method that prepares the client for executing requests (e.g. binds the shared COAP endpoint)
+	 * 
+	 * @throws Exception in case the client could not be started
+	 */
+	public void start() throws Exception;
+	
+	/**
+	 * Method that releases all resources held by the client (observations, endpoint, pooled clients)
+	 * The client must not be used after this call
+	 */
+	public void shutdown();
 }
\ No newline at end of file
@@ -20,17 +20,16 @@
  */
 package eu.interiot.intermw.bridge.iotivity.client;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.apache.jena.rdf.model.Model;
 import org.eclipse.californium.core.CoapHandler;
 import org.eclipse.californium.core.CoapResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-
-import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.bridge.iotivity.pipeline.ObservationPipeline;
 import eu.interiot.intermw.comm.broker.Publisher;
 import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
 import eu.interiot.message.Message;
@@ -41,23 +40,55 @@ import eu.interiot.message.metadata.PlatformMessageMetadata;
  * This class provides the functionalities of a handler needed for observing a resource
  * It defines the procedure to be followed whenever a new observation is sent by the platform
  * and the procedure in case of an error
+ * A handler can serve several subscriptions of the same resource: each observation is translated once
+ * and then published with the metadata of every subscription. In case an {@link ObservationPipeline} is given,
+ * the observations are only queued on the thread of the CoAP endpoint and translated and published by the pipeline
  *
  */
 public class IoTivityCoapHandler implements CoapHandler {
 
 	private final Logger logger = LoggerFactory.getLogger(IoTivityCoapHandler.class);
-	private PlatformMessageMetadata metadata;
+	private Collection<PlatformMessageMetadata> subscribers;
 	private IotivityTranslator translator;
 	private Publisher<Message> publisher;
+	private String href;
+	private ObservationPipeline pipeline;
 
 	public IoTivityCoapHandler(PlatformMessageMetadata metadata, IotivityTranslator translator,
 			Publisher<Message> publisher) {
+		this(Collections.singletonList(metadata), translator, publisher);
+	}
+
+	/**
+	 * Constructor of a handler shared by several subscriptions
+	 *
+	 * @param subscribers : the metadata of the subscriptions. The collection is read on every observation,
+	 * so a live (thread-safe) view can be given in order to add and remove subscriptions
+	 * @param translator : the translator of the observations
+	 * @param publisher : the publisher of the observation messages
+	 */
+	public IoTivityCoapHandler(Collection<PlatformMessageMetadata> subscribers, IotivityTranslator translator,
+			Publisher<Message> publisher) {
 		super();
-		this.metadata = metadata;
+		this.subscribers = subscribers;
 		this.translator = translator;
 		this.publisher = publisher;
 	}
 
+	/**
+	 * Constructor of a handler that passes the observations to a pipeline
+	 *
+	 * @param href : the URL of the observed resource
+	 * @param subscribers : live view of the metadata of the subscriptions
+	 * @param pipeline : the pipeline that translates and publishes the observations
+	 */
+	public IoTivityCoapHandler(String href, Collection<PlatformMessageMetadata> subscribers, ObservationPipeline pipeline) {
+		super();
+		this.href = href;
+		this.subscribers = subscribers;
+		this.pipeline = pipeline;
+	}
+
 	@Override
 	/*
 	 * (non-Javadoc)
@@ -65,22 +96,25 @@ public class IoTivityCoapHandler implements CoapHandler {
 	 */
 	public void onLoad(CoapResponse response) {
 		try {
-			if (response.getPayload() != null) {
+			if (response.getPayload() != null && !subscribers.isEmpty() && pipeline != null) {
+				if (!pipeline.submit(href, response.getPayload(), subscribers)) {
+					logger.debug("Observation of {} was dropped by the pipeline.", href);
+				}
+			}
+			else if (response.getPayload() != null && !subscribers.isEmpty()) {
 				logger.debug("Received observation from the platform.");
 				System.out.println("Received observation from the platform");
-				JsonElement responseJson = EncodingUtils.coapResponseToJson(response.getPayload());
-				logger.debug("---> " + responseJson);
-				//System.out.println("---> " + responseJson);
-				JsonParser parser = new JsonParser();
-				JsonObject observationObject = parser.parse(responseJson.toString()).getAsJsonObject();
-				Model translatedModel = translator.toJenaModel(observationObject.toString());
-				MessagePayload responsePayload = new MessagePayload(translatedModel);
-
-				Message observationMessage = new Message();
-				observationMessage.setMetadata(metadata);
-				observationMessage.setPayload(responsePayload);
-
-				publisher.publish(observationMessage);
+				Model translatedModel = translator.toJenaModel(response.getPayload());
+				for (PlatformMessageMetadata metadata : subscribers) {
+					Message observationMessage = new Message();
+					observationMessage.setMetadata(metadata);
+					observationMessage.setPayload(new MessagePayload(translatedModel));
+					try {
+						publish(observationMessage);
+					} catch (Exception e) {
+						logger.error("Observation message could not be published: {}", e.getMessage());
+					}
+				}
 				logger.debug("Observation message has been published upstream.");
 			}
 		} catch (Exception e) {
@@ -89,6 +123,13 @@ public class IoTivityCoapHandler implements CoapHandler {
 		}
 	}
 
+	/**
+	 * Publishes an observation message upstream
+	 */
+	protected void publish(Message observationMessage) throws Exception {
+		publisher.publish(observationMessage);
+	}
+
 	@Override
 	/*
 	 * (non-Javadoc)
@@ -0,0 +1,262 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.client;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.CoapHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.interiot.intermw.bridge.iotivity.pipeline.BatchPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.FilterPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.ObservationPipeline;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+/**
+ *
+ * Shares one observe relation per resource among all the subscriptions to the resource
+ * The first subscription to a resource observes it on the IoTivity server and the last unsubscription
+ * cancels the observation. Each notification is passed once to the {@link ObservationPipeline}, which translates it
+ * and publishes it with the metadata of every subscription, so the server serves a single notification stream per resource.
+ * The relations are supervised by an {@link ObservationSupervisor}, which registers them again when they fail
+ *
+ */
+public class ObservationMultiplexer {
+
+	//key of the subscription without conversation id
+	private static final String NO_CONVERSATION = "";
+
+	private final Logger logger = LoggerFactory.getLogger(ObservationMultiplexer.class);
+	private final IoTivityClient client;
+	private final ObservationPipeline pipeline;
+	private final long initialBackoff;
+	private final long maxBackoff;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "iotivity-observe-supervisor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	//href -> subscriptions, guarded by this
+	private final Map<String, Subscriptions> subscriptions = new HashMap<String, Subscriptions>();
+
+	public ObservationMultiplexer(IoTivityClient client, ObservationPipeline pipeline) {
+		this(client, pipeline, ObservationSupervisor.DEFAULT_INITIAL_BACKOFF, ObservationSupervisor.DEFAULT_MAX_BACKOFF);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param client : the client of the IoTivity server
+	 * @param pipeline : the pipeline that translates and publishes the notifications
+	 * @param initialBackoff : the delay of the first re-registration of a failed relation in milliseconds
+	 * @param maxBackoff : the maximum delay between two re-registrations in milliseconds
+	 */
+	public ObservationMultiplexer(IoTivityClient client, ObservationPipeline pipeline, long initialBackoff, long maxBackoff) {
+		this.client = client;
+		this.pipeline = pipeline;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	public boolean subscribe(String href, String conversationId, PlatformMessageMetadata metadata) {
+		return subscribe(href, conversationId, metadata, BatchPolicy.NONE, FilterPolicy.NONE);
+	}
+
+	/**
+	 * Subscribes a conversation to a resource. The resource is observed only if it has no other subscription,
+	 * while subscribing again with the same conversation replaces the metadata of the subscription
+	 *
+	 * @param href : the URL of the resource (e.g. /a/light)
+	 * @param conversationId : the conversation of the subscription (may be null)
+	 * @param metadata : the metadata of the observation messages of the subscription
+	 * @param batching : how the observations of the conversation are grouped into messages
+	 * (it applies to all the resources the conversation is subscribed to)
+	 * @param filtering : which observations of the resources are forwarded to the conversation
+	 * @return true if a new observe relation was requested for the resource
+	 */
+	public synchronized boolean subscribe(String href, String conversationId, PlatformMessageMetadata metadata,
+			BatchPolicy batching, FilterPolicy filtering) {
+		if (pipeline != null) {
+			pipeline.setBatchPolicy(conversationId, batching);
+			pipeline.setFilterPolicy(conversationId, filtering);
+		}
+		Subscriptions resource = subscriptions.get(href);
+		if (resource != null) {
+			resource.subscribers.put(key(conversationId), metadata);
+			logger.debug("Observation of {} is shared by {} subscriptions", href, resource.subscribers.size());
+			return false;
+		}
+		resource = new Subscriptions();
+		resource.subscribers.put(key(conversationId), metadata);
+		subscriptions.put(href, resource);
+		observe(href, resource);
+		return true;
+	}
+
+	private void observe(String href, Subscriptions resource) {
+		resource.supervisor = new ObservationSupervisor(client, href, createHandler(href, resource.subscribers.values()),
+				scheduler, initialBackoff, maxBackoff);
+		resource.supervisor.start();
+	}
+
+	/**
+	 * Unsubscribes a conversation from a resource. The observation of the resource is cancelled
+	 * when its last subscription is removed
+	 *
+	 * @param href : the URL of the resource
+	 * @param conversationId : the conversation of the subscription (may be null)
+	 * @return true if there was such a subscription
+	 */
+	public synchronized boolean unsubscribe(String href, String conversationId) {
+		Subscriptions resource = subscriptions.get(href);
+		if (resource == null || resource.subscribers.remove(key(conversationId)) == null) {
+			return false;
+		}
+		if (resource.subscribers.isEmpty()) {
+			subscriptions.remove(href);
+			stopObserving(resource);
+		}
+		releasePolicies(key(conversationId));
+		return true;
+	}
+
+	/**
+	 * Removes all subscriptions to a resource and cancels its observation
+	 *
+	 * @return the number of removed subscriptions
+	 */
+	public synchronized int unsubscribeAll(String href) {
+		Subscriptions resource = subscriptions.remove(href);
+		if (resource == null) {
+			return 0;
+		}
+		stopObserving(resource);
+		for (String conversation : resource.subscribers.keySet()) {
+			releasePolicies(conversation);
+		}
+		return resource.subscribers.size();
+	}
+
+	/**
+	 * Stops the batching and the filtering of a conversation that is no longer subscribed to any resource
+	 */
+	private void releasePolicies(String conversation) {
+		if (pipeline == null) {
+			return;
+		}
+		for (Subscriptions resource : subscriptions.values()) {
+			if (resource.subscribers.containsKey(conversation)) {
+				return;
+			}
+		}
+		pipeline.setBatchPolicy(conversation, BatchPolicy.NONE);
+		pipeline.setFilterPolicy(conversation, FilterPolicy.NONE);
+	}
+
+	private void stopObserving(Subscriptions resource) {
+		//the supervisor is stopped first, so that it does not register the relation again
+		resource.supervisor.stop();
+		client.stopObservingResource(resource.supervisor.getHref());
+	}
+
+	/**
+	 * Observes all subscribed resources again, e.g. because the address of the server changed.
+	 * The relations of the old address are cancelled, so their notifications are no longer received,
+	 * and the resources are not observed until the new relations are established
+	 */
+	public synchronized void restart() {
+		for (Entry<String, Subscriptions> resource : subscriptions.entrySet()) {
+			stopObserving(resource.getValue());
+			observe(resource.getKey(), resource.getValue());
+		}
+	}
+
+	/**
+	 * Forgets all subscriptions and stops the supervision of their relations,
+	 * e.g. when the observations were cancelled by the shutdown of the client
+	 */
+	public synchronized void close() {
+		for (Subscriptions resource : subscriptions.values()) {
+			resource.supervisor.stop();
+		}
+		subscriptions.clear();
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * @return the number of subscriptions to the given resource
+	 */
+	public synchronized int getSubscriptionCount(String href) {
+		Subscriptions resource = subscriptions.get(href);
+		return resource == null ? 0 : resource.subscribers.size();
+	}
+
+	/**
+	 * @return the number of observed resources, i.e. of the observe relations requested by the multiplexer
+	 */
+	public synchronized int getRelationCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * @return the supervisor of the observation of the given resource or {@code null} if it is not observed
+	 */
+	public synchronized ObservationSupervisor getSupervisor(String href) {
+		Subscriptions resource = subscriptions.get(href);
+		return resource == null ? null : resource.supervisor;
+	}
+
+	/**
+	 * @return true if the given resource is observed and its observe relation is established
+	 */
+	public synchronized boolean isObserving(String href) {
+		Subscriptions resource = subscriptions.get(href);
+		return resource != null && resource.supervisor.isEstablished();
+	}
+
+	/**
+	 * Creates the handler of the notifications of a resource
+	 *
+	 * @param href : the URL of the resource
+	 * @param subscribers : live view of the metadata of the subscriptions to the resource
+	 */
+	protected CoapHandler createHandler(String href, Collection<PlatformMessageMetadata> subscribers) {
+		return new IoTivityCoapHandler(href, subscribers, pipeline);
+	}
+
+	private static String key(String conversationId) {
+		return conversationId == null ? NO_CONVERSATION : conversationId;
+	}
+
+	private static class Subscriptions {
+
+		private final ConcurrentMap<String, PlatformMessageMetadata> subscribers = new ConcurrentHashMap<String, PlatformMessageMetadata>();
+		private ObservationSupervisor supervisor;
+	}
+}
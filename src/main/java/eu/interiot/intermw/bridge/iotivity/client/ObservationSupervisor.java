@@ -0,0 +1,383 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.client;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Keeps the observation of a resource alive and its notifications in order
+ * A failed or lost observe relation is registered again after an exponential backoff, so that a subscription
+ * survives a restart of the IoTivity server or a network failure. The notifications are passed to the handler
+ * one at a time, in the order of their Observe sequence numbers (RFC 7641, section 3.4): stale and reordered
+ * notifications are dropped, while a skipped sequence number is followed by a GET of the resource,
+ * in case the missed notifications were not covered by the one that revealed the gap.
+ * A response that repeats the last delivered representation right after a re-registration or a catch-up GET
+ * is not delivered again. The handler is called outside of the monitor of the supervisor, so that a slow handler
+ * does not block the supervisor (e.g. its stop)
+ *
+ */
+public class ObservationSupervisor implements CoapHandler {
+
+	public static final long DEFAULT_INITIAL_BACKOFF = 1000;
+	public static final long DEFAULT_MAX_BACKOFF = 60000;
+	//Observe sequence numbers are 24 bits long
+	private static final int SEQUENCE_MODULO = 1 << 24;
+	private static final int SEQUENCE_WINDOW = 1 << 23;
+	//after this period a notification is considered fresh, whatever its sequence number
+	private static final long FRESHNESS_NANOS = TimeUnit.SECONDS.toNanos(128);
+
+	private final Logger logger = LoggerFactory.getLogger(ObservationSupervisor.class);
+	private final IoTivityClient client;
+	private final String href;
+	private final CoapHandler handler;
+	private final ScheduledExecutorService scheduler;
+	private final long initialBackoff;
+	private final long maxBackoff;
+
+	//state guarded by this
+	private boolean stopped;
+	//incremented on every registration, so that the events of replaced relations are ignored
+	private int generation;
+	private int attempts;
+	//true while the current relation is accepted by the server
+	private boolean established;
+	private ScheduledFuture<?> retry;
+	private int lastSequence = -1;
+	private long lastNanos;
+	private byte[] lastPayload;
+	private boolean resynchronizing;
+	private long staleCount;
+	private long gapCount;
+	private long reregistrationCount;
+	private long duplicateCount;
+	//the accepted responses that are not passed to the handler yet, in order
+	private final Queue<CoapResponse> pending = new ArrayDeque<CoapResponse>();
+	//true while a thread passes the pending responses to the handler
+	private boolean delivering;
+
+	/**
+	 * Constructor
+	 *
+	 * @param client : the client of the IoTivity server
+	 * @param href : the URL of the observed resource
+	 * @param handler : the handler of the notifications
+	 * @param scheduler : the scheduler of the re-registrations
+	 * @param initialBackoff : the delay of the first re-registration in milliseconds
+	 * @param maxBackoff : the maximum delay between two re-registrations in milliseconds
+	 */
+	public ObservationSupervisor(IoTivityClient client, String href, CoapHandler handler, ScheduledExecutorService scheduler,
+			long initialBackoff, long maxBackoff) {
+		this.client = client;
+		this.href = href;
+		this.handler = handler;
+		this.scheduler = scheduler;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Observes the resource. The method does not block; a failed registration is retried with backoff
+	 */
+	public synchronized void start() {
+		register();
+	}
+
+	/**
+	 * Stops the supervision. The observe relation itself is cancelled by the client
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		established = false;
+		pending.clear();
+		if (retry != null) {
+			retry.cancel(false);
+			retry = null;
+		}
+	}
+
+	private synchronized void register() {
+		retry = null;
+		if (stopped) {
+			return;
+		}
+		//the sequence numbers of a new relation are not comparable to the previous ones
+		lastSequence = -1;
+		resynchronizing = lastPayload != null;
+		established = false;
+		final int current = ++generation;
+		client.observeResourceAsync(href, new RelationHandler(current)).whenComplete((relation, error) -> {
+			registered(current, relation, error);
+			flush();
+		});
+	}
+
+	private synchronized void registered(int current, CoapObserveRelation relation, Throwable error) {
+		Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+		if (stopped || current != generation || cause instanceof CancellationException) {
+			//the observation was stopped or replaced
+			return;
+		}
+		if (cause != null) {
+			logger.debug("Observation of {} could not be registered: {}", href, cause.getMessage());
+			failed();
+			return;
+		}
+		//the relation is canceled if the server did not answer or it did not accept the observation
+		if (relation.isCanceled()) {
+			if (relation.getCurrent() == null) {
+				logger.debug("Observation of {} could not be registered: no response", href);
+				failed();
+			}
+			else if (relation.getCurrent().isSuccess()) {
+				logger.warn("The server does not support the observation of {}", href);
+				//the only response is delivered, as if it was a notification
+				deliver(relation.getCurrent());
+			}
+			else {
+				logger.debug("Observation of {} was rejected with {}", href, relation.getCurrent().getCode());
+				failed();
+			}
+			return;
+		}
+		attempts = 0;
+		established = true;
+	}
+
+	private synchronized void failed() {
+		established = false;
+		if (stopped || retry != null) {
+			return;
+		}
+		long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempts, 30));
+		//a random part, so that the observations of a restarted server are not registered all together
+		long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+		attempts++;
+		reregistrationCount++;
+		logger.info("Observation of {} is registered again in {} ms", href, delay);
+		retry = scheduler.schedule(this::register, delay, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void onLoad(CoapResponse response) {
+		accept(response);
+		flush();
+	}
+
+	private synchronized void accept(CoapResponse response) {
+		if (stopped) {
+			return;
+		}
+		if (!response.isSuccess()) {
+			//the server ended the relation, e.g. the resource was removed or the server restarted
+			logger.debug("Observation of {} ended with {}", href, response.getCode());
+			failed();
+			return;
+		}
+		if (!response.getOptions().hasObserve()) {
+			//the answer to a request the server did not accept as observe, which is handled once the relation is registered
+			return;
+		}
+		boolean gap = false;
+		int sequence = response.getOptions().getObserve();
+		long now = System.nanoTime();
+		if (lastSequence >= 0) {
+			if (!isNewer(sequence, now)) {
+				staleCount++;
+				logger.debug("Dropping stale notification {} of {} (last {})", sequence, href, lastSequence);
+				return;
+			}
+			gap = sequence != (lastSequence + 1) % SEQUENCE_MODULO;
+		}
+		lastSequence = sequence;
+		lastNanos = now;
+		deliver(response);
+		if (gap) {
+			gapCount++;
+			catchUp();
+		}
+	}
+
+	/**
+	 * @return true if the notification with the given sequence number is newer than the last one
+	 */
+	private boolean isNewer(int sequence, long nanos) {
+		return (lastSequence < sequence && sequence - lastSequence < SEQUENCE_WINDOW)
+				|| (lastSequence > sequence && lastSequence - sequence > SEQUENCE_WINDOW)
+				|| nanos - lastNanos > FRESHNESS_NANOS;
+	}
+
+	private void deliver(CoapResponse response) {
+		byte[] payload = response.getPayload();
+		if (resynchronizing) {
+			resynchronizing = false;
+			if (Arrays.equals(payload, lastPayload)) {
+				duplicateCount++;
+				return;
+			}
+		}
+		lastPayload = payload;
+		pending.add(response);
+	}
+
+	/**
+	 * Passes the pending responses to the handler, in the order they were accepted. The handler is called
+	 * by one thread at a time, while the other threads leave the responses they accepted to that thread
+	 */
+	private void flush() {
+		if (Thread.holdsLock(this)) {
+			//e.g. a catch-up request that failed at once, the caller passes the responses once it leaves the monitor
+			return;
+		}
+		synchronized (this) {
+			if (delivering) {
+				return;
+			}
+			delivering = true;
+		}
+		while (true) {
+			CoapResponse response;
+			synchronized (this) {
+				response = pending.poll();
+				if (response == null) {
+					delivering = false;
+					return;
+				}
+			}
+			try {
+				handler.onLoad(response);
+			} catch (RuntimeException e) {
+				logger.error("Notification of {} could not be handled: {}", href, e.getMessage());
+			}
+		}
+	}
+
+	private void catchUp() {
+		final int sequence = lastSequence;
+		logger.debug("Notifications of {} were missed, retrieving the resource", href);
+		client.getResourceResponseAsync(href).whenComplete((response, error) -> {
+			synchronized (ObservationSupervisor.this) {
+				//a newer notification makes the response obsolete
+				if (stopped || error != null || !response.isSuccess() || lastSequence != sequence) {
+					return;
+				}
+				resynchronizing = true;
+				deliver(response);
+				//the next notification may repeat the retrieved representation
+				resynchronizing = true;
+			}
+			flush();
+		});
+	}
+
+	@Override
+	public void onError() {
+		logger.debug("Observation of {} failed", href);
+		failed();
+	}
+
+	/**
+	 *
+	 * Handler of a single relation, which passes its events to the supervisor as long as the relation is not replaced
+	 * (e.g. the answer to the cancellation of the relation)
+	 *
+	 */
+	private class RelationHandler implements CoapHandler {
+
+		private final int relationGeneration;
+
+		RelationHandler(int relationGeneration) {
+			this.relationGeneration = relationGeneration;
+		}
+
+		@Override
+		public void onLoad(CoapResponse response) {
+			synchronized (ObservationSupervisor.this) {
+				if (relationGeneration == generation) {
+					accept(response);
+				}
+			}
+			flush();
+		}
+
+		@Override
+		public void onError() {
+			synchronized (ObservationSupervisor.this) {
+				if (relationGeneration == generation) {
+					ObservationSupervisor.this.onError();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of notifications dropped because they were older than the last delivered one
+	 */
+	public synchronized long getStaleCount() {
+		return staleCount;
+	}
+
+	/**
+	 * @return the number of gaps in the sequence of the notifications
+	 */
+	public synchronized long getGapCount() {
+		return gapCount;
+	}
+
+	/**
+	 * @return the number of scheduled re-registrations
+	 */
+	public synchronized long getReregistrationCount() {
+		return reregistrationCount;
+	}
+
+	/**
+	 * @return the number of responses that were not delivered because they repeated the last delivered one
+	 */
+	public synchronized long getDuplicateCount() {
+		return duplicateCount;
+	}
+
+	/**
+	 * @return true if the resource is observed, i.e. its notifications are received
+	 */
+	public synchronized boolean isEstablished() {
+		return established;
+	}
+
+	public String getHref() {
+		return href;
+	}
+}
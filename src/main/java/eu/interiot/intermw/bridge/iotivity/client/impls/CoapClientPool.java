@@ -0,0 +1,147 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.client.impls;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Pool of reusable {@code CoapClient} instances that share a single {@code CoapEndpoint}
+ * One pool is used by each IoTivity client, so that requests do not create a new
+ * client (and a new exchange state) every time they are executed
+ *
+ */
+public class CoapClientPool {
+
+	//the maximum number of cached clients. When exceeded the cache is cleared
+	private static final int MAX_CLIENTS = 1024;
+
+	private final Logger logger = LoggerFactory.getLogger(CoapClientPool.class);
+	private final ConcurrentMap<String, CoapClient> clients = new ConcurrentHashMap<String, CoapClient>();
+	private final NetworkConfig networkConfig;
+	private final long timeout;
+	private CoapEndpoint endpoint;
+
+	/**
+	 * Constructor
+	 *
+	 * @param timeout : the timeout (in milliseconds) of the requests made by the pooled clients
+	 */
+	public CoapClientPool(long timeout) {
+		this(NetworkConfig.getStandard(), timeout);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param networkConfig : the configuration of the shared endpoint
+	 * @param timeout : the timeout (in milliseconds) of the requests made by the pooled clients
+	 */
+	public CoapClientPool(NetworkConfig networkConfig, long timeout) {
+		this.networkConfig = networkConfig;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Creates and starts the shared endpoint, if it is not already started
+	 *
+	 * @throws IOException in case the endpoint could not be bound
+	 */
+	public synchronized void start() throws IOException {
+		if (endpoint == null) {
+			CoapEndpoint coapEndpoint = new CoapEndpoint.CoapEndpointBuilder().setNetworkConfig(networkConfig).build();
+			coapEndpoint.start();
+			endpoint = coapEndpoint;
+			logger.debug("Shared COAP endpoint started at {}", endpoint.getAddress());
+		}
+	}
+
+	/**
+	 * Stops the shared endpoint and removes all cached clients
+	 * Any pending request of the pooled clients is cancelled
+	 */
+	public synchronized void shutdown() {
+		clients.clear();
+		if (endpoint != null) {
+			endpoint.destroy();
+			endpoint = null;
+			logger.debug("Shared COAP endpoint destroyed");
+		}
+	}
+
+	/**
+	 * Returns the shared endpoint. The endpoint is started if needed
+	 *
+	 * @throws IOException in case the endpoint could not be started
+	 */
+	public synchronized Endpoint getEndpoint() throws IOException {
+		start();
+		return endpoint;
+	}
+
+	/**
+	 * Returns the cached client of the given {@code uri}. If there is no such client,
+	 * a new one that uses the shared endpoint is created and cached
+	 *
+	 * @param uri : the COAP URL the client is going to use
+	 * @throws IOException in case the shared endpoint could not be started
+	 */
+	public CoapClient getClient(String uri) throws IOException {
+		CoapClient client = clients.get(uri);
+		if (client != null) {
+			return client;
+		}
+		final Endpoint sharedEndpoint = getEndpoint();
+		if (clients.size() >= MAX_CLIENTS) {
+			clients.clear();
+		}
+		return clients.computeIfAbsent(uri, u -> {
+			CoapClient c = new CoapClient(u);
+			c.setEndpoint(sharedEndpoint);
+			c.setTimeout(timeout);
+			return c;
+		});
+	}
+
+	/**
+	 * Removes all cached clients (e.g. when the address of the server changes)
+	 * The shared endpoint is not affected
+	 */
+	public void clear() {
+		clients.clear();
+	}
+
+	/**
+	 * @return the number of cached clients
+	 */
+	public int size() {
+		return clients.size();
+	}
+}
@@ -21,25 +21,44 @@
 package eu.interiot.intermw.bridge.iotivity.client.impls;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.californium.core.CoapClient;
 import org.eclipse.californium.core.CoapHandler;
 import org.eclipse.californium.core.CoapObserveRelation;
 import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 import eu.interiot.intermw.bridge.BridgeConfiguration;
 import eu.interiot.intermw.bridge.exceptions.BridgeException;
 import eu.interiot.intermw.bridge.iotivity.IoTivityProperty;
 import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
 import eu.interiot.intermw.bridge.iotivity.client.IoTivityClient;
+import eu.interiot.intermw.bridge.iotivity.client.utils.CoapDiscovery;
+import eu.interiot.intermw.bridge.iotivity.client.utils.CoapDiscovery.DiscoveredServer;
 import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
 import eu.interiot.intermw.bridge.iotivity.client.utils.HttpClient;
 
@@ -52,16 +71,29 @@ import eu.interiot.intermw.bridge.iotivity.client.utils.HttpClient;
  */
 public class IoTivityCoapClientImpl implements IoTivityClient{
 	
+	private final Logger logger = LoggerFactory.getLogger(IoTivityCoapClientImpl.class);
 	private static final String SCHEME = "coap";
-	private static final String SERVER_DISCOVERY_URL = "/oic/res";
 	private static final int SERVER_DISCOVERY_PORT = 5683;
+	private static final CoapDiscovery DISCOVERY = new CoapDiscovery();
+	private static final long REQUEST_TIMEOUT = 5000;
+	private static final String DEVICE_DISCOVERY_URL = "/oic/res?rt=oic.wk.d";
+	private static final String DEVICE_INTERFACE_QUERY = "?if=oic.if.ll";
+	public static final int DEFAULT_DISCOVERY_CONCURRENCY = 16;
 	private int hardCodedPort;
-	private static double JAVA_VERSION = getVersion();
 
 	private String ip;
 	private String proxyIp;
 	private int port;
-	private Map<String, CoapObserveRelation> observationMap = new HashMap<String, CoapObserveRelation>();
+	private volatile int discoveryConcurrency = DEFAULT_DISCOVERY_CONCURRENCY;
+	//set when a request got no response, so that the port is discovered again before the next request
+	private final AtomicBoolean rediscovery = new AtomicBoolean();
+	private final ObservationRegistry observations = new ObservationRegistry();
+	private final CoapClientPool clientPool = new CoapClientPool(REQUEST_TIMEOUT);
+	private final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "iotivity-coap-timeout");
+		thread.setDaemon(true);
+		return thread;
+	});
 	
 	/**
 	 * Constructor
@@ -72,15 +104,16 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	public IoTivityCoapClientImpl(String ip, BridgeConfiguration configuration) throws BridgeException {
 		this(ip, configuration.getProperties().getProperty(IoTivityProperty.PROXY_IP),
 				configuration.getProperties().getProperty(IoTivityProperty.SERVER_PORT));
+		String concurrency = configuration.getProperties().getProperty(IoTivityProperty.DISCOVERY_CONCURRENCY);
+		if (concurrency != null && !concurrency.isEmpty()) {
+			setDiscoveryConcurrency(Integer.parseInt(concurrency));
+		}
 	}
 	
 	public IoTivityCoapClientImpl(String ip, String proxyIp, String iotivityServerPort) throws BridgeException {
         if (ip == null) {
             throw new BridgeException("Invalid bridge configuration: property '"+IoTivityProperty.SERVER_IP+"' is not set.");
         }
-        if (proxyIp == null && iotivityServerPort == null) {
-            throw new BridgeException("Invalid bridge configuration: define '"+IoTivityProperty.PROXY_IP+"' or '"+IoTivityProperty.SERVER_PORT+"'.");
-        }
         if (iotivityServerPort != null && !iotivityServerPort.isEmpty()) {
 			hardCodedPort = Integer.parseInt(iotivityServerPort);
 		}
@@ -97,11 +130,25 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	 */
 	@Override
 	public void editResource(Map<String, Object> attributesMap, final String resource) throws Exception{
-		CoapClient client = createCoapClient(createResourceURL(resource));
-		byte[] resourceEncoded = EncodingUtils.encodeResourceToCbor(attributesMap);
-		CoapResponse response = client.put(resourceEncoded, MediaTypeRegistry.APPLICATION_CBOR);
-		if (response != null) {
-			EncodingUtils.printCborEncodedBytes(response.getPayload());
+		await(editResourceAsync(attributesMap, resource));
+	}
+	
+	/**
+	 * Method that edits asynchronously an existing resource to the IoTivity server
+	 * 
+	 * @param attributesMap : a {@code Map} that contains the names and the values of the resource to be edited
+	 * @param resource : the URL of the resource
+	 * @return a future that is completed when the server responds, or fails if the request was not successful
+	 */
+	@Override
+	public CompletableFuture<Void> editResourceAsync(Map<String, Object> attributesMap, final String resource) {
+		try {
+			Request request = Request.newPut();
+			request.setPayload(EncodingUtils.encodeResourceToCbor(attributesMap));
+			request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+			return sendAsync(resource, request).thenCompose(response -> checkResponse(response, resource));
+		} catch (Exception e) {
+			return failedFuture(e);
 		}
 	}
 	
@@ -114,16 +161,32 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	 */
 	@Override
 	public void createResource(Map<String, Object> attributesMap, final String resource) throws Exception{
-		CoapClient client = createCoapClient(createResourceURL(resource));
-		byte[] resourceEncoded = EncodingUtils.encodeResourceToCbor(attributesMap);
-		CoapResponse response = client.post(resourceEncoded, MediaTypeRegistry.APPLICATION_CBOR);
-		if (response != null && response.getPayload() != null) {
-			EncodingUtils.printCborEncodedBytes(response.getPayload());
+		await(createResourceAsync(attributesMap, resource));
+	}
+	
+	/**
+	 * Method that creates asynchronously a new resource to the IoTivity server
+	 * 
+	 * @param attributesMap : a {@code Map} that contains the names and the values of the new resource
+	 * @param resource : the URL of the resource
+	 * @return a future that is completed with the href of the created resource (null if the response has no Location-Path)
+	 * when the server responds, or fails if the request was not successful
+	 */
+	@Override
+	public CompletableFuture<String> createResourceAsync(Map<String, Object> attributesMap, final String resource) {
+		try {
+			Request request = Request.newPost();
+			request.setPayload(EncodingUtils.encodeResourceToCbor(attributesMap));
+			request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+			return sendAsync(resource, request).thenCompose(response -> checkResponse(response, resource).thenApply(created -> {
+				String location = response.getOptions().getLocationPathString();
+				return location.isEmpty() ? null : "/" + location;
+			}));
+		} catch (Exception e) {
+			return failedFuture(e);
 		}
 	}
- 	
 
-	
 	/**
 	 * Deletes a resource from the IoTivity server
 	 * 
@@ -132,8 +195,18 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	 */
 	@Override
 	public void deleteResource(final String resource) throws Exception{
-		CoapClient client = createCoapClient(createResourceURL(resource));
-		client.delete();
+		await(deleteResourceAsync(resource));
+	}
+	
+	/**
+	 * Deletes asynchronously a resource from the IoTivity server
+	 * 
+	 * @param resource : the URL of the resource to be deleted
+	 * @return a future that is completed when the server responds, or fails if the request was not successful
+	 */
+	@Override
+	public CompletableFuture<Void> deleteResourceAsync(final String resource) {
+		return sendAsync(resource, Request.newDelete()).thenCompose(response -> checkResponse(response, resource));
 	}
 	
 	/**
@@ -145,41 +218,179 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	 */
 	@Override
 	public JsonElement getResource(final String resource) throws Exception{
-		CoapClient client = createCoapClient(createResourceURL(resource));
-		CoapResponse response = client.get();
-		if (response != null && response.getPayload() != null) {
-			JsonElement json = EncodingUtils.coapResponseToJson(response.getPayload());
-			System.out.println(json);
-			return json;
+		return await(getResourceAsync(resource));
+	}
+	
+	/**
+	 * This method makes an asynchronous COAP GET request to the given {@code resource} of the IoTivity server
+	 * 
+	 * @param resource : the URL of the resource to be retrieved
+	 * @return a future that is completed with the JSON representation of the given resource
+	 */
+	@Override
+	public CompletableFuture<JsonElement> getResourceAsync(final String resource) {
+		CompletableFuture<JsonElement> future = new CompletableFuture<JsonElement>();
+		sendAsync(resource, Request.newGet()).whenComplete((response, error) -> {
+			if (error != null) {
+				future.completeExceptionally(error);
+				return;
+			}
+			if (response.getPayload() == null || response.getPayload().length == 0) {
+				future.completeExceptionally(new Exception("Did not receive any data for the resource: " + resource));
+				return;
+			}
+			try {
+				future.complete(EncodingUtils.coapResponseToJson(response.getPayload()));
+			} catch (Exception e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+	
+	/**
+	 * Retrieves a resource without blocking and without decoding the response
+	 * 
+	 * @param resource : the URL of the resource (e.g. /a/light)
+	 * @return a future that is completed with the response of the server
+	 */
+	@Override
+	public CompletableFuture<CoapResponse> getResourceResponseAsync(final String resource) {
+		return sendAsync(resource, Request.newGet());
+	}
+	
+	/**
+	 * Sends the given {@code request} to the given {@code resource} without blocking
+	 * The returned future fails if no response is received within {@value #REQUEST_TIMEOUT} milliseconds
+	 * 
+	 * @param resource : the URL of the resource (e.g. /a/light)
+	 * @param request : the request to be sent
+	 * @return a future that is completed with the response of the server
+	 */
+	private CompletableFuture<CoapResponse> sendAsync(final String resource, final Request request) {
+		final CompletableFuture<CoapResponse> future = new CompletableFuture<CoapResponse>();
+		try {
+			CoapClient client = createCoapClient(createResourceURL(resource));
+			//the timeout is scheduled before the request is sent, so that a shut down client sends nothing
+			final ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+				if (future.completeExceptionally(new TimeoutException("No response was received for the resource: " + resource))) {
+					request.cancel();
+					onRequestFailure();
+				}
+			}, REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+			future.whenComplete((response, error) -> timeout.cancel(false));
+			client.advanced(new CoapHandler() {
+				@Override public void onLoad(CoapResponse response) {
+					future.complete(response);
+				}
+				
+				@Override public void onError() {
+					onRequestFailure();
+					future.completeExceptionally(new Exception("The " + request.getCode() + " request to the resource " + resource + " failed"));
+				}
+			}, request);
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Called when a request got no response. The server may have been restarted on another port,
+	 * so its discovery is dropped and the port is discovered again before the next request
+	 */
+	private void onRequestFailure() {
+		if (hardCodedPort == 0) {
+			invalidateDiscovery();
+			rediscovery.set(true);
+		}
+	}
+	
+	/**
+	 * Discovers the port of the server again after a request got no response.
+	 * In case the server does not respond, the known port is kept and the next request tries again
+	 */
+	private void rediscover() {
+		try {
+			discoverServer();
+		} catch (Exception e) {
+			logger.warn("IoTivity server {} could not be discovered again, port {} is kept: {}", ip, port, e.getMessage());
+			rediscovery.set(true);
+		}
+	}
+	
+	/**
+	 * Waits for the given {@code future} to complete and returns its result.
+	 * In case the future failed, the cause of the failure is thrown
+	 */
+	private static <T> T await(CompletableFuture<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+	
+	private static <T> CompletableFuture<T> failedFuture(Throwable t) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		future.completeExceptionally(t);
+		return future;
+	}
+	
+	/**
+	 * @return a completed future if the given {@code response} is successful (2.xx),
+	 * otherwise a future that fails with the response code
+	 */
+	private CompletableFuture<Void> checkResponse(CoapResponse response, String resource) {
+		logger.debug("{} response received for the resource {}", response.getCode(), resource);
+		if (!response.isSuccess()) {
+			return failedFuture(new Exception("The request to the resource " + resource + " failed with response code " + response.getCode()));
 		}
-		throw new Exception("Did not receive any data for the resource: " + resource);
+		return CompletableFuture.completedFuture(null);
 	}
 	
 	/**
-	 * This method makes a unicast discovery request to the given IP and
-	 * discovers the port used by the IoTivity server
+	 * This method discovers the port used by the IoTivity server. If no port is configured,
+	 * a native COAP discovery (unicast to the given IP and multicast to the all-CoAP-nodes group) is executed.
+	 * The web service of the proxy is used only in case the server did not respond to the discovery
 	 * 
-	 * @throws Exception
+	 * @return the content of /oic/res returned by the server during the discovery (null if it is not known)
+	 * @throws Exception in case the port could not be discovered
 	 */
 	@Override
 	public JsonElement discoverServer() throws Exception{
-		CoapClient client = createCoapClient(createDiscoveryURL());
-		if (JAVA_VERSION < 1.8) {			
-
+		if (hardCodedPort != 0) {
+			port = hardCodedPort;
+			return null;
 		}
-		else {
-			if (hardCodedPort != 0) {
-				port = hardCodedPort;
-			}
-			else {
-				port = HttpClient.getPort(proxyIp, ip);
-			}
-			
+		DiscoveredServer server = DISCOVERY.discover(getIp(), SERVER_DISCOVERY_PORT, true);
+		if (server != null) {
+			port = server.getPort();
+			logger.debug("IoTivity server {} uses port {}", ip, port);
+			return server.getResources();
+		}
+		if (proxyIp == null || proxyIp.isEmpty()) {
+			throw new Exception("The IoTivity server " + ip + " did not respond to the discovery request");
 		}
-		System.out.println("PORT: " + port);
+		logger.debug("IoTivity server {} did not respond to the discovery request, asking the proxy {}", ip, proxyIp);
+		port = HttpClient.getPort(proxyIp, ip);
 		return null;
 	}
 	
+	/**
+	 * Removes the server from the discovery cache shared by all clients
+	 */
+	@Override
+	public void invalidateDiscovery() {
+		if (ip != null && !ip.isEmpty()) {
+			DISCOVERY.invalidate(ip);
+		}
+	}
+	
 	/**
 	 * Makes a subscription to a resource in order to receive notifications 
 	 * for possible changes
@@ -189,36 +400,101 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	 */
 	@Override
 	public void observeResource(final String resource, final CoapHandler handler) throws Exception{
-		final CoapClient client = new CoapClient(createResourceURL(resource));
-		Thread thread = new Thread(){
-		    public void run(){
-		    	if (handler != null) {
-			    	CoapObserveRelation relation = client.observe(handler);
-					observationMap.put(resource, relation);
-		    	}
-		    	else {
-		    		CoapObserveRelation relation = client.observe(createDefaultObservationHandler());
-					observationMap.put(resource, relation);
-		    	}
-		      }
-		};
-		thread.start();
+		observeResource(resource, null, handler);
 	}
 	
 	/**
-	 * Terminates the subscription for observation of a resource
+	 * Makes a subscription to a resource on behalf of a conversation. The observe request is sent
+	 * asynchronously by the threads of the observation registry
+	 * 
+	 * @param resource : the URL of the resource to be observed
+	 * @param conversationId : the conversation of the subscription (may be null)
+	 * @param handler : the observer of the resource
+	 * @throws Exception in case the client of the resource could not be created
+	 */
+	@Override
+	public void observeResource(final String resource, final String conversationId, final CoapHandler handler) throws Exception{
+		CoapClient client = createCoapClient(createResourceURL(resource));
+		observations.observe(resource, conversationId, client, handler != null ? handler : createDefaultObservationHandler())
+			.whenComplete((relation, error) -> {
+				if (error != null && !(error instanceof CancellationException)) {
+					logger.error("Observation of {} could not be registered: {}", resource, error.getMessage());
+				}
+			});
+	}
+	
+	/**
+	 * Makes a subscription to a resource and returns the relation once the server answered
+	 * 
+	 * @param resource : the URL of the resource to be observed
+	 * @param handler : the observer of the resource
+	 * @return a future that is completed with the relation, or fails in case the request could not be sent.
+	 * It is cancelled if the observation is stopped or replaced before the server answered
+	 */
+	@Override
+	public CompletableFuture<CoapObserveRelation> observeResourceAsync(final String resource, final CoapHandler handler) {
+		try {
+			CoapClient client = createCoapClient(createResourceURL(resource));
+			return observations.observe(resource, null, client, handler);
+		} catch (Exception e) {
+			return failedFuture(e);
+		}
+	}
+	
+	/**
+	 * Terminates the subscription for observation of a resource (for all conversations)
 	 * 
 	 * @param resource : the URL of the resource to terminate subscription
 	 */
 	@Override
 	public void stopObservingResource(final String resource){
-		CoapObserveRelation relation = observationMap.get(resource);
-		if (relation != null){
-			relation.proactiveCancel();
-			observationMap.remove(resource);
-		}
+		observations.cancelResource(resource);
+	}
+	
+	/**
+	 * Terminates the subscription of a conversation for observation of a resource
+	 * 
+	 * @param resource : the URL of the resource to terminate subscription
+	 * @param conversationId : the conversation of the subscription
+	 */
+	@Override
+	public void stopObservingResource(final String resource, final String conversationId){
+		observations.cancel(resource, conversationId);
 	}
 	
+	/**
+	 * @return the observations of this client
+	 */
+	public ObservationRegistry getObservations() {
+		return observations;
+	}
+
+	/**
+	 * Makes a subscription to the links of the devices. The server must answer with the
+	 * Observe option, otherwise it does not support the observation of /oic/res
+	 *
+	 * @param handler : the observer of the links
+	 * @return true if the server accepted the observation, false if it did not answer or it does not support it
+	 * @throws Exception in case the request could not be sent
+	 */
+	@Override
+	public boolean observeDeviceLinks(final CoapHandler handler) throws Exception{
+		CoapClient client = createCoapClient(createResourceURL(DEVICE_DISCOVERY_URL));
+		//the relation is canceled if the response did not arrive or it has no Observe option
+		CoapObserveRelation relation = client.observeAndWait(handler);
+		if (relation.isCanceled()) {
+			relation.reactiveCancel();
+			return false;
+		}
+		observations.add(DEVICE_DISCOVERY_URL, null, relation);
+		return true;
+	}
+
+	@Override
+	public void stopObservingDeviceLinks(){
+		stopObservingResource(DEVICE_DISCOVERY_URL);
+	}
+
 	/**
 	 * This method retrieves all registered resources and then iterates them in order to
 	 * find the one with the given {@code id}
@@ -264,20 +540,16 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 		};
 	}
 	
-	/**
-	 * @return : the URL for unicast IoTivity server discovery through COAP
-	 * @throws Exception
-	 */
-	private String createDiscoveryURL() throws Exception{
-		return SCHEME + "://" + getIp() + ":" + SERVER_DISCOVERY_PORT + SERVER_DISCOVERY_URL;
-	}
 	
 	/**
 	 * @param resource : the URL of the resource (e.g. /a/light1)
-	 * @return the COAP URL of the given resource
+	 * @return the COAP URL of the given resource, with the port discovered again if the last request got no response
 	 * @throws Exception
 	 */
 	private String createResourceURL(String resource) throws Exception{
+		if (rediscovery.compareAndSet(true, false)) {
+			rediscover();
+		}
 		return SCHEME + "://" + getIp() + ":" + getPort() + resource;
 	}
 	
@@ -312,15 +584,35 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	}
 	
 	/**
-	 * Creates and returns a {@code CoapClient} that timeouts after 5 seconds
+	 * Returns a pooled {@code CoapClient} that timeouts after 5 seconds
+	 * The client uses the endpoint shared by all requests of this instance
 	 * 
 	 * @param resource : the COAP URL the client is going to use
 	 * @return
+	 * @throws IOException in case the shared endpoint could not be started
+	 */
+	private CoapClient createCoapClient(String resource) throws IOException{
+		return clientPool.getClient(resource);
+	}
+	
+	/**
+	 * Starts the COAP endpoint shared by all requests of this instance
+	 * 
+	 * @throws IOException in case the endpoint could not be started
 	 */
-	private CoapClient createCoapClient(String resource){
-		CoapClient client = new CoapClient(resource);
-		client.setTimeout(new Long(5000));
-		return client;
+	@Override
+	public void start() throws IOException {
+		clientPool.start();
+	}
+	
+	/**
+	 * Cancels all observations and releases the shared COAP endpoint along with the pooled clients
+	 */
+	@Override
+	public void shutdown() {
+		observations.shutdown();
+		clientPool.shutdown();
+		timeoutScheduler.shutdownNow();
 	}
 
 	public void setPort(int port) {
@@ -328,39 +620,128 @@ public class IoTivityCoapClientImpl implements IoTivityClient{
 	}
 	
 	
+	
 	/**
-	 * Finds the Java version of the system 
+	 * Retrieves all devices registered on the IoTivity server
+	 * Devices that could not be retrieved are logged and omitted from the result
 	 * 
-	 * @return the Java version in a double format with one decimal place
+	 * @return a {@code Map} with the id of each device as key and its representation as value
+	 * @throws Exception in case the list of devices could not be retrieved
 	 */
-	private static double getVersion () {
-	    String version = System.getProperty("java.version");
-	    int pos = version.indexOf('.');
-	    pos = version.indexOf('.', pos+1);
-	    return Double.parseDouble (version.substring (0, pos));
+	@Override
+	public Map<String, JsonElement> listDevices() throws Exception{
+		Map<String, Throwable> failures = new HashMap<String, Throwable>();
+		Map<String, JsonElement> map = listDevices(failures);
+		for (Entry<String, Throwable> failure : failures.entrySet()) {
+			logger.warn("Device {} could not be retrieved: {}", failure.getKey(), failure.getValue().getMessage());
+		}
+		return map;
 	}
 	
-	public Map<String, JsonElement> listDevices() throws Exception{
-		String responseBody = getResource("/oic/res?rt=oic.wk.d").toString();
-		JsonArray responseList = IoTivityUtils.getDeviceList(new JsonParser().parse(responseBody));
+	/**
+	 * Retrieves all devices registered on the IoTivity server
+	 * The devices are fetched concurrently, with at most {@code discoveryConcurrency} requests in flight
+	 * 
+	 * @param failures : a {@code Map} that is filled with the href of each device that could not be
+	 * retrieved along with the cause of the failure
+	 * @return a {@code Map} with the id of each device as key and its representation as value
+	 * @throws Exception in case the list of devices could not be retrieved
+	 */
+	@Override
+	public Map<String, JsonElement> listDevices(Map<String, Throwable> failures) throws Exception{
 		Map<String, JsonElement> map = new HashMap<String, JsonElement>();
+		for (Entry<String, JsonElement> device : listDevicesByHref(failures).entrySet()) {
+			map.put(device.getValue().getAsJsonObject().get("id").getAsString(), device.getValue());
+		}
+		return map;
+	}
+	
+	/**
+	 * Retrieves all devices registered on the IoTivity server, by the href of their link
+	 * The devices are fetched concurrently, with at most {@code discoveryConcurrency} requests in flight
+	 * 
+	 * @param failures : a {@code Map} that is filled with the href of each device that could not be
+	 * retrieved (or has no id) along with the cause of the failure
+	 * @return a {@code Map} with the href of each device as key and its representation as value
+	 * @throws Exception in case the list of devices could not be retrieved
+	 */
+	@Override
+	public Map<String, JsonElement> listDevicesByHref(Map<String, Throwable> failures) throws Exception{
+		JsonArray responseList = listDeviceLinks();
+		final Map<String, JsonElement> map = new ConcurrentHashMap<String, JsonElement>();
+		final Map<String, Throwable> errors = new ConcurrentHashMap<String, Throwable>();
+		final Semaphore inFlight = new Semaphore(discoveryConcurrency);
+		List<CompletableFuture<Void>> requests = new ArrayList<CompletableFuture<Void>>();
 		for (JsonElement j :  responseList) {
-			try {
-				String resourceHref = j.getAsJsonObject().get("href").getAsString()+"?if=oic.if.ll";
-				//System.out.println(resourceHref);
-				JsonElement device = getResource(resourceHref);
-				map.put(device.getAsJsonObject().get("id").getAsString(), device);
-			}
-			catch (Exception e) {
-				e.printStackTrace();
+			final String href = IoTivityUtils.getHref(j);
+			if (href == null) {
+				continue;
 			}
+			inFlight.acquire();
+			requests.add(getDeviceAsync(href).handle((device, error) -> {
+				inFlight.release();
+				if (error != null) {
+					errors.put(href, error instanceof CompletionException ? error.getCause() : error);
+					return null;
+				}
+				if (!device.isJsonObject() || !device.getAsJsonObject().has("id")) {
+					errors.put(href, new Exception("The device has no id: " + device));
+				}
+				else {
+					map.put(href, device);
+				}
+				return null;
+			}));
 		}
-		return map;
+		CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+		failures.putAll(errors);
+		return new HashMap<String, JsonElement>(map);
+	}
+	
+	/**
+	 * Retrieves the links of all devices registered on the IoTivity server
+	 * 
+	 * @return a {@code JsonArray} that contains a link (with its href) for each device
+	 * @throws Exception in case the list of devices could not be retrieved
+	 */
+	@Override
+	public JsonArray listDeviceLinks() throws Exception{
+		return IoTivityUtils.getDeviceList(getResource(DEVICE_DISCOVERY_URL));
+	}
+	
+	/**
+	 * Retrieves asynchronously the representation of the device with the given {@code href}
+	 * 
+	 * @param href : the URL of the device (e.g. /a/devices/bloodpressure)
+	 * @return a future that is completed with the representation of the device
+	 */
+	@Override
+	public CompletableFuture<JsonElement> getDeviceAsync(final String href) {
+		return getResourceAsync(href + DEVICE_INTERFACE_QUERY);
+	}
+	
+	/**
+	 * Sets the maximum number of concurrent requests made while retrieving the registered devices
+	 * 
+	 * @param discoveryConcurrency : a positive number
+	 */
+	@Override
+	public void setDiscoveryConcurrency(int discoveryConcurrency) {
+		if (discoveryConcurrency < 1) {
+			throw new IllegalArgumentException("The discovery concurrency must be positive: " + discoveryConcurrency);
+		}
+		this.discoveryConcurrency = discoveryConcurrency;
+	}
+	
+	@Override
+	public int getDiscoveryConcurrency() {
+		return discoveryConcurrency;
 	}
 
 	
 	public void setIp(String ip) {
         ip = ip.replace("http://", "");
         this.ip = ip;
+        clientPool.clear();
 	}	
 }
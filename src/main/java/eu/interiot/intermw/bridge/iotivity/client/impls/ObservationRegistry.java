@@ -0,0 +1,320 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.client.impls;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Registry of the observe relations of an IoTivity client, keyed by resource and conversation
+ * The observe requests are sent by a bounded pool of threads, each one waiting for the answer of the server,
+ * since a relation cannot be cancelled on the server before its request has been sent. An observation that is
+ * cancelled while its request is pending is cancelled as soon as the relation is established, so that after
+ * {@link #cancelAll()} no relation stays alive. Observing a resource again for the same conversation replaces
+ * the previous relation
+ *
+ */
+public class ObservationRegistry {
+
+	public static final int DEFAULT_THREADS = 4;
+	public static final int DEFAULT_QUEUE_SIZE = 4096;
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+
+	private final Logger logger = LoggerFactory.getLogger(ObservationRegistry.class);
+	private final ConcurrentMap<Key, Registration> registrations = new ConcurrentHashMap<Key, Registration>();
+	private final ThreadPoolExecutor executor;
+
+	public ObservationRegistry() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param threads : the number of threads that send the observe requests
+	 * @param queueSize : the maximum number of pending observe requests
+	 */
+	public ObservationRegistry(int threads, int queueSize) {
+		final AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), runnable -> {
+			Thread thread = new Thread(runnable, "iotivity-observe-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Observes a resource with the given client
+	 *
+	 * @param resource : the URL of the resource (e.g. /a/light)
+	 * @param conversationId : the conversation the observation belongs to (may be null)
+	 * @param client : the client of the resource
+	 * @param handler : the observer of the resource
+	 * @return a future that is completed with the relation, or fails in case the request could not be sent
+	 * (e.g. too many pending requests). It is cancelled if the observation is cancelled before it is established
+	 */
+	public CompletableFuture<CoapObserveRelation> observe(String resource, String conversationId, final CoapClient client, final CoapHandler handler) {
+		final Registration registration = new Registration(new Key(resource, conversationId));
+		replace(registration);
+		try {
+			executor.execute(() -> registration.establish(client, handler));
+		} catch (RejectedExecutionException e) {
+			registrations.remove(registration.key, registration);
+			registration.future.completeExceptionally(e);
+		}
+		return registration.future;
+	}
+
+	/**
+	 * Registers an already established relation
+	 *
+	 * @param resource : the URL of the observed resource
+	 * @param conversationId : the conversation the observation belongs to (may be null)
+	 * @param relation : the relation
+	 */
+	public void add(String resource, String conversationId, CoapObserveRelation relation) {
+		Registration registration = new Registration(new Key(resource, conversationId));
+		registration.established(relation);
+		replace(registration);
+	}
+
+	private void replace(Registration registration) {
+		Registration previous = registrations.put(registration.key, registration);
+		if (previous != null) {
+			logger.debug("Replacing the observation of {}", registration.key);
+			previous.cancel();
+		}
+	}
+
+	/**
+	 * Cancels the observation of a resource for the given conversation
+	 *
+	 * @return true if there was such an observation
+	 */
+	public boolean cancel(String resource, String conversationId) {
+		Registration registration = registrations.remove(new Key(resource, conversationId));
+		if (registration == null) {
+			return false;
+		}
+		registration.cancel();
+		return true;
+	}
+
+	/**
+	 * Cancels the observations of a resource for all conversations
+	 *
+	 * @return the number of cancelled observations
+	 */
+	public int cancelResource(String resource) {
+		int cancelled = 0;
+		for (Key key : new ArrayList<Key>(registrations.keySet())) {
+			if (key.resource.equals(resource) && cancel(key.resource, key.conversationId)) {
+				cancelled++;
+			}
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Cancels all observations, including the pending ones
+	 *
+	 * @return the number of cancelled observations
+	 */
+	public int cancelAll() {
+		int cancelled = 0;
+		for (Key key : new ArrayList<Key>(registrations.keySet())) {
+			if (cancel(key.resource, key.conversationId)) {
+				cancelled++;
+			}
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Cancels all observations and stops the threads. Pending requests are given some time to complete,
+	 * so that their relations are cancelled too
+	 */
+	public void shutdown() {
+		cancelAll();
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				logger.warn("{} observe requests were still pending at shutdown", executor.getQueue().size());
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true if the resource is observed for the given conversation
+	 */
+	public boolean isObserved(String resource, String conversationId) {
+		return registrations.containsKey(new Key(resource, conversationId));
+	}
+
+	/**
+	 * @return the number of observations (established or pending)
+	 */
+	public int size() {
+		return registrations.size();
+	}
+
+	/**
+	 * @return the number of established relations that are not cancelled
+	 */
+	public int getLiveRelationCount() {
+		int live = 0;
+		for (Registration registration : registrations.values()) {
+			if (registration.isLive()) {
+				live++;
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * @return the number of observe requests waiting for a thread
+	 */
+	public int getPendingCount() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 *
+	 * Observation of a resource by a conversation. The state is guarded by the registration itself,
+	 * so that a cancellation and the establishment of the relation do not race
+	 *
+	 */
+	private class Registration {
+
+		private final Key key;
+		private final CompletableFuture<CoapObserveRelation> future = new CompletableFuture<CoapObserveRelation>();
+		private CoapObserveRelation relation;
+		private boolean cancelled;
+
+		Registration(Key key) {
+			this.key = key;
+		}
+
+		void establish(CoapClient client, CoapHandler handler) {
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+			}
+			CoapObserveRelation observeRelation;
+			try {
+				//the handler is notified with the first response as well
+				observeRelation = client.observeAndWait(handler);
+			} catch (RuntimeException e) {
+				registrations.remove(key, this);
+				future.completeExceptionally(e);
+				return;
+			}
+			if (!established(observeRelation)) {
+				observeRelation.proactiveCancel();
+			}
+		}
+
+		/**
+		 * @return false if the observation was cancelled in the meantime
+		 */
+		boolean established(CoapObserveRelation observeRelation) {
+			synchronized (this) {
+				if (cancelled) {
+					return false;
+				}
+				relation = observeRelation;
+			}
+			future.complete(observeRelation);
+			return true;
+		}
+
+		void cancel() {
+			CoapObserveRelation observeRelation;
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				cancelled = true;
+				observeRelation = relation;
+			}
+			future.cancel(false);
+			//a relation the server did not accept is not registered on the server
+			if (observeRelation != null && !observeRelation.isCanceled()) {
+				observeRelation.proactiveCancel();
+			}
+		}
+
+		synchronized boolean isLive() {
+			return relation != null && !cancelled && !relation.isCanceled();
+		}
+	}
+
+	private static class Key {
+
+		private final String resource;
+		private final String conversationId;
+
+		Key(String resource, String conversationId) {
+			this.resource = resource;
+			this.conversationId = conversationId;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * resource.hashCode() + (conversationId == null ? 0 : conversationId.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return resource.equals(other.resource)
+					&& (conversationId == null ? other.conversationId == null : conversationId.equals(other.conversationId));
+		}
+
+		@Override
+		public String toString() {
+			return conversationId == null ? resource : resource + " (" + conversationId + ")";
+		}
+	}
+}
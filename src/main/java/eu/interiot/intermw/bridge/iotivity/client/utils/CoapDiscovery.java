@@ -0,0 +1,226 @@
+package eu.interiot.intermw.bridge.iotivity.client.utils;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.serialization.UdpDataParser;
+import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+
+/**
+ *
+ * Native CoAP discovery of IoTivity servers
+ *
+ * When the IoTivity server initializes, it uses a random assigned port. A GET request of /oic/res
+ * is sent to the OCF all-CoAP-nodes multicast group and directly to the well-known CoAP port of the server.
+ * The server answers from its random port, so the port is found from the source of the responses.
+ * The responses are collected over a short window and the discovered servers are cached.
+ *
+ * The requests are sent over a plain datagram socket, because Californium does not match
+ * responses that come from a port other than the one the request was sent to.
+ *
+ */
+public class CoapDiscovery {
+
+	public static final String ALL_COAP_NODES_ADDRESS = "224.0.1.187";
+	public static final String DISCOVERY_PATH = "oic/res";
+	public static final long DEFAULT_WINDOW = 1000;
+	public static final long DEFAULT_TTL = 5 * 60 * 1000;
+	private static final int MAX_DATAGRAM_SIZE = 65535;
+
+	private final Logger logger = LoggerFactory.getLogger(CoapDiscovery.class);
+	private final Map<String, DiscoveredServer> cache = new ConcurrentHashMap<String, DiscoveredServer>();
+	private final Random random = new Random();
+	private final long window;
+	private final long ttl;
+
+	public CoapDiscovery() {
+		this(DEFAULT_WINDOW, DEFAULT_TTL);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param window : the time (in milliseconds) during which responses are collected
+	 * @param ttl : the time (in milliseconds) a discovered server is kept in the cache
+	 */
+	public CoapDiscovery(long window, long ttl) {
+		this.window = window;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Discovers the IoTivity server running on the given {@code host}. A cached result is returned
+	 * if the server has been discovered recently
+	 *
+	 * @param host : the IP of the IoTivity server
+	 * @param discoveryPort : the port the discovery requests are sent to (normally 5683)
+	 * @param multicast : if true the request is also sent to the all-CoAP-nodes multicast group
+	 * @return the discovered server or {@code null} if it did not respond within the window
+	 * @throws IOException in case the discovery requests could not be sent
+	 */
+	public DiscoveredServer discover(String host, int discoveryPort, boolean multicast) throws IOException {
+		InetAddress address = InetAddress.getByName(host);
+		DiscoveredServer server = cache.get(address.getHostAddress());
+		if (server != null && !server.isExpired(ttl)) {
+			return server;
+		}
+		Map<String, DiscoveredServer> responders = sendDiscovery(address, discoveryPort, multicast);
+		cache.putAll(responders);
+		return responders.get(address.getHostAddress());
+	}
+
+	/**
+	 * Removes the given {@code host} from the cache, so that the next discovery contacts the network
+	 */
+	public void invalidate(String host) {
+		try {
+			cache.remove(InetAddress.getByName(host).getHostAddress());
+		} catch (IOException e) {
+			cache.remove(host);
+		}
+	}
+
+	/**
+	 * @return all cached servers, keyed by their IP address
+	 */
+	public Map<String, DiscoveredServer> getDiscoveredServers() {
+		return Collections.unmodifiableMap(cache);
+	}
+
+	/**
+	 * Sends the discovery requests and collects the responses until the window expires
+	 *
+	 * @return the servers that responded, keyed by their IP address
+	 */
+	private Map<String, DiscoveredServer> sendDiscovery(InetAddress address, int discoveryPort, boolean multicast) throws IOException {
+		byte[] token = new byte[8];
+		random.nextBytes(token);
+		Map<String, DiscoveredServer> responders = new HashMap<String, DiscoveredServer>();
+		MulticastSocket socket = new MulticastSocket();
+		try {
+			byte[] request = createRequest(token);
+			socket.send(new DatagramPacket(request, request.length, address, discoveryPort));
+			if (multicast) {
+				try {
+					socket.send(new DatagramPacket(request, request.length, InetAddress.getByName(ALL_COAP_NODES_ADDRESS), discoveryPort));
+				} catch (IOException e) {
+					logger.debug("Multicast discovery request could not be sent: {}", e.getMessage());
+				}
+			}
+			UdpDataParser parser = new UdpDataParser();
+			byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+			long deadline = System.currentTimeMillis() + window;
+			long remaining;
+			while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				socket.setSoTimeout((int) remaining);
+				try {
+					socket.receive(packet);
+				} catch (SocketTimeoutException e) {
+					break;
+				}
+				DiscoveredServer server = parseResponse(parser, packet, token);
+				if (server != null) {
+					logger.debug("Discovered IoTivity server at {}:{}", server.getAddress().getHostAddress(), server.getPort());
+					responders.put(server.getAddress().getHostAddress(), server);
+				}
+			}
+		}
+		finally {
+			socket.close();
+		}
+		return responders;
+	}
+
+	/**
+	 * @return the bytes of a non-confirmable GET request of /oic/res with the given token
+	 */
+	private byte[] createRequest(byte[] token) {
+		Request request = Request.newGet();
+		request.setType(Type.NON);
+		request.setMID(random.nextInt(1 << 16));
+		request.setToken(token);
+		request.getOptions().setUriPath(DISCOVERY_PATH);
+		return new UdpDataSerializer().getByteArray(request);
+	}
+
+	/**
+	 * Parses the received datagram. Datagrams that are not responses to the discovery request are ignored
+	 *
+	 * @return the server that sent the response or {@code null}
+	 */
+	private DiscoveredServer parseResponse(UdpDataParser parser, DatagramPacket packet, byte[] token) {
+		try {
+			Message message = parser.parseMessage(Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+			if (!(message instanceof Response) || !Arrays.equals(message.getTokenBytes(), token)) {
+				return null;
+			}
+			JsonElement resources = null;
+			if (message.getPayload() != null && message.getPayload().length > 0) {
+				resources = EncodingUtils.coapResponseToJson(message.getPayload());
+			}
+			return new DiscoveredServer(packet.getAddress(), packet.getPort(), resources);
+		} catch (Exception e) {
+			logger.debug("Ignoring invalid discovery response from {}: {}", packet.getAddress(), e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 *
+	 * An IoTivity server found by the discovery
+	 *
+	 */
+	public static class DiscoveredServer {
+
+		private final InetAddress address;
+		private final int port;
+		private final JsonElement resources;
+		private final long timestamp = System.currentTimeMillis();
+
+		public DiscoveredServer(InetAddress address, int port, JsonElement resources) {
+			this.address = address;
+			this.port = port;
+			this.resources = resources;
+		}
+
+		public InetAddress getAddress() {
+			return address;
+		}
+
+		/**
+		 * @return the port used by the IoTivity server
+		 */
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * @return the content of /oic/res as returned by the server (may be null)
+		 */
+		public JsonElement getResources() {
+			return resources;
+		}
+
+		public boolean isExpired(long ttl) {
+			return System.currentTimeMillis() - timestamp > ttl;
+		}
+	}
+}
@@ -38,13 +38,20 @@ import co.nstant.in.cbor.builder.ArrayBuilder;
 import co.nstant.in.cbor.builder.MapBuilder;
 import co.nstant.in.cbor.model.DataItem;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import com.fasterxml.jackson.dataformat.cbor.CBORParser;
-import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
 /**
  * 
@@ -55,34 +62,161 @@ import com.google.gson.JsonParser;
  */
 public class EncodingUtils {
 	
+	//the factory and the mapper are thread-safe, so they are shared by all decoding methods
+	private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+	private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(CBOR_FACTORY);
+	
 	/**
 	 * The payload of a COAP response is in CBOR format and needs to get parsed accordingly in order
 	 * to create a more friendly JSON representation
+	 * The CBOR tokens are streamed directly to the JSON tree, in a single pass, whatever the type of the root item is
 	 * 
 	 * @param payload : the bytes of the payload of a COAP response
-	 * @return : the bytes received transformed to JsonElement
-	 * @throws IOException
+	 * @return : the bytes received transformed to JsonElement ({@code JsonNull} if the payload has no data item)
+	 * @throws IOException in case the payload is not valid CBOR
 	 */
 	public static JsonElement coapResponseToJson(byte[] payload) throws IOException{
-		CBORFactory f = new CBORFactory();
-		CBORParser parser = f.createParser(payload);
-		ObjectMapper mapper = new ObjectMapper(f);
-		JsonParser jsonParser = new JsonParser();
+		CBORParser parser = CBOR_FACTORY.createParser(payload);
 		try {
-			List<Map<String, Object>> list = mapper.readValue(parser, new TypeReference<List<Map<String, Object>>>() { });
-			parser.close();	
-			try {
-				return jsonParser.parse(new Gson().toJson(list)).getAsJsonObject();
+			JsonToken token = parser.nextToken();
+			if (token == null) {
+				return JsonNull.INSTANCE;
+			}
+			return readJsonElement(parser, token);
+		}
+		finally {
+			parser.close();
+		}
+	}
+	
+	/**
+	 * Decodes the given CBOR payload to a Jackson tree, in a single pass
+	 * The tree has the same content as the one of {@link #coapResponseToJson(byte[])}
+	 * 
+	 * @param payload : the bytes of the payload of a COAP response
+	 * @return the root node of the tree ({@code MissingNode} if the payload has no data item)
+	 * @throws IOException in case the payload is not valid CBOR
+	 */
+	public static JsonNode decodeToJsonNode(byte[] payload) throws IOException{
+		CBORParser parser = CBOR_FACTORY.createParser(payload);
+		try {
+			JsonToken token = parser.nextToken();
+			if (token == null) {
+				return MissingNode.getInstance();
+			}
+			return readJsonNode(parser, token);
+		}
+		finally {
+			parser.close();
+		}
+	}
+	
+	/**
+	 * @return the shared {@code ObjectMapper} that reads and writes CBOR
+	 */
+	public static ObjectMapper getCborMapper() {
+		return CBOR_MAPPER;
+	}
+	
+	/**
+	 * Reads the data item that starts with the given {@code token} (including its nested items)
+	 * Byte strings are represented as arrays of numbers, as Gson serializes byte arrays
+	 */
+	private static JsonElement readJsonElement(CBORParser parser, JsonToken token) throws IOException{
+		switch (token) {
+		case START_OBJECT:
+			JsonObject object = new JsonObject();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				object.add(name, readJsonElement(parser, parser.nextToken()));
+			}
+			return object;
+		case START_ARRAY:
+			JsonArray array = new JsonArray();
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				array.add(readJsonElement(parser, token));
+			}
+			return array;
+		case VALUE_STRING:
+			return new JsonPrimitive(parser.getText());
+		case VALUE_NUMBER_INT:
+			return new JsonPrimitive(parser.getNumberValue());
+		case VALUE_NUMBER_FLOAT:
+			return new JsonPrimitive(parser.getDoubleValue());
+		case VALUE_TRUE:
+			return new JsonPrimitive(Boolean.TRUE);
+		case VALUE_FALSE:
+			return new JsonPrimitive(Boolean.FALSE);
+		case VALUE_EMBEDDED_OBJECT:
+			byte[] bytes = parser.getBinaryValue();
+			JsonArray byteArray = new JsonArray();
+			for (byte b : bytes) {
+				byteArray.add(new JsonPrimitive(b));
+			}
+			return byteArray;
+		case VALUE_NULL:
+			return JsonNull.INSTANCE;
+		default:
+			throw new IOException("Unexpected CBOR token: " + token);
+		}
+	}
+	
+	/**
+	 * Reads the data item that starts with the given {@code token} (including its nested items) as a Jackson node
+	 * Byte strings are represented as arrays of numbers, as by {@link #readJsonElement(CBORParser, JsonToken)}
+	 */
+	private static JsonNode readJsonNode(CBORParser parser, JsonToken token) throws IOException{
+		JsonNodeFactory nodes = JsonNodeFactory.instance;
+		switch (token) {
+		case START_OBJECT:
+			ObjectNode object = nodes.objectNode();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				object.set(name, readJsonNode(parser, parser.nextToken()));
+			}
+			return object;
+		case START_ARRAY:
+			ArrayNode array = nodes.arrayNode();
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				array.add(readJsonNode(parser, token));
+			}
+			return array;
+		case VALUE_STRING:
+			return nodes.textNode(parser.getText());
+		case VALUE_NUMBER_INT:
+			switch (parser.getNumberType()) {
+			case INT:
+				return nodes.numberNode(parser.getIntValue());
+			case LONG:
+				return nodes.numberNode(parser.getLongValue());
+			default:
+				return nodes.numberNode(parser.getBigIntegerValue());
+			}
+		case VALUE_NUMBER_FLOAT:
+			//float32 and half-float values are kept as floats, so that their decimal form is not altered
+			switch (parser.getNumberType()) {
+			case FLOAT:
+				return nodes.numberNode(parser.getFloatValue());
+			case BIG_DECIMAL:
+				return nodes.numberNode(parser.getDecimalValue());
+			default:
+				return nodes.numberNode(parser.getDoubleValue());
+			}
+		case VALUE_TRUE:
+			return nodes.booleanNode(true);
+		case VALUE_FALSE:
+			return nodes.booleanNode(false);
+		case VALUE_EMBEDDED_OBJECT:
+			ArrayNode byteArray = nodes.arrayNode();
+			for (byte b : parser.getBinaryValue()) {
+				byteArray.add(b);
 			}
-			catch (Exception e){
-				return jsonParser.parse(new Gson().toJson(list)).getAsJsonArray();
-			}		
+			return byteArray;
+		case VALUE_NULL:
+			return nodes.nullNode();
+		default:
+			throw new IOException("Unexpected CBOR token: " + token);
 		}
-		catch(Exception ex){
-			Map<String, Object> map = mapper.readValue(parser, new TypeReference<Map<String, Object>>() { });
-			parser.close();	
-			return jsonParser.parse(new Gson().toJson(map)).getAsJsonObject();
-		}	
 	}
 	
 	/**
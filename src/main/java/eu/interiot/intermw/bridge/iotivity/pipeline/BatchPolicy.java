@@ -0,0 +1,73 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+/**
+ *
+ * How the observations of a subscription are grouped before they are published
+ * The observations are accumulated until the batch holds the maximum number of observations or the oldest
+ * observation has waited for the linger time, and then they are published as one message whose model
+ * contains the entities of all the observed devices
+ *
+ */
+public class BatchPolicy {
+
+	//every observation is published on its own
+	public static final BatchPolicy NONE = new BatchPolicy(1, 0);
+	public static final long DEFAULT_LINGER = 100;
+
+	private final int maxSize;
+	private final long lingerMillis;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxSize : the maximum number of observations in a message (1 disables batching)
+	 * @param lingerMillis : the maximum time an observation waits for the batch to be published in milliseconds
+	 */
+	public BatchPolicy(int maxSize, long lingerMillis) {
+		if (maxSize < 1 || lingerMillis < 0 || (maxSize > 1 && lingerMillis == 0)) {
+			throw new IllegalArgumentException("Invalid batch policy: size " + maxSize + ", linger " + lingerMillis);
+		}
+		this.maxSize = maxSize;
+		this.lingerMillis = lingerMillis;
+	}
+
+	/**
+	 * @return false if the observations are published one by one
+	 */
+	public boolean isBatching() {
+		return maxSize > 1;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getLingerMillis() {
+		return lingerMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchPolicy [maxSize=" + maxSize + ", lingerMillis=" + lingerMillis + "]";
+	}
+}
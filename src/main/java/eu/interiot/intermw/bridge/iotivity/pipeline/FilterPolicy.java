@@ -0,0 +1,93 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+/**
+ *
+ * Which observations of a subscription are forwarded to the middleware
+ * An observation can be suppressed when its payload did not change, when none of its numeric attributes changed
+ * by at least the deadband, or when the previous observation of the device was forwarded less than the conflation
+ * interval ago, in which case only the latest observation of the interval is forwarded when the interval ends
+ *
+ */
+public class FilterPolicy {
+
+	//every observation is forwarded
+	public static final FilterPolicy NONE = new FilterPolicy(0, 0, false);
+
+	private final long conflationMillis;
+	private final double deadband;
+	private final boolean dropUnchanged;
+
+	/**
+	 * Constructor
+	 *
+	 * @param conflationMillis : the minimum time between two observations of a device in milliseconds (0 disables conflation)
+	 * @param deadband : the minimum change of a numeric attribute for an observation to be forwarded (0 disables the deadband)
+	 * @param dropUnchanged : true to drop an observation whose payload is the same as the one of the last forwarded observation
+	 */
+	public FilterPolicy(long conflationMillis, double deadband, boolean dropUnchanged) {
+		if (conflationMillis < 0 || !(deadband >= 0) || Double.isInfinite(deadband)) {
+			throw new IllegalArgumentException("Invalid filter policy: conflation " + conflationMillis + ", deadband " + deadband);
+		}
+		this.conflationMillis = conflationMillis;
+		this.deadband = deadband;
+		this.dropUnchanged = dropUnchanged;
+	}
+
+	/**
+	 * @return false if every observation is forwarded
+	 */
+	public boolean isFiltering() {
+		return conflationMillis > 0 || deadband > 0 || dropUnchanged;
+	}
+
+	public long getConflationMillis() {
+		return conflationMillis;
+	}
+
+	public double getDeadband() {
+		return deadband;
+	}
+
+	public boolean isDropUnchanged() {
+		return dropUnchanged;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (conflationMillis ^ Double.doubleToLongBits(deadband)) * 31 + (dropUnchanged ? 1 : 0);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FilterPolicy)) {
+			return false;
+		}
+		FilterPolicy other = (FilterPolicy) obj;
+		return conflationMillis == other.conflationMillis && deadband == other.deadband && dropUnchanged == other.dropUnchanged;
+	}
+
+	@Override
+	public String toString() {
+		return "FilterPolicy [conflationMillis=" + conflationMillis + ", deadband=" + deadband + ", dropUnchanged=" + dropUnchanged + "]";
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+import java.util.Collection;
+
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+/**
+ *
+ * Notification of a resource waiting in the observation pipeline
+ * An observation that is still queued may be conflated with a newer one of the same resource,
+ * hence its content is only read once it has been taken from the queue
+ *
+ */
+public class Observation {
+
+	private final String href;
+	private byte[] payload;
+	private Collection<PlatformMessageMetadata> subscribers;
+	private long receivedNanos;
+	//true if the filters of the subscriptions were already applied, i.e. it is a released conflated observation
+	private boolean filtered;
+
+	/**
+	 * Constructor
+	 *
+	 * @param href : the URL of the observed resource
+	 * @param payload : the CBOR payload of the notification
+	 * @param subscribers : the metadata of the subscriptions the observation is published to
+	 */
+	public Observation(String href, byte[] payload, Collection<PlatformMessageMetadata> subscribers) {
+		this.href = href;
+		this.payload = payload;
+		this.subscribers = subscribers;
+		this.receivedNanos = System.nanoTime();
+	}
+
+	/**
+	 * Replaces the content of this (queued) observation with the content of a newer one
+	 * Both observations must not be filtered yet, i.e. they are published to all subscribers of the resource
+	 */
+	void conflate(Observation newer) {
+		payload = newer.payload;
+		subscribers = newer.subscribers;
+		receivedNanos = newer.receivedNanos;
+	}
+
+	void markFiltered() {
+		filtered = true;
+	}
+
+	boolean isFiltered() {
+		return filtered;
+	}
+
+	public String getHref() {
+		return href;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public Collection<PlatformMessageMetadata> getSubscribers() {
+		return subscribers;
+	}
+
+	/**
+	 * @return the value of {@link System#nanoTime()} when the observation was received
+	 */
+	public long getReceivedNanos() {
+		return receivedNanos;
+	}
+}
@@ -0,0 +1,270 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+/**
+ *
+ * Applies the {@link FilterPolicy} of a subscription to the observations of the devices it is subscribed to
+ * The filter works on the CBOR payloads, so a suppressed observation is never translated. An observation is compared
+ * with the last forwarded observation of the same device: the payloads are compared by hash (and then byte by byte),
+ * while the deadband compares the top-level numeric attributes. An observation that arrives during the conflation
+ * interval of its device is kept as pending, replacing any older pending one, and it is released to the pipeline
+ * when the interval ends, unless it turns out to be unchanged by then
+ *
+ */
+public class ObservationFilter {
+
+	private final FilterPolicy policy;
+	private final ScheduledExecutorService scheduler;
+	private final Consumer<Observation> release;
+	//href -> state of the device
+	private final ConcurrentMap<String, DeviceState> devices = new ConcurrentHashMap<String, DeviceState>();
+	private final AtomicLong unchangedCount = new AtomicLong();
+	private final AtomicLong deadbandCount = new AtomicLong();
+	private final AtomicLong conflatedCount = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param policy : the filter policy of the subscription
+	 * @param scheduler : the scheduler of the end of the conflation intervals
+	 * @param release : the consumer of the pending observations whose conflation interval ended
+	 */
+	public ObservationFilter(FilterPolicy policy, ScheduledExecutorService scheduler, Consumer<Observation> release) {
+		this.policy = policy;
+		this.scheduler = scheduler;
+		this.release = release;
+	}
+
+	/**
+	 * Decides whether an observation is forwarded to the subscription now
+	 *
+	 * @param href : the URL of the observed resource
+	 * @param payload : the CBOR payload of the notification
+	 * @param metadata : the metadata of the subscription, used when a pending observation is released
+	 * @return true if the observation has to be forwarded
+	 */
+	public boolean accept(String href, byte[] payload, PlatformMessageMetadata metadata) {
+		DeviceState device = devices.computeIfAbsent(href, key -> new DeviceState());
+		synchronized (device) {
+			if (device.pending != null) {
+				//the newest observation of the interval wins, it is checked when the interval ends
+				device.pending = payload;
+				device.metadata = metadata;
+				conflatedCount.incrementAndGet();
+				return false;
+			}
+			Map<String, JsonNode> fields = policy.getDeadband() > 0 ? fields(payload) : null;
+			if (!changed(device, payload, fields)) {
+				return false;
+			}
+			long now = System.nanoTime();
+			long interval = TimeUnit.MILLISECONDS.toNanos(policy.getConflationMillis());
+			if (interval > 0 && device.forwarded && now - device.forwardedNanos < interval) {
+				device.pending = payload;
+				device.metadata = metadata;
+				conflatedCount.incrementAndGet();
+				scheduler.schedule(() -> release(href, device), device.forwardedNanos + interval - now, TimeUnit.NANOSECONDS);
+				return false;
+			}
+			device.forward(payload, fields, now);
+			return true;
+		}
+	}
+
+	/**
+	 * Checks whether a released observation is still the last one forwarded for its resource. It is not,
+	 * if a newer observation was forwarded while the released one was waiting in the pipeline
+	 *
+	 * @param href : the URL of the observed resource
+	 * @param payload : the payload of the released observation
+	 * @return true if the released observation has to be published
+	 */
+	public boolean isLastForwarded(String href, byte[] payload) {
+		DeviceState device = devices.get(href);
+		if (device == null) {
+			return false;
+		}
+		synchronized (device) {
+			return device.payload == payload;
+		}
+	}
+
+	private void release(String href, DeviceState device) {
+		byte[] payload;
+		PlatformMessageMetadata metadata;
+		synchronized (device) {
+			payload = device.pending;
+			metadata = device.metadata;
+			device.pending = null;
+			device.metadata = null;
+			if (payload == null || closed) {
+				return;
+			}
+			//the pending observation replaced the conflated ones, so it was not compared with the last forwarded one yet
+			conflatedCount.decrementAndGet();
+			Map<String, JsonNode> fields = policy.getDeadband() > 0 ? fields(payload) : null;
+			if (!changed(device, payload, fields)) {
+				return;
+			}
+			device.forward(payload, fields, System.nanoTime());
+		}
+		Observation observation = new Observation(href, payload, Collections.singletonList(metadata));
+		observation.markFiltered();
+		release.accept(observation);
+	}
+
+	/**
+	 * Compares an observation with the last forwarded observation of the device and counts the suppressed ones
+	 */
+	private boolean changed(DeviceState device, byte[] payload, Map<String, JsonNode> fields) {
+		if (!device.forwarded) {
+			return true;
+		}
+		if (policy.isDropUnchanged() && device.hash == Arrays.hashCode(payload) && Arrays.equals(device.payload, payload)) {
+			unchangedCount.incrementAndGet();
+			return false;
+		}
+		if (fields != null && device.fields != null && withinDeadband(device.fields, fields)) {
+			deadbandCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the observations have the same attributes, the numeric ones changed by less than the deadband
+	 * and the other ones did not change
+	 */
+	private boolean withinDeadband(Map<String, JsonNode> last, Map<String, JsonNode> fields) {
+		if (last.size() != fields.size()) {
+			return false;
+		}
+		for (Entry<String, JsonNode> entry : fields.entrySet()) {
+			JsonNode value = entry.getValue();
+			JsonNode lastValue = last.get(entry.getKey());
+			if (lastValue == null) {
+				return false;
+			}
+			if (value.isNumber() && lastValue.isNumber()) {
+				if (Math.abs(value.asDouble() - lastValue.asDouble()) >= policy.getDeadband()) {
+					return false;
+				}
+			}
+			else if (!value.equals(lastValue)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the top-level attributes of a payload or {@code null} if it is not a CBOR map
+	 */
+	private static Map<String, JsonNode> fields(byte[] payload) {
+		try {
+			JsonNode node = EncodingUtils.decodeToJsonNode(payload);
+			if (!node.isObject()) {
+				return null;
+			}
+			Map<String, JsonNode> fields = new HashMap<String, JsonNode>();
+			Iterator<Entry<String, JsonNode>> it = node.fields();
+			while (it.hasNext()) {
+				Entry<String, JsonNode> field = it.next();
+				fields.put(field.getKey(), field.getValue());
+			}
+			return fields;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Discards the pending observations
+	 */
+	public void close() {
+		closed = true;
+		devices.clear();
+	}
+
+	public FilterPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the number of observations dropped because their payload did not change
+	 */
+	public long getUnchangedCount() {
+		return unchangedCount.get();
+	}
+
+	/**
+	 * @return the number of observations dropped because their numeric attributes changed by less than the deadband
+	 */
+	public long getDeadbandCount() {
+		return deadbandCount.get();
+	}
+
+	/**
+	 * @return the number of observations replaced by a newer one during the conflation interval of their device
+	 */
+	public long getConflatedCount() {
+		return conflatedCount.get();
+	}
+
+	private static class DeviceState {
+
+		private boolean forwarded;
+		private long forwardedNanos;
+		private byte[] payload;
+		private int hash;
+		private Map<String, JsonNode> fields;
+		private byte[] pending;
+		private PlatformMessageMetadata metadata;
+
+		void forward(byte[] payload, Map<String, JsonNode> fields, long nanos) {
+			this.forwarded = true;
+			this.forwardedNanos = nanos;
+			this.payload = payload;
+			this.hash = Arrays.hashCode(payload);
+			this.fields = fields;
+		}
+	}
+}
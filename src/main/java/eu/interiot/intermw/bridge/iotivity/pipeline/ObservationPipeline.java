@@ -0,0 +1,513 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.interiot.intermw.bridge.iotivity.registry.LastValueCache;
+import eu.interiot.intermw.comm.broker.Publisher;
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+import eu.interiot.message.Message;
+import eu.interiot.message.MessagePayload;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+/**
+ *
+ * Staged processing of the observations, so that the threads of the CoAP endpoint only queue them
+ * Stages: a {@link PartitionedExecutor} that decodes and translates the observations queued by the CoAP callbacks,
+ * and a single publisher thread fed through a bounded queue. The observations of a device are translated by the same
+ * partition and the publish queue is FIFO, so they are published in the order they were received, while the
+ * observations of different devices are translated in parallel.
+ * A slow broker fills the publish queue, which blocks the partitions, which lets their queues fill up,
+ * where the {@link OverflowPolicy} decides whether the CoAP threads wait or observations are dropped.
+ * The publisher may group the observations of a subscription (conversation) according to its {@link BatchPolicy},
+ * so that the middleware receives one message with the entities of several devices instead of one message per observation.
+ * Before an observation is translated, the {@link ObservationFilter} of each subscription decides whether it is forwarded
+ * to the subscription, so an observation that no subscription needs is never translated
+ *
+ */
+public class ObservationPipeline {
+
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+	public static final int DEFAULT_PARTITIONS = PartitionedExecutor.DEFAULT_PARTITIONS;
+	public static final OverflowPolicy DEFAULT_POLICY = OverflowPolicy.BLOCK;
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+	private static final long POLL_TIMEOUT = 100;
+	//key of the subscriptions without conversation id
+	private static final String NO_CONVERSATION = "";
+
+	private final Logger logger = LoggerFactory.getLogger(ObservationPipeline.class);
+	private final IotivityTranslator translator;
+	private final Publisher<Message> publisher;
+	private final PartitionedExecutor executor;
+	private final BlockingQueue<Translated> publishQueue;
+	private final Thread publisherThread;
+	private final AtomicLong translatedCount = new AtomicLong();
+	private final AtomicLong publishedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong batchedCount = new AtomicLong();
+	//conversation -> batch policy of the subscriptions that are batched
+	private final ConcurrentMap<String, BatchPolicy> batchPolicies = new ConcurrentHashMap<String, BatchPolicy>();
+	//conversation -> filter of the subscriptions that are filtered
+	private final ConcurrentMap<String, ObservationFilter> filters = new ConcurrentHashMap<String, ObservationFilter>();
+	private final ScheduledExecutorService filterScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "iotivity-observation-conflation");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicLong filteredCount = new AtomicLong();
+	//conversation -> observations waiting to be published together, only accessed by the publisher thread
+	private final Map<String, Batch> batches = new LinkedHashMap<String, Batch>();
+	private volatile LastValueCache lastValues;
+	//set once the partitions have stopped, so that the publisher stops when the publish queue is empty
+	private volatile boolean partitionsStopped;
+
+	public ObservationPipeline(IotivityTranslator translator, Publisher<Message> publisher) {
+		this(translator, publisher, DEFAULT_QUEUE_SIZE, DEFAULT_PARTITIONS, DEFAULT_POLICY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param translator : the translator of the observations
+	 * @param publisher : the publisher of the observation messages
+	 * @param queueSize : the capacity of the observation queues (shared by the partitions) and of the publish queue
+	 * @param partitions : the number of decoding and translation threads
+	 * @param policy : what to do with a new observation when the queue of its partition is full
+	 */
+	public ObservationPipeline(IotivityTranslator translator, Publisher<Message> publisher, int queueSize, int partitions, OverflowPolicy policy) {
+		this.translator = translator;
+		this.publisher = publisher;
+		this.executor = new PartitionedExecutor(partitions, queueSize, policy, this::translate, "iotivity-translate");
+		this.publishQueue = new ArrayBlockingQueue<Translated>(queueSize);
+		this.publisherThread = new Thread(this::publish, "iotivity-publish");
+		this.publisherThread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the threads of the pipeline
+	 */
+	public void start() {
+		executor.start();
+		publisherThread.start();
+	}
+
+	/**
+	 * Queues an observation. Depending on the overflow policy the call may block while the queue is full
+	 *
+	 * @param href : the URL of the observed resource
+	 * @param payload : the CBOR payload of the notification
+	 * @param subscribers : the metadata of the subscriptions the observation is published to
+	 * @return false if the observation was dropped
+	 */
+	public boolean submit(String href, byte[] payload, Collection<PlatformMessageMetadata> subscribers) {
+		LastValueCache cache = lastValues;
+		if (cache != null) {
+			cache.put(href, payload);
+		}
+		try {
+			return executor.submit(new Observation(href, payload, subscribers));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void translate(Observation observation) {
+		Collection<PlatformMessageMetadata> subscribers = observation.isFiltered() ? released(observation) : filter(observation);
+		if (subscribers.isEmpty()) {
+			filteredCount.incrementAndGet();
+			return;
+		}
+		Model model;
+		try {
+			model = translator.toJenaModel(observation.getPayload());
+		} catch (Exception e) {
+			failedCount.incrementAndGet();
+			logger.error("Observation of {} could not be translated: {}", observation.getHref(), e.getMessage());
+			return;
+		}
+		translatedCount.incrementAndGet();
+		try {
+			publishQueue.put(new Translated(observation, model, subscribers));
+		} catch (InterruptedException e) {
+			//the pipeline is stopped
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the subscriptions the observation is forwarded to according to their filters
+	 */
+	private Collection<PlatformMessageMetadata> filter(Observation observation) {
+		if (filters.isEmpty()) {
+			return observation.getSubscribers();
+		}
+		List<PlatformMessageMetadata> subscribers = new ArrayList<PlatformMessageMetadata>(observation.getSubscribers().size());
+		for (PlatformMessageMetadata metadata : observation.getSubscribers()) {
+			ObservationFilter filter = filters.get(metadata.getConversationId().orElse(NO_CONVERSATION));
+			if (filter == null || filter.accept(observation.getHref(), observation.getPayload(), metadata)) {
+				subscribers.add(metadata);
+			}
+		}
+		return subscribers;
+	}
+
+	/**
+	 * @return the subscriptions a released observation is still published to, i.e. those that did not
+	 * get a newer observation of the resource in the meantime
+	 */
+	private Collection<PlatformMessageMetadata> released(Observation observation) {
+		List<PlatformMessageMetadata> subscribers = new ArrayList<PlatformMessageMetadata>(observation.getSubscribers().size());
+		for (PlatformMessageMetadata metadata : observation.getSubscribers()) {
+			ObservationFilter filter = filters.get(metadata.getConversationId().orElse(NO_CONVERSATION));
+			if (filter == null || filter.isLastForwarded(observation.getHref(), observation.getPayload())) {
+				subscribers.add(metadata);
+			}
+		}
+		return subscribers;
+	}
+
+	/**
+	 * Queues a conflated observation whose interval ended
+	 */
+	private void release(Observation observation) {
+		try {
+			executor.submit(observation);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void publish() {
+		try {
+			while (true) {
+				Translated translated = publishQueue.poll(pollTimeout(), TimeUnit.MILLISECONDS);
+				if (translated != null) {
+					for (PlatformMessageMetadata metadata : translated.subscribers) {
+						route(translated, metadata);
+					}
+				}
+				flushBatches(false);
+				if (translated == null && partitionsStopped && publishQueue.isEmpty()) {
+					flushBatches(true);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			//the pipeline is stopped
+		}
+	}
+
+	/**
+	 * Publishes a translated observation to a subscription, or adds it to the batch of the subscription
+	 */
+	private void route(Translated translated, PlatformMessageMetadata metadata) {
+		String conversation = metadata.getConversationId().orElse(NO_CONVERSATION);
+		BatchPolicy policy = batchPolicies.get(conversation);
+		if (policy == null) {
+			send(metadata, translated.model);
+			return;
+		}
+		Batch batch = batches.get(conversation);
+		//a batch holds one observation per device, so that the observations stay distinguishable by their entity
+		if (batch != null && batch.hrefs.contains(translated.observation.getHref())) {
+			flush(conversation, batch);
+			batch = null;
+		}
+		if (batch == null) {
+			batch = new Batch(metadata, policy);
+			batches.put(conversation, batch);
+		}
+		batch.hrefs.add(translated.observation.getHref());
+		batch.models.add(translated.model);
+		if (batch.models.size() >= policy.getMaxSize()) {
+			flush(conversation, batch);
+		}
+	}
+
+	/**
+	 * Publishes the batches whose linger time has elapsed or whose subscription is no longer batched
+	 *
+	 * @param all : true to publish all the batches
+	 */
+	private void flushBatches(boolean all) {
+		long now = System.nanoTime();
+		Iterator<Map.Entry<String, Batch>> it = batches.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Batch> entry = it.next();
+			Batch batch = entry.getValue();
+			if (all || now - batch.deadline >= 0 || batchPolicies.get(entry.getKey()) != batch.policy) {
+				it.remove();
+				publishBatch(batch);
+			}
+		}
+	}
+
+	private void flush(String conversation, Batch batch) {
+		batches.remove(conversation);
+		publishBatch(batch);
+	}
+
+	private void publishBatch(Batch batch) {
+		Model model;
+		if (batch.models.size() == 1) {
+			model = batch.models.get(0);
+		}
+		else {
+			model = ModelFactory.createDefaultModel();
+			for (Model observation : batch.models) {
+				model.add(observation);
+			}
+		}
+		if (send(batch.metadata, model)) {
+			batchedCount.addAndGet(batch.models.size());
+		}
+	}
+
+	/**
+	 * @return the time until the oldest batch has to be published, bounded so that the stop of the pipeline is noticed
+	 */
+	private long pollTimeout() {
+		long timeout = POLL_TIMEOUT;
+		long now = System.nanoTime();
+		for (Batch batch : batches.values()) {
+			timeout = Math.min(timeout, TimeUnit.NANOSECONDS.toMillis(batch.deadline - now));
+		}
+		return Math.max(0, timeout);
+	}
+
+	private boolean send(PlatformMessageMetadata metadata, Model model) {
+		Message observationMessage = new Message();
+		observationMessage.setMetadata(metadata);
+		observationMessage.setPayload(new MessagePayload(model));
+		try {
+			publish(observationMessage);
+			publishedCount.incrementAndGet();
+			return true;
+		} catch (Exception e) {
+			failedCount.incrementAndGet();
+			logger.error("Observation message could not be published: {}", e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Publishes an observation message upstream
+	 */
+	protected void publish(Message observationMessage) throws Exception {
+		publisher.publish(observationMessage);
+	}
+
+	/**
+	 * Sets the cache that is updated with every received observation, before any filtering or dropping
+	 */
+	public void setLastValueCache(LastValueCache lastValues) {
+		this.lastValues = lastValues;
+	}
+
+	/**
+	 * Sets how the observations of the subscriptions of a conversation are grouped
+	 * A batch that is pending when the policy changes is published as it is
+	 *
+	 * @param conversationId : the conversation of the subscriptions (may be null)
+	 * @param policy : the batch policy of the subscriptions
+	 */
+	public void setBatchPolicy(String conversationId, BatchPolicy policy) {
+		String conversation = conversationId == null ? NO_CONVERSATION : conversationId;
+		if (policy == null || !policy.isBatching()) {
+			batchPolicies.remove(conversation);
+		}
+		else {
+			batchPolicies.put(conversation, policy);
+		}
+	}
+
+	/**
+	 * @return the batch policy of the subscriptions of the given conversation (may be null)
+	 */
+	public BatchPolicy getBatchPolicy(String conversationId) {
+		BatchPolicy policy = batchPolicies.get(conversationId == null ? NO_CONVERSATION : conversationId);
+		return policy == null ? BatchPolicy.NONE : policy;
+	}
+
+	/**
+	 * Sets which observations are forwarded to the subscriptions of a conversation
+	 * Setting the same policy again keeps the state of the filter, while another policy discards its pending observations
+	 *
+	 * @param conversationId : the conversation of the subscriptions (may be null)
+	 * @param policy : the filter policy of the subscriptions
+	 */
+	public void setFilterPolicy(String conversationId, FilterPolicy policy) {
+		String conversation = conversationId == null ? NO_CONVERSATION : conversationId;
+		ObservationFilter previous;
+		if (policy == null || !policy.isFiltering()) {
+			previous = filters.remove(conversation);
+		}
+		else {
+			previous = filters.get(conversation);
+			if (previous != null && previous.getPolicy().equals(policy)) {
+				return;
+			}
+			filters.put(conversation, new ObservationFilter(policy, filterScheduler, this::release));
+		}
+		if (previous != null) {
+			previous.close();
+		}
+	}
+
+	/**
+	 * @return the filter of the subscriptions of the given conversation, with its counters, or {@code null}
+	 */
+	public ObservationFilter getFilter(String conversationId) {
+		return filters.get(conversationId == null ? NO_CONVERSATION : conversationId);
+	}
+
+	/**
+	 * Stops accepting observations and waits for the queued ones to be processed for a few seconds
+	 */
+	public void shutdown() {
+		filterScheduler.shutdownNow();
+		executor.close();
+		long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+		try {
+			partitionsStopped = executor.awaitTermination(SHUTDOWN_TIMEOUT);
+			publisherThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		int pending = executor.getQueueDepth() + publishQueue.size();
+		if (pending > 0) {
+			logger.warn("{} observations were discarded at shutdown", pending);
+		}
+		executor.shutdownNow();
+		publisherThread.interrupt();
+	}
+
+	/**
+	 * @return the number of observations waiting for translation
+	 */
+	public int getQueueDepth() {
+		return executor.getQueueDepth();
+	}
+
+	/**
+	 * @return the number of translated observations waiting to be published
+	 */
+	public int getPublishQueueDepth() {
+		return publishQueue.size();
+	}
+
+	/**
+	 * @return the number of observations dropped by the overflow policy
+	 */
+	public long getDroppedCount() {
+		return executor.getDroppedCount();
+	}
+
+	/**
+	 * @return the executor of the translation stage, along with the detailed counters of its partitions
+	 */
+	public PartitionedExecutor getExecutor() {
+		return executor;
+	}
+
+	public long getTranslatedCount() {
+		return translatedCount.get();
+	}
+
+	/**
+	 * @return the number of published messages (an observation is published once per subscription,
+	 * while a batch of observations is published as one message)
+	 */
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	/**
+	 * @return the number of observations that could not be translated and of messages that could not be published
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return the number of observations that were not translated because the filters of all their subscriptions suppressed them
+	 */
+	public long getFilteredCount() {
+		return filteredCount.get();
+	}
+
+	/**
+	 * @return the number of observations that were published as part of a batch
+	 */
+	public long getBatchedCount() {
+		return batchedCount.get();
+	}
+
+	private static class Translated {
+
+		private final Observation observation;
+		private final Model model;
+		private final Collection<PlatformMessageMetadata> subscribers;
+
+		Translated(Observation observation, Model model, Collection<PlatformMessageMetadata> subscribers) {
+			this.observation = observation;
+			this.model = model;
+			this.subscribers = subscribers;
+		}
+	}
+
+	private static class Batch {
+
+		private final PlatformMessageMetadata metadata;
+		private final BatchPolicy policy;
+		private final long deadline;
+		private final Set<String> hrefs = new HashSet<String>();
+		private final List<Model> models = new ArrayList<Model>();
+
+		Batch(PlatformMessageMetadata metadata, BatchPolicy policy) {
+			this.metadata = metadata;
+			this.policy = policy;
+			this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(policy.getLingerMillis());
+		}
+	}
+}
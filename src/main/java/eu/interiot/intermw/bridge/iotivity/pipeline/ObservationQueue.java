@@ -0,0 +1,236 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * Bounded FIFO queue of observations that applies an {@link OverflowPolicy} when it is full
+ * Observations released by the filter of a subscription are never conflated, since they are only
+ * published to that subscription
+ * Closing the queue wakes up the waiting threads: further offers are refused and {@link #take()}
+ * returns {@code null} once the queue is empty
+ *
+ */
+public class ObservationQueue {
+
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	//state guarded by the lock
+	private final ArrayDeque<Observation> observations;
+	//href -> queued observation that was not filtered yet, only used by the CONFLATE policy
+	private final Map<String, Observation> queuedByHref = new HashMap<String, Observation>();
+	private boolean closed;
+	private long droppedOldestCount;
+	private long droppedNewestCount;
+	private long conflatedCount;
+	private long blockedCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity : the maximum number of queued observations
+	 * @param policy : what to do with a new observation when the queue is full
+	 */
+	public ObservationQueue(int capacity, OverflowPolicy policy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.observations = new ArrayDeque<Observation>(capacity);
+	}
+
+	/**
+	 * Queues an observation according to the overflow policy
+	 *
+	 * @return false if the observation was dropped or the queue is closed
+	 * @throws InterruptedException in case the thread was interrupted while waiting for room in the queue
+	 */
+	public boolean offer(Observation observation) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			if (closed) {
+				return false;
+			}
+			boolean conflatable = policy == OverflowPolicy.CONFLATE && !observation.isFiltered();
+			if (conflatable) {
+				Observation queued = queuedByHref.get(observation.getHref());
+				if (queued != null) {
+					queued.conflate(observation);
+					conflatedCount++;
+					return true;
+				}
+			}
+			if (observations.size() >= capacity) {
+				switch (policy) {
+				case DROP_NEWEST:
+					droppedNewestCount++;
+					return false;
+				case DROP_OLDEST:
+					observations.poll();
+					droppedOldestCount++;
+					break;
+				default:
+					blockedCount++;
+					while (observations.size() >= capacity && !closed) {
+						notFull.await();
+					}
+					if (closed) {
+						return false;
+					}
+				}
+			}
+			observations.add(observation);
+			if (conflatable) {
+				queuedByHref.put(observation.getHref(), observation);
+			}
+			notEmpty.signal();
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for an observation
+	 *
+	 * @return the oldest observation or {@code null} if the queue is closed and empty
+	 * @throws InterruptedException in case the thread was interrupted while waiting
+	 */
+	public Observation take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (observations.isEmpty() && !closed) {
+				notEmpty.await();
+			}
+			Observation observation = observations.poll();
+			if (observation != null) {
+				queuedByHref.remove(observation.getHref(), observation);
+				notFull.signal();
+			}
+			return observation;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Refuses any further observation and wakes up the waiting threads
+	 *
+	 * @return the number of observations that were still queued
+	 */
+	public int close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+			return observations.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of queued observations
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return observations.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the number of queued observations dropped to make room for newer ones (DROP_OLDEST)
+	 */
+	public long getDroppedOldestCount() {
+		lock.lock();
+		try {
+			return droppedOldestCount;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of new observations dropped because the queue was full (DROP_NEWEST)
+	 */
+	public long getDroppedNewestCount() {
+		lock.lock();
+		try {
+			return droppedNewestCount;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of observations merged into a queued observation of the same device (CONFLATE)
+	 */
+	public long getConflatedCount() {
+		lock.lock();
+		try {
+			return conflatedCount;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of offers that had to wait for room in the queue (BLOCK, CONFLATE)
+	 */
+	public long getBlockedCount() {
+		lock.lock();
+		try {
+			return blockedCount;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+/**
+ *
+ * What the observation pipeline does with a new observation when its queue is full
+ *
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The caller (i.e. the thread of the CoAP endpoint) waits until there is room in the queue
+	 */
+	BLOCK,
+	/**
+	 * The oldest queued observation is dropped
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new observation is dropped
+	 */
+	DROP_NEWEST,
+	/**
+	 * The queue holds at most one observation per device: a new observation replaces the queued one of the same device.
+	 * When the queue is full of observations of other devices the caller waits, since each of them is the latest state of its device
+	 */
+	CONFLATE;
+
+	/**
+	 * @param value : the name of the policy, case insensitive and with dashes or underscores (e.g. drop-oldest)
+	 * @return the policy with the given name
+	 * @throws IllegalArgumentException in case there is no such policy
+	 */
+	public static OverflowPolicy parse(String value) {
+		return valueOf(value.trim().toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.pipeline;
+
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Processes the observations of each device in order, while the observations of different devices are processed in parallel
+ * Every device (href) is mapped to one of a fixed number of partitions. A partition is a bounded {@link ObservationQueue}
+ * drained by a single thread, so the observations of a device are never processed concurrently or out of order
+ *
+ */
+public class PartitionedExecutor {
+
+	public static final int DEFAULT_PARTITIONS = Runtime.getRuntime().availableProcessors();
+
+	private final Logger logger = LoggerFactory.getLogger(PartitionedExecutor.class);
+	private final ObservationQueue[] queues;
+	private final Thread[] threads;
+	private final Consumer<Observation> processor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param partitions : the number of partitions, i.e. of threads
+	 * @param capacity : the maximum number of queued observations, shared evenly among the partitions
+	 * @param policy : what to do with a new observation when the queue of its partition is full
+	 * @param processor : the processing of an observation
+	 * @param name : the prefix of the names of the threads
+	 */
+	public PartitionedExecutor(int partitions, int capacity, OverflowPolicy policy, Consumer<Observation> processor, String name) {
+		if (partitions <= 0) {
+			throw new IllegalArgumentException("Invalid number of partitions: " + partitions);
+		}
+		this.processor = processor;
+		queues = new ObservationQueue[partitions];
+		threads = new Thread[partitions];
+		int partitionCapacity = Math.max(1, (capacity + partitions - 1) / partitions);
+		for (int i = 0; i < partitions; i++) {
+			final ObservationQueue queue = new ObservationQueue(partitionCapacity, policy);
+			queues[i] = queue;
+			threads[i] = new Thread(() -> drain(queue), name + "-" + (i + 1));
+			threads[i].setDaemon(true);
+		}
+	}
+
+	public void start() {
+		for (Thread thread : threads) {
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues an observation to the partition of its device
+	 *
+	 * @return false if the observation was dropped or the executor is closed
+	 * @throws InterruptedException in case the thread was interrupted while waiting for room in the queue
+	 */
+	public boolean submit(Observation observation) throws InterruptedException {
+		return queues[partition(observation.getHref())].offer(observation);
+	}
+
+	/**
+	 * @return the partition of the given device
+	 */
+	public int partition(String href) {
+		int h = href.hashCode();
+		//the high bits are mixed in, since hrefs often differ only in their last characters
+		h ^= h >>> 16;
+		return Math.floorMod(h, queues.length);
+	}
+
+	private void drain(ObservationQueue queue) {
+		try {
+			Observation observation;
+			while ((observation = queue.take()) != null) {
+				try {
+					processor.accept(observation);
+				} catch (RuntimeException e) {
+					logger.error("Observation of {} could not be processed: {}", observation.getHref(), e.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			//the executor is stopped
+		}
+	}
+
+	/**
+	 * Refuses further observations. The queued ones are still processed
+	 */
+	public void close() {
+		for (ObservationQueue queue : queues) {
+			queue.close();
+		}
+	}
+
+	/**
+	 * Waits for the threads to process the queued observations
+	 *
+	 * @return true if all threads stopped within the given time
+	 */
+	public boolean awaitTermination(long millis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + millis;
+		for (Thread thread : threads) {
+			thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			if (thread.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the threads, discarding the queued observations
+	 */
+	public void shutdownNow() {
+		close();
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	public int getPartitionCount() {
+		return queues.length;
+	}
+
+	/**
+	 * @return the queue of the given partition, along with its counters
+	 */
+	public ObservationQueue getQueue(int partition) {
+		return queues[partition];
+	}
+
+	/**
+	 * @return the number of queued observations of all partitions
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (ObservationQueue queue : queues) {
+			depth += queue.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * @return the number of observations dropped by the overflow policy in all partitions
+	 */
+	public long getDroppedCount() {
+		long dropped = 0;
+		for (ObservationQueue queue : queues) {
+			dropped += queue.getDroppedOldestCount() + queue.getDroppedNewestCount();
+		}
+		return dropped;
+	}
+
+	/**
+	 * @return the number of observations conflated in all partitions
+	 */
+	public long getConflatedCount() {
+		long conflated = 0;
+		for (ObservationQueue queue : queues) {
+			conflated += queue.getConflatedCount();
+		}
+		return conflated;
+	}
+
+	/**
+	 * @return the number of offers that had to wait for room in all partitions
+	 */
+	public long getBlockedCount() {
+		long blocked = 0;
+		for (ObservationQueue queue : queues) {
+			blocked += queue.getBlockedCount();
+		}
+		return blocked;
+	}
+}
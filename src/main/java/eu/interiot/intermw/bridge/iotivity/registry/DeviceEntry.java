@@ -0,0 +1,123 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.registry;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
+
+/**
+ * 
+ * Immutable entry of the {@link DeviceIndex}. It keeps only the information needed for
+ * addressing a device (its id, href, resource types and interfaces)
+ *
+ */
+public class DeviceEntry {
+	
+	private final String id;
+	private final String href;
+	private final Set<String> resourceTypes;
+	private final Set<String> interfaces;
+	
+	public DeviceEntry(String id, String href, Set<String> resourceTypes, Set<String> interfaces) {
+		this.id = id;
+		this.href = href;
+		this.resourceTypes = Collections.unmodifiableSet(new LinkedHashSet<String>(resourceTypes));
+		this.interfaces = Collections.unmodifiableSet(new LinkedHashSet<String>(interfaces));
+	}
+	
+	/**
+	 * Creates an entry from the representation of a device, as returned by the IoTivity server
+	 * 
+	 * @param device : the representation of the device
+	 * @return the equivalent entry
+	 * @throws IllegalArgumentException in case the representation has no id or href
+	 */
+	public static DeviceEntry fromRepresentation(JsonElement device) {
+		return fromRepresentation(device, null);
+	}
+	
+	/**
+	 * Creates an entry from the representation of a device, as returned by the IoTivity server
+	 * 
+	 * @param device : the representation of the device
+	 * @param defaultHref : the href to be used if the representation does not contain one (e.g. the href of its link)
+	 * @return the equivalent entry
+	 * @throws IllegalArgumentException in case the representation has no id or href
+	 */
+	public static DeviceEntry fromRepresentation(JsonElement device, String defaultHref) {
+		JsonObject object = device.getAsJsonObject();
+		String href = IoTivityUtils.getHref(object);
+		if (href == null) {
+			href = defaultHref;
+		}
+		if (!object.has("id") || href == null) {
+			throw new IllegalArgumentException("The device representation has no id or href: " + device);
+		}
+		return new DeviceEntry(object.get("id").getAsString(), href, getStrings(object, "rt"), getStrings(object, "if"));
+	}
+	
+	private static Set<String> getStrings(JsonObject object, String key) {
+		Set<String> values = new LinkedHashSet<String>();
+		JsonElement element = object.get(key);
+		if (element == null || element.isJsonNull()) {
+			return values;
+		}
+		if (element.isJsonArray()) {
+			JsonArray array = element.getAsJsonArray();
+			for (JsonElement value : array) {
+				values.add(value.getAsString());
+			}
+		}
+		else {
+			values.add(element.getAsString());
+		}
+		return values;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getHref() {
+		return href;
+	}
+
+	public Set<String> getResourceTypes() {
+		return resourceTypes;
+	}
+
+	public Set<String> getInterfaces() {
+		return interfaces;
+	}
+
+	@Override
+	public String toString() {
+		return "DeviceEntry [id=" + id + ", href=" + href + ", resourceTypes=" + resourceTypes + ", interfaces="
+				+ interfaces + "]";
+	}
+}
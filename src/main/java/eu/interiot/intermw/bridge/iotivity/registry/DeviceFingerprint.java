@@ -0,0 +1,181 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.registry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * 
+ * Compact state of a tracked device. Instead of the whole representation only the id, href and resource
+ * types of the device are kept, along with a 64-bit hash of its canonical representation. Two representations
+ * with the same content (regardless of the order of their attributes) have the same fingerprint, so a changed
+ * device is detected by comparing two longs
+ *
+ */
+public class DeviceFingerprint {
+	
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	private final String id;
+	private final String href;
+	private final Set<String> resourceTypes;
+	private final long fingerprint;
+	
+	public DeviceFingerprint(String id, String href, Set<String> resourceTypes, long fingerprint) {
+		this.id = id;
+		this.href = href;
+		this.resourceTypes = Collections.unmodifiableSet(new LinkedHashSet<String>(resourceTypes));
+		this.fingerprint = fingerprint;
+	}
+	
+	/**
+	 * Creates the fingerprint of the representation of a device, as returned by the IoTivity server
+	 * 
+	 * @param device : the representation of the device
+	 * @param defaultHref : the href to be used if the representation does not contain one (may be null)
+	 * @return the fingerprint of the device
+	 * @throws IllegalArgumentException in case the representation has no id
+	 */
+	public static DeviceFingerprint of(JsonElement device, String defaultHref) {
+		JsonObject object = device.getAsJsonObject();
+		if (!object.has("id")) {
+			throw new IllegalArgumentException("The device representation has no id: " + device);
+		}
+		String href = object.has("href") ? object.get("href").getAsString() : defaultHref;
+		Set<String> resourceTypes = new LinkedHashSet<String>();
+		JsonElement rt = object.get("rt");
+		if (rt != null && rt.isJsonArray()) {
+			for (JsonElement value : rt.getAsJsonArray()) {
+				resourceTypes.add(value.getAsString());
+			}
+		}
+		else if (rt != null && !rt.isJsonNull()) {
+			resourceTypes.add(rt.getAsString());
+		}
+		return new DeviceFingerprint(object.get("id").getAsString(), href, resourceTypes, hash(device));
+	}
+	
+	/**
+	 * Computes the 64-bit FNV-1a hash of the canonical form of the given element. The attributes of
+	 * objects are hashed in the order of their names and every value is prefixed by its type, so that
+	 * e.g. the string "1" and the number 1 have different hashes
+	 * 
+	 * @param element : the JSON element
+	 * @return the hash of the element
+	 */
+	public static long hash(JsonElement element) {
+		return hash(FNV_OFFSET, element);
+	}
+	
+	private static long hash(long h, JsonElement element) {
+		if (element == null || element.isJsonNull()) {
+			return hash(h, 'n');
+		}
+		if (element.isJsonObject()) {
+			JsonObject object = element.getAsJsonObject();
+			String[] names = new String[object.size()];
+			int i = 0;
+			for (Entry<String, JsonElement> entry : object.entrySet()) {
+				names[i++] = entry.getKey();
+			}
+			Arrays.sort(names);
+			h = hash(h, '{');
+			for (String name : names) {
+				h = hash(hash(h, name), object.get(name));
+			}
+			return hash(h, '}');
+		}
+		if (element.isJsonArray()) {
+			JsonArray array = element.getAsJsonArray();
+			h = hash(h, '[');
+			for (JsonElement value : array) {
+				h = hash(h, value);
+			}
+			return hash(h, ']');
+		}
+		JsonPrimitive primitive = element.getAsJsonPrimitive();
+		char type = primitive.isString() ? 's' : primitive.isBoolean() ? 'b' : 'd';
+		return hash(hash(h, type), primitive.getAsString());
+	}
+	
+	private static long hash(long h, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			h = hash(h, value.charAt(i));
+		}
+		//terminator, so that adjacent strings can not be confused
+		return hash(h, '\u0000');
+	}
+	
+	private static long hash(long h, char c) {
+		h = (h ^ (c & 0xff)) * FNV_PRIME;
+		return (h ^ (c >>> 8)) * FNV_PRIME;
+	}
+	
+	/**
+	 * @return a minimal representation of the device (its id, href and resource types), e.g. for announcing its removal
+	 */
+	public JsonObject toRepresentation() {
+		JsonObject object = new JsonObject();
+		object.addProperty("id", id);
+		if (href != null) {
+			object.addProperty("href", href);
+		}
+		if (!resourceTypes.isEmpty()) {
+			JsonArray rt = new JsonArray();
+			for (String resourceType : resourceTypes) {
+				rt.add(resourceType);
+			}
+			object.add("rt", rt);
+		}
+		return object;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getHref() {
+		return href;
+	}
+
+	public Set<String> getResourceTypes() {
+		return resourceTypes;
+	}
+
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	@Override
+	public String toString() {
+		return "DeviceFingerprint [id=" + id + ", href=" + href + ", fingerprint=" + Long.toHexString(fingerprint) + "]";
+	}
+}
@@ -0,0 +1,263 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.registry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
+import eu.interiot.intermw.bridge.iotivity.client.IoTivityClient;
+
+/**
+ * 
+ * In-memory index of the devices registered on the IoTivity server (id to href, resource types and interfaces)
+ * It is filled when the platform is registered and it is kept up to date by the device check scheduler
+ * and by the create/delete operations of the bridge, so that single-device operations do not need to 
+ * retrieve all devices of the server.
+ * A lookup for an unknown id triggers a single targeted refresh, which retrieves only the devices
+ * that are not already indexed
+ *
+ */
+public class DeviceIndex {
+	
+	private final Logger logger = LoggerFactory.getLogger(DeviceIndex.class);
+	private final IoTivityClient iotivityClient;
+	private final ConcurrentMap<String, DeviceEntry> devicesById = new ConcurrentHashMap<String, DeviceEntry>();
+	private final ConcurrentMap<String, String> idsByHref = new ConcurrentHashMap<String, String>();
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final Object refreshLock = new Object();
+	
+	public DeviceIndex(IoTivityClient iotivityClient) {
+		this.iotivityClient = iotivityClient;
+	}
+	
+	/**
+	 * Replaces the content of the index with the given devices
+	 * 
+	 * @param devices : a {@code Map} with the id of each device as key and its representation as value
+	 */
+	public void load(Map<String, JsonElement> devices) {
+		synchronized (refreshLock) {
+			clear();
+			for (JsonElement device : devices.values()) {
+				put(device);
+			}
+		}
+	}
+	
+	/**
+	 * Adds (or updates) a device to the index
+	 * 
+	 * @param device : the representation of the device, as returned by the IoTivity server
+	 * @return the indexed entry or {@code null} if the representation has no id or href
+	 */
+	public DeviceEntry put(JsonElement device) {
+		return put(device, null);
+	}
+	
+	/**
+	 * Adds (or updates) a device to the index
+	 * 
+	 * @param device : the representation of the device, as returned by the IoTivity server
+	 * @param href : the href of the device, used if the representation does not contain one
+	 * @return the indexed entry or {@code null} if the representation has no id
+	 */
+	public DeviceEntry put(JsonElement device, String href) {
+		try {
+			return put(DeviceEntry.fromRepresentation(device, href));
+		} catch (Exception e) {
+			logger.warn("Device could not be indexed: {}", e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Adds (or updates) the given entry to the index
+	 */
+	public DeviceEntry put(DeviceEntry entry) {
+		DeviceEntry previous = devicesById.put(entry.getId(), entry);
+		if (previous != null && !previous.getHref().equals(entry.getHref())) {
+			idsByHref.remove(previous.getHref(), previous.getId());
+		}
+		idsByHref.put(entry.getHref(), entry.getId());
+		return entry;
+	}
+	
+	/**
+	 * Removes the device with the given {@code id} from the index
+	 */
+	public void remove(String id) {
+		DeviceEntry entry = devicesById.remove(id);
+		if (entry != null) {
+			idsByHref.remove(entry.getHref(), id);
+		}
+	}
+	
+	/**
+	 * Removes all devices from the index
+	 */
+	public void clear() {
+		devicesById.clear();
+		idsByHref.clear();
+	}
+	
+	/**
+	 * @return the indexed device with the given {@code id} or {@code null}. The server is never contacted
+	 */
+	public DeviceEntry get(String id) {
+		return devicesById.get(id);
+	}
+	
+	/**
+	 * @return the id of the indexed device with the given {@code href} or {@code null}
+	 */
+	public String getIdByHref(String href) {
+		return idsByHref.get(href);
+	}
+	
+	/**
+	 * Returns the device with the given {@code id}. In case it is not indexed, a targeted refresh is
+	 * executed (unless another refresh completed while waiting) and the index is checked again
+	 * 
+	 * @param id : the id of the device
+	 * @return the device or {@code null} if the server has no device with the given id
+	 * @throws Exception in case the refresh failed
+	 */
+	public DeviceEntry lookup(String id) throws Exception {
+		DeviceEntry entry = devicesById.get(id);
+		if (entry != null) {
+			return entry;
+		}
+		long observedRefreshCount = refreshCount.get();
+		synchronized (refreshLock) {
+			entry = devicesById.get(id);
+			if (entry == null && refreshCount.get() == observedRefreshCount) {
+				refresh();
+				entry = devicesById.get(id);
+			}
+		}
+		return entry;
+	}
+	
+	/**
+	 * Returns the devices with the given ids. In case some of them are not indexed, a single targeted refresh is
+	 * executed for all of them (unless another refresh completed while waiting)
+	 * 
+	 * @param ids : the ids of the devices
+	 * @return the devices found, by id, in the order of the given ids. The ids the server has no device for are missing
+	 * @throws Exception in case the refresh failed
+	 */
+	public Map<String, DeviceEntry> lookupAll(Collection<String> ids) throws Exception {
+		long observedRefreshCount = refreshCount.get();
+		if (collect(ids).size() == ids.size()) {
+			return collect(ids);
+		}
+		synchronized (refreshLock) {
+			if (collect(ids).size() != ids.size() && refreshCount.get() == observedRefreshCount) {
+				refresh();
+			}
+		}
+		return collect(ids);
+	}
+	
+	private Map<String, DeviceEntry> collect(Collection<String> ids) {
+		Map<String, DeviceEntry> entries = new LinkedHashMap<String, DeviceEntry>();
+		for (String id : ids) {
+			DeviceEntry entry = devicesById.get(id);
+			if (entry != null) {
+				entries.put(id, entry);
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * Synchronizes the index with the server. The links of the devices are retrieved once, devices whose href
+	 * is no longer advertised are removed and only the devices with an unknown href are retrieved, with at most
+	 * the discovery concurrency of the client in flight
+	 * 
+	 * @throws Exception in case the links of the devices could not be retrieved
+	 */
+	public void refresh() throws Exception {
+		synchronized (refreshLock) {
+			JsonArray links = iotivityClient.listDeviceLinks();
+			Set<String> hrefs = new HashSet<String>();
+			final Semaphore inFlight = new Semaphore(iotivityClient.getDiscoveryConcurrency());
+			List<CompletableFuture<Void>> requests = new ArrayList<CompletableFuture<Void>>();
+			for (JsonElement link : links) {
+				final String href = IoTivityUtils.getHref(link);
+				if (href == null) {
+					continue;
+				}
+				hrefs.add(href);
+				if (!idsByHref.containsKey(href)) {
+					inFlight.acquire();
+					requests.add(iotivityClient.getDeviceAsync(href).handle((device, error) -> {
+						inFlight.release();
+						if (error != null) {
+							logger.warn("Device {} could not be indexed: {}", href, error.getMessage());
+						}
+						else {
+							put(device, href);
+						}
+						return null;
+					}));
+				}
+			}
+			for (Entry<String, String> indexed : idsByHref.entrySet()) {
+				if (!hrefs.contains(indexed.getKey())) {
+					remove(indexed.getValue());
+				}
+			}
+			CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+			refreshCount.incrementAndGet();
+			logger.debug("Device index refreshed: {} devices, {} retrieved", devicesById.size(), requests.size());
+		}
+	}
+	
+	/**
+	 * @return all indexed devices
+	 */
+	public Collection<DeviceEntry> getDevices() {
+		return devicesById.values();
+	}
+	
+	public int size() {
+		return devicesById.size();
+	}
+}
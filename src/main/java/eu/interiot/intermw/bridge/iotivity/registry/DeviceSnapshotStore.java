@@ -0,0 +1,262 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.registry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 
+ * Append-only file that keeps the fingerprints of the tracked devices (see {@link DeviceFingerprint}),
+ * so that after a restart the bridge announces only the devices that changed while it was down
+ * 
+ * Every change is appended to the file as a record (put or removal of a device). When the file is loaded
+ * the records are replayed and the file is rewritten with one record per device. An incomplete last record
+ * (e.g. after a crash) is ignored. While running, the file is rewritten when the obsolete records outnumber
+ * the live ones
+ *
+ */
+public class DeviceSnapshotStore {
+	
+	private static final int MAGIC = 0x494F4453;
+	private static final int VERSION = 1;
+	private static final byte PUT = 'P';
+	private static final byte REMOVE = 'R';
+	//obsolete records tolerated before the file is rewritten
+	private static final int MIN_COMPACTION_RECORDS = 1024;
+	
+	private final Logger logger = LoggerFactory.getLogger(DeviceSnapshotStore.class);
+	private final File file;
+	//mirror of the file content (the fingerprints are shared with the tracker)
+	private final Map<String, DeviceFingerprint> devices = new LinkedHashMap<String, DeviceFingerprint>();
+	private DataOutputStream out;
+	private int records;
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param file : the file of the snapshot, it is created if it does not exist
+	 */
+	public DeviceSnapshotStore(File file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Loads the snapshot and opens the file for appending
+	 * A file that is not a snapshot is ignored and overwritten
+	 * 
+	 * @return the fingerprints of the devices of the snapshot (id -> fingerprint)
+	 * @throws IOException in case the file could not be read or written
+	 */
+	public synchronized Map<String, DeviceFingerprint> load() throws IOException {
+		close();
+		devices.clear();
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+					logger.warn("{} is not a device snapshot of version {}, it will be overwritten", file, VERSION);
+				}
+				else {
+					replay(in);
+				}
+			} catch (EOFException e) {
+				logger.warn("{} is not a device snapshot, it will be overwritten", file);
+			}
+			finally {
+				in.close();
+			}
+		}
+		compact();
+		return new LinkedHashMap<String, DeviceFingerprint>(devices);
+	}
+	
+	private void replay(DataInputStream in) throws IOException {
+		int count = 0;
+		try {
+			while (true) {
+				byte type = in.readByte();
+				if (type == PUT) {
+					DeviceFingerprint device = readFingerprint(in);
+					devices.put(device.getId(), device);
+				}
+				else if (type == REMOVE) {
+					devices.remove(in.readUTF());
+				}
+				else {
+					logger.warn("Invalid record in {}, the remaining records are ignored", file);
+					break;
+				}
+				count++;
+			}
+		} catch (EOFException e) {
+			//end of the file or incomplete last record
+		}
+		logger.debug("Replayed {} records of {}: {} devices", count, file, devices.size());
+	}
+	
+	/**
+	 * Appends the given fingerprint (a new device or a new version of a known device)
+	 * 
+	 * @throws IOException in case the record could not be written
+	 */
+	public synchronized void put(DeviceFingerprint device) throws IOException {
+		checkOpen();
+		out.writeByte(PUT);
+		writeFingerprint(out, device);
+		out.flush();
+		devices.put(device.getId(), device);
+		appended();
+	}
+	
+	/**
+	 * Appends the removal of the device with the given {@code id}
+	 * 
+	 * @throws IOException in case the record could not be written
+	 */
+	public synchronized void remove(String id) throws IOException {
+		checkOpen();
+		if (devices.remove(id) == null) {
+			return;
+		}
+		out.writeByte(REMOVE);
+		out.writeUTF(id);
+		out.flush();
+		appended();
+	}
+	
+	/**
+	 * Closes the file. The snapshot is kept and can be loaded again
+	 */
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+	
+	/**
+	 * Closes and deletes the file, e.g. when the platform is unregistered
+	 */
+	public synchronized void delete() throws IOException {
+		close();
+		devices.clear();
+		Files.deleteIfExists(file.toPath());
+	}
+	
+	/**
+	 * @return the number of devices in the snapshot
+	 */
+	public synchronized int size() {
+		return devices.size();
+	}
+	
+	/**
+	 * @return the number of records in the file
+	 */
+	public synchronized int getRecordCount() {
+		return records;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	private void checkOpen() throws IOException {
+		if (out == null) {
+			throw new IOException("The device snapshot " + file + " is not loaded");
+		}
+	}
+	
+	private void appended() throws IOException {
+		records++;
+		if (records - devices.size() > Math.max(MIN_COMPACTION_RECORDS, devices.size())) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Rewrites the file with one record per device and reopens it for appending
+	 */
+	private void compact() throws IOException {
+		close();
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Directory " + parent + " could not be created");
+		}
+		File tmp = new File(parent, file.getName() + ".tmp");
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			for (DeviceFingerprint device : devices.values()) {
+				data.writeByte(PUT);
+				writeFingerprint(data, device);
+			}
+		}
+		finally {
+			data.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		records = devices.size();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+	
+	private static void writeFingerprint(DataOutputStream out, DeviceFingerprint device) throws IOException {
+		out.writeUTF(device.getId());
+		out.writeBoolean(device.getHref() != null);
+		if (device.getHref() != null) {
+			out.writeUTF(device.getHref());
+		}
+		out.writeShort(device.getResourceTypes().size());
+		for (String resourceType : device.getResourceTypes()) {
+			out.writeUTF(resourceType);
+		}
+		out.writeLong(device.getFingerprint());
+	}
+	
+	private static DeviceFingerprint readFingerprint(DataInputStream in) throws IOException {
+		String id = in.readUTF();
+		String href = in.readBoolean() ? in.readUTF() : null;
+		int size = in.readUnsignedShort();
+		Set<String> resourceTypes = new LinkedHashSet<String>();
+		for (int i = 0; i < size; i++) {
+			resourceTypes.add(in.readUTF());
+		}
+		return new DeviceFingerprint(id, href, resourceTypes, in.readLong());
+	}
+}
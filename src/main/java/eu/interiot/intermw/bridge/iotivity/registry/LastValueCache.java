@@ -0,0 +1,348 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.registry;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ * Last known representation (CBOR payload) of each device, so that a query can be answered without a request to the device
+ * It is fed by the observation notifications and by the responses of the GET requests, and it is bounded by the total size
+ * of the payloads, evicting the least recently used devices.
+ * An entry younger than the maximum age is served as it is, as is the entry of a device whose observation is established,
+ * since the notifications keep it up to date. An older entry within the stale window is served as well, while a GET request
+ * refreshes it in the background (stale-while-revalidate). Otherwise the query waits for the GET request.
+ * Concurrent requests for the same device share a single GET request. The response of a request that was in progress
+ * when the entry was invalidated (or the cache cleared) is not stored
+ *
+ */
+public class LastValueCache {
+
+	public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+	public static final long DEFAULT_MAX_AGE = 5000;
+	public static final long DEFAULT_STALE_WINDOW = 30000;
+	//upper bounds of the buckets of the age histogram in milliseconds, the last bucket has no upper bound
+	public static final long[] AGE_BUCKETS = {100, 1000, 10000, 60000, 600000};
+	//estimated memory of an entry besides its payload
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final Logger logger = LoggerFactory.getLogger(LastValueCache.class);
+	private final long maxBytes;
+	private final long maxAgeNanos;
+	private final long staleWindowNanos;
+	//href -> entry in access order, guarded by this
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long bytes;
+	//href -> time of the invalidation of an entry while a request for it was in progress, guarded by this
+	private final Map<String, Long> invalidations = new HashMap<String, Long>();
+	//time of the last clear, guarded by this
+	private long clearedNanos = System.nanoTime();
+	//href -> GET request in progress
+	private final ConcurrentMap<String, CompletableFuture<byte[]>> loads = new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong staleHitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong refreshFailureCount = new AtomicLong();
+	private final AtomicLongArray ageHistogram = new AtomicLongArray(AGE_BUCKETS.length + 1);
+
+	public LastValueCache() {
+		this(DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE, DEFAULT_STALE_WINDOW);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes : the maximum memory of the cached payloads (0 disables the cache)
+	 * @param maxAgeMillis : the age up to which an entry is served without a request to the device
+	 * @param staleWindowMillis : how long after the maximum age an entry is still served while it is refreshed
+	 */
+	public LastValueCache(long maxBytes, long maxAgeMillis, long staleWindowMillis) {
+		if (maxBytes < 0 || maxAgeMillis < 0 || staleWindowMillis < 0) {
+			throw new IllegalArgumentException("Invalid cache bounds: " + maxBytes + " bytes, max age " + maxAgeMillis
+					+ ", stale window " + staleWindowMillis);
+		}
+		this.maxBytes = maxBytes;
+		this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+		this.staleWindowNanos = TimeUnit.MILLISECONDS.toNanos(staleWindowMillis);
+	}
+
+	/**
+	 * Stores the latest representation of a device
+	 *
+	 * @param href : the URL of the device
+	 * @param payload : the CBOR payload of the notification or of the response
+	 */
+	public void put(String href, byte[] payload) {
+		put(href, payload, System.nanoTime(), Long.MIN_VALUE);
+	}
+
+	/**
+	 * Stores a representation, unless the stored one is newer than the given time
+	 */
+	private synchronized void put(String href, byte[] payload, long nanos, long notAfterNanos) {
+		if (payload == null) {
+			return;
+		}
+		if (notAfterNanos != Long.MIN_VALUE) {
+			Long invalidatedNanos = invalidations.get(href);
+			if (clearedNanos - notAfterNanos >= 0 || (invalidatedNanos != null && invalidatedNanos - notAfterNanos >= 0)) {
+				//the request was sent before the entry was invalidated
+				return;
+			}
+		}
+		long size = size(href, payload);
+		Entry previous = entries.get(href);
+		if (previous != null) {
+			if (notAfterNanos != Long.MIN_VALUE && previous.storedNanos - notAfterNanos > 0) {
+				//a notification arrived while the request was in progress
+				return;
+			}
+			entries.remove(href);
+			bytes -= size(href, previous.payload);
+		}
+		if (size > maxBytes) {
+			return;
+		}
+		entries.put(href, new Entry(payload, nanos));
+		bytes += size;
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Entry> eldest = it.next();
+			it.remove();
+			bytes -= size(eldest.getKey(), eldest.getValue().payload);
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the representation of a device, from the cache if it is recent enough or else from the device
+	 *
+	 * @param href : the URL of the device
+	 * @param observed : true if the device is observed, so that its entry is up to date whatever its age
+	 * @param loader : retrieves the CBOR payload of a device
+	 * @return the CBOR payload of the device
+	 * @throws Exception in case the device could not be retrieved
+	 */
+	public byte[] get(String href, boolean observed, Function<String, CompletableFuture<byte[]>> loader) throws Exception {
+		try {
+			return getAsync(href, observed, loader).get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Returns the representation of a device without blocking, see {@link #get(String, boolean, Function)}
+	 *
+	 * @return a future that is completed with the CBOR payload of the device, at once in case it is served from the cache
+	 */
+	public CompletableFuture<byte[]> getAsync(String href, boolean observed, Function<String, CompletableFuture<byte[]>> loader) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(href);
+		}
+		if (entry != null) {
+			long age = System.nanoTime() - entry.storedNanos;
+			if (observed || age <= maxAgeNanos) {
+				hitCount.incrementAndGet();
+				recordAge(age);
+				return CompletableFuture.completedFuture(entry.payload);
+			}
+			if (age <= maxAgeNanos + staleWindowNanos) {
+				staleHitCount.incrementAndGet();
+				recordAge(age);
+				load(href, loader);
+				return CompletableFuture.completedFuture(entry.payload);
+			}
+		}
+		missCount.incrementAndGet();
+		return load(href, loader);
+	}
+
+	/**
+	 * Retrieves a device, joining the request that is already in progress for it
+	 */
+	private CompletableFuture<byte[]> load(String href, Function<String, CompletableFuture<byte[]>> loader) {
+		CompletableFuture<byte[]> load = new CompletableFuture<byte[]>();
+		CompletableFuture<byte[]> existing = loads.putIfAbsent(href, load);
+		if (existing != null) {
+			return existing;
+		}
+		long start = System.nanoTime();
+		CompletableFuture<byte[]> request;
+		try {
+			request = loader.apply(href);
+		} catch (Exception e) {
+			request = new CompletableFuture<byte[]>();
+			request.completeExceptionally(e);
+		}
+		request.whenComplete((payload, error) -> {
+			loads.remove(href, load);
+			if (error != null) {
+				refreshFailureCount.incrementAndGet();
+				logger.debug("Device {} could not be retrieved: {}", href, error.getMessage());
+				forgetInvalidation(href);
+				load.completeExceptionally(error);
+				return;
+			}
+			put(href, payload, System.nanoTime(), start);
+			forgetInvalidation(href);
+			load.complete(payload);
+		});
+		return load;
+	}
+
+	/**
+	 * The invalidation is only needed while a request for the device is in progress
+	 */
+	private synchronized void forgetInvalidation(String href) {
+		if (!loads.containsKey(href)) {
+			invalidations.remove(href);
+		}
+	}
+
+	/**
+	 * Removes the entry of a device, e.g. after the device was updated or deleted
+	 * The response of a request that is in progress for the device is not stored
+	 */
+	public synchronized void invalidate(String href) {
+		Entry entry = entries.remove(href);
+		if (entry != null) {
+			bytes -= size(href, entry.payload);
+		}
+		if (loads.containsKey(href)) {
+			invalidations.put(href, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Removes all entries, e.g. after the address of the server changed
+	 * The responses of the requests that are in progress are not stored
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+		clearedNanos = System.nanoTime();
+	}
+
+	private void recordAge(long ageNanos) {
+		long ageMillis = TimeUnit.NANOSECONDS.toMillis(ageNanos);
+		int bucket = 0;
+		while (bucket < AGE_BUCKETS.length && ageMillis >= AGE_BUCKETS[bucket]) {
+			bucket++;
+		}
+		ageHistogram.incrementAndGet(bucket);
+	}
+
+	private static long size(String href, byte[] payload) {
+		return ENTRY_OVERHEAD + 2L * href.length() + payload.length;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the estimated memory of the cached entries in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of queries served with an entry younger than the maximum age or of an observed device
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of queries served with a stale entry while it was refreshed
+	 */
+	public long getStaleHitCount() {
+		return staleHitCount.get();
+	}
+
+	/**
+	 * @return the number of queries that waited for a request to the device
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return the number of requests to the devices that failed
+	 */
+	public long getRefreshFailureCount() {
+		return refreshFailureCount.get();
+	}
+
+	/**
+	 * @return the fraction of the queries served from the cache (fresh or stale entries)
+	 */
+	public double getHitRate() {
+		long served = hitCount.get() + staleHitCount.get();
+		long total = served + missCount.get();
+		return total == 0 ? 0 : (double) served / total;
+	}
+
+	/**
+	 * @return the number of served entries per age bucket, the bucket i counting the ages below {@link #AGE_BUCKETS}[i]
+	 * and the last bucket the ages above all bounds
+	 */
+	public long[] getAgeHistogram() {
+		long[] histogram = new long[ageHistogram.length()];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = ageHistogram.get(i);
+		}
+		return histogram;
+	}
+
+	private static class Entry {
+
+		private final byte[] payload;
+		private final long storedNanos;
+
+		Entry(byte[] payload, long storedNanos) {
+			this.payload = payload;
+			this.storedNanos = storedNanos;
+		}
+	}
+}
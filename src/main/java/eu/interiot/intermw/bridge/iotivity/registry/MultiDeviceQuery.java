@@ -0,0 +1,194 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.registry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+
+/**
+ *
+ * Query of several devices at once
+ * The hrefs of all the devices are resolved by a single lookup in the {@link DeviceIndex}, the representations are
+ * retrieved concurrently with a bounded number of requests in flight and translated in parallel, and the models
+ * are merged into a single model. A device that could not be retrieved or translated does not fail the query,
+ * it is reported along with its cause
+ *
+ */
+public class MultiDeviceQuery {
+
+	public static final int DEFAULT_CONCURRENCY = 16;
+
+	private final DeviceIndex deviceIndex;
+	private final Function<String, CompletableFuture<byte[]>> fetcher;
+	private final IotivityTranslator translator;
+	private final int concurrency;
+	private final ExecutorService translationExecutor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param deviceIndex : the index of the devices
+	 * @param fetcher : retrieves the CBOR payload of the device with the given href (e.g. through the last value cache)
+	 * @param translator : the translator of the payloads
+	 * @param concurrency : the maximum number of devices retrieved at the same time
+	 * @param translationThreads : the number of threads that translate the payloads
+	 */
+	public MultiDeviceQuery(DeviceIndex deviceIndex, Function<String, CompletableFuture<byte[]>> fetcher, IotivityTranslator translator,
+			int concurrency, int translationThreads) {
+		if (concurrency < 1 || translationThreads < 1) {
+			throw new IllegalArgumentException("Invalid query concurrency: " + concurrency + ", " + translationThreads + " threads");
+		}
+		this.deviceIndex = deviceIndex;
+		this.fetcher = fetcher;
+		this.translator = translator;
+		this.concurrency = concurrency;
+		final AtomicInteger threads = new AtomicInteger();
+		this.translationExecutor = Executors.newFixedThreadPool(translationThreads, runnable -> {
+			Thread thread = new Thread(runnable, "iotivity-query-translate-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queries the devices with the given ids
+	 *
+	 * @param ids : the ids of the devices
+	 * @return the merged model of the devices and the failures
+	 * @throws Exception in case the hrefs of the devices could not be resolved
+	 */
+	public Result query(Collection<String> ids) throws Exception {
+		Map<String, DeviceEntry> devices = deviceIndex.lookupAll(ids);
+		final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+		final Map<String, Model> models = new ConcurrentHashMap<String, Model>();
+		for (String id : ids) {
+			if (!devices.containsKey(id)) {
+				failures.put(id, new Exception("There is no device with given id : " + id));
+			}
+		}
+		final Semaphore inFlight = new Semaphore(concurrency);
+		List<CompletableFuture<Void>> requests = new ArrayList<CompletableFuture<Void>>();
+		for (Entry<String, DeviceEntry> device : devices.entrySet()) {
+			final String id = device.getKey();
+			inFlight.acquire();
+			CompletableFuture<byte[]> request;
+			try {
+				request = fetcher.apply(device.getValue().getHref());
+			} catch (Exception e) {
+				request = new CompletableFuture<byte[]>();
+				request.completeExceptionally(e);
+			}
+			requests.add(request.whenComplete((payload, error) -> inFlight.release())
+					.thenApplyAsync(this::translate, translationExecutor)
+					.handle((model, error) -> {
+						if (error != null) {
+							failures.put(id, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+						}
+						else {
+							models.put(id, model);
+						}
+						return null;
+					}));
+		}
+		CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).join();
+
+		Model merged = ModelFactory.createDefaultModel();
+		for (String id : devices.keySet()) {
+			Model model = models.get(id);
+			if (model != null) {
+				merged.add(model);
+			}
+		}
+		Map<String, Throwable> orderedFailures = new LinkedHashMap<String, Throwable>();
+		for (String id : ids) {
+			if (failures.containsKey(id)) {
+				orderedFailures.put(id, failures.get(id));
+			}
+		}
+		return new Result(merged, models.size(), orderedFailures);
+	}
+
+	private Model translate(byte[] payload) {
+		try {
+			return translator.toJenaModel(payload);
+		} catch (Exception e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Stops the translation threads
+	 */
+	public void shutdown() {
+		translationExecutor.shutdownNow();
+	}
+
+	public static class Result {
+
+		private final Model model;
+		private final int deviceCount;
+		private final Map<String, Throwable> failures;
+
+		Result(Model model, int deviceCount, Map<String, Throwable> failures) {
+			this.model = model;
+			this.deviceCount = deviceCount;
+			this.failures = failures;
+		}
+
+		/**
+		 * @return the merged model of the devices that were retrieved
+		 */
+		public Model getModel() {
+			return model;
+		}
+
+		/**
+		 * @return the number of devices that were retrieved
+		 */
+		public int getDeviceCount() {
+			return deviceCount;
+		}
+
+		/**
+		 * @return the cause of the failure of each device that could not be retrieved, by id
+		 */
+		public Map<String, Throwable> getFailures() {
+			return failures;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * ACTIVAGE. ACTivating InnoVative IoT smart living environments for AGEing well.
+ * ACTIVAGE is a R&D project which has received funding from the European 
+ * Union's Horizon 2020 research and innovation programme under grant 
+ * agreement No 732679.
+ * 
+ * Copyright (C) 2016-2018, by (Author's company of this file):
+ * - CERTH/ITI, http://www.iti.gr/
+ * Centre for Research & Technology Hellas - Information Technologies Institute
+ * 
+ *
+ * For more information, contact:
+ * - @author <a href="mailto:nkak@iti.gr">Nikolaos Kaklanis</a>  
+ * - @cauthor <a href="mailto:stavrotheodoros@iti.gr">Stefanos Stavrotheodoros</a> 
+ * - Project coordinator:  <a href="mailto:coordinator@activage.eu"></a>
+ *  
+ *
+ * This code is licensed under the EPL license, available at the root
+ * application directory.
+ */
+package eu.interiot.intermw.bridge.iotivity.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
+import eu.interiot.intermw.bridge.iotivity.client.IoTivityClient;
+
+/**
+ * 
+ * Routing table of the collections that devices are created in (resource type to the hrefs of the collections)
+ * The table is built from the discovery of the collections ({@code /oic/res?rt=oic.wk.res}) and it is replaced
+ * as a whole on each refresh, so that a device creation is a single POST to a routed href.
+ * When several collections accept the same resource type, the creations are spread over them in round-robin order.
+ * A route for an unknown resource type, or after {@link #invalidate()}, triggers a single refresh
+ *
+ */
+public class ResourceTypeRoutes {
+	
+	public static final String COLLECTION_DISCOVERY_URL = "/oic/res?rt=oic.wk.res";
+	
+	private final Logger logger = LoggerFactory.getLogger(ResourceTypeRoutes.class);
+	private final IoTivityClient iotivityClient;
+	private volatile Map<String, Route> routes = Collections.emptyMap();
+	private volatile boolean stale = true;
+	private final AtomicLong refreshCount = new AtomicLong();
+	private final Object refreshLock = new Object();
+	
+	public ResourceTypeRoutes(IoTivityClient iotivityClient) {
+		this.iotivityClient = iotivityClient;
+	}
+	
+	/**
+	 * Replaces the table with the routes of the given discovery response
+	 * 
+	 * @param discovery : the response of the collection discovery, an array of server entries
+	 * or a single entry, each with the {@code links} of its collections
+	 */
+	public void load(JsonElement discovery) {
+		Map<String, Set<String>> hrefsByResourceType = new HashMap<String, Set<String>>();
+		if (discovery != null && discovery.isJsonArray()) {
+			for (JsonElement entry : discovery.getAsJsonArray()) {
+				addLinks(hrefsByResourceType, entry);
+			}
+		}
+		else {
+			addLinks(hrefsByResourceType, discovery);
+		}
+		Map<String, Route> table = new HashMap<String, Route>();
+		for (Entry<String, Set<String>> entry : hrefsByResourceType.entrySet()) {
+			table.put(entry.getKey(), new Route(new ArrayList<String>(entry.getValue())));
+		}
+		routes = Collections.unmodifiableMap(table);
+		stale = false;
+	}
+	
+	private static void addLinks(Map<String, Set<String>> hrefsByResourceType, JsonElement entry) {
+		if (entry == null || !entry.isJsonObject() || !entry.getAsJsonObject().has("links")
+				|| !entry.getAsJsonObject().get("links").isJsonArray()) {
+			return;
+		}
+		for (JsonElement link : entry.getAsJsonObject().getAsJsonArray("links")) {
+			if (!link.isJsonObject()) {
+				continue;
+			}
+			String href = IoTivityUtils.getHref(link);
+			JsonElement rt = ((JsonObject) link).get("rt");
+			if (href == null || rt == null) {
+				continue;
+			}
+			Iterable<JsonElement> resourceTypes = rt.isJsonArray() ? rt.getAsJsonArray() : Collections.singletonList(rt);
+			for (JsonElement resourceType : resourceTypes) {
+				Set<String> hrefs = hrefsByResourceType.get(resourceType.getAsString());
+				if (hrefs == null) {
+					hrefs = new LinkedHashSet<String>();
+					hrefsByResourceType.put(resourceType.getAsString(), hrefs);
+				}
+				hrefs.add(href);
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the table from a new discovery of the collections of the server
+	 * 
+	 * @throws Exception in case the collections could not be discovered
+	 */
+	public void refresh() throws Exception {
+		synchronized (refreshLock) {
+			load(iotivityClient.getResource(COLLECTION_DISCOVERY_URL));
+			refreshCount.incrementAndGet();
+			logger.debug("Resource type routes refreshed: {} resource types", routes.size());
+		}
+	}
+	
+	/**
+	 * Marks the table as outdated, e.g. because a creation on a routed href failed or the server changed,
+	 * so that the next route triggers a refresh
+	 */
+	public void invalidate() {
+		stale = true;
+	}
+	
+	/**
+	 * Returns the href of the collection the next device of the given resource type should be created in.
+	 * In case the resource type has no route or the table is outdated, a refresh is executed
+	 * (unless another refresh completed while waiting) and the table is checked again
+	 * 
+	 * @param resourceType : the resource type of the device
+	 * @return the href of a collection or {@code null} if no collection accepts the resource type
+	 * @throws Exception in case the refresh failed
+	 */
+	public String route(String resourceType) throws Exception {
+		Route route = stale ? null : routes.get(resourceType);
+		if (route == null) {
+			long observedRefreshCount = refreshCount.get();
+			synchronized (refreshLock) {
+				route = stale ? null : routes.get(resourceType);
+				if (route == null && refreshCount.get() == observedRefreshCount) {
+					refresh();
+				}
+				route = routes.get(resourceType);
+			}
+		}
+		return route == null ? null : route.next();
+	}
+	
+	/**
+	 * @return the hrefs of the collections that accept the given resource type, without refreshing the table
+	 */
+	public List<String> getCandidates(String resourceType) {
+		Route route = routes.get(resourceType);
+		return route == null ? Collections.<String>emptyList() : route.hrefs;
+	}
+	
+	/**
+	 * @return the number of completed refreshes
+	 */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+	
+	/**
+	 * @return the number of routed resource types
+	 */
+	public int size() {
+		return routes.size();
+	}
+	
+	private static class Route {
+		
+		private final List<String> hrefs;
+		private final AtomicInteger next = new AtomicInteger();
+		
+		private Route(List<String> hrefs) {
+			this.hrefs = Collections.unmodifiableList(hrefs);
+		}
+		
+		private String next() {
+			if (hrefs.size() == 1) {
+				return hrefs.get(0);
+			}
+			return hrefs.get(Math.floorMod(next.getAndIncrement(), hrefs.size()));
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package eu.interiot.intermw.bridge.iotivity.scheduler;
+
+import java.util.Random;
+
+/**
+ *
+ * Interval between two checks of the registered devices, adapted to the observed behaviour
+ * The interval is halved after a check that found changes (down to the minimum) and doubled after
+ * a check that found no changes or that took more than half of the interval (up to the maximum).
+ * A random jitter is added to each delay, so that several bridges do not check the same server at the same time
+ *
+ */
+public class AdaptiveInterval {
+
+	private final long minMillis;
+	private final long maxMillis;
+	private final double jitter;
+	private final Random random;
+	private long interval;
+
+	/**
+	 * Constructor
+	 *
+	 * @param initialMillis : the interval used until the first check is completed
+	 * @param minMillis : the minimum interval
+	 * @param maxMillis : the maximum interval
+	 * @param jitter : the maximum deviation of a delay from the interval, as a fraction of the interval (e.g. 0.1)
+	 * @param random : the source of the jitter
+	 */
+	public AdaptiveInterval(long initialMillis, long minMillis, long maxMillis, double jitter, Random random) {
+		if (minMillis <= 0 || minMillis > maxMillis || jitter < 0 || jitter >= 1) {
+			throw new IllegalArgumentException("Invalid interval bounds: " + minMillis + "-" + maxMillis + ", jitter " + jitter);
+		}
+		this.minMillis = minMillis;
+		this.maxMillis = maxMillis;
+		this.jitter = jitter;
+		this.random = random;
+		this.interval = Math.max(minMillis, Math.min(maxMillis, initialMillis));
+	}
+
+	/**
+	 * Adapts the interval to the result of a check
+	 *
+	 * @param changes : the number of changes found by the check
+	 * @param durationMillis : the duration of the check
+	 * @return the adapted interval
+	 */
+	public synchronized long update(int changes, long durationMillis) {
+		if (durationMillis * 2 > interval || changes == 0) {
+			interval = Math.min(maxMillis, interval * 2);
+		}
+		else {
+			interval = Math.max(minMillis, interval / 2);
+		}
+		return interval;
+	}
+
+	/**
+	 * @return the delay until the next check, i.e. the interval with a random jitter
+	 */
+	public synchronized long nextDelay() {
+		double deviation = jitter * (2 * random.nextDouble() - 1);
+		return Math.max(0, Math.round(interval * (1 + deviation)));
+	}
+
+	/**
+	 * @return the current interval (without jitter)
+	 */
+	public synchronized long getInterval() {
+		return interval;
+	}
+}
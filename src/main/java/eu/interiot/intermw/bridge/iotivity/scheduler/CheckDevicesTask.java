@@ -1,6 +1,10 @@
 package eu.interiot.intermw.bridge.iotivity.scheduler;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -9,10 +13,15 @@ import org.apache.jena.rdf.model.Model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 
 import eu.interiot.intermw.bridge.iotivity.IoTivityBridge;
+import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
 import eu.interiot.intermw.bridge.iotivity.client.IoTivityClient;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceFingerprint;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceIndex;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceSnapshotStore;
 import eu.interiot.intermw.comm.broker.Publisher;
 import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
 import eu.interiot.message.Message;
@@ -26,61 +35,256 @@ import eu.interiot.message.metadata.PlatformMessageMetadata;
  * @author stavrotheodoros
  * 
  * Runnable that checks if there is any change in the registered devices of iotivity
+ * Each device is tracked by its fingerprint, so that a device is announced again only when its representation changes
+ * The devices are either polled ({@link #run()}) or the links pushed by the server
+ * are given to {@link #onDeviceLinks(JsonArray)}. The links do not change when only the representation
+ * of a device changes, so in the latter case {@link #check()} is still called periodically, at a low rate
  *
  */
 public class CheckDevicesTask implements Runnable{
 	
 	protected IoTivityClient iotivityClient;
-	protected Map<String, JsonElement> initialDeviceMap;
-	protected Message message;
+	protected DeviceIndex deviceIndex;
+	//id -> fingerprint of the known devices
+	protected Map<String, DeviceFingerprint> initialDeviceMap;
+	protected volatile Message message;
 	protected Publisher<Message> publisher;
 	protected String platformId;
 	protected IotivityTranslator translator = new IotivityTranslator();
+	//the persisted copy of initialDeviceMap (may be null)
+	protected DeviceSnapshotStore snapshotStore;
+	//href -> id of the known devices
+	private final Map<String, String> idsByHref = new HashMap<String, String>();
+	//href -> last pushed link of the known devices
+	private final Map<String, JsonElement> linksByHref = new HashMap<String, JsonElement>();
 	private final Logger logger = LoggerFactory.getLogger(CheckDevicesTask.class);
 
 
 		
-	public CheckDevicesTask(IoTivityClient iotivityClient, Map<String, JsonElement> initialDeviceMap, Message message, Publisher<Message> publisher, String platformId){
+	public CheckDevicesTask(IoTivityClient iotivityClient, DeviceIndex deviceIndex, Map<String, DeviceFingerprint> initialDeviceMap, Message message, Publisher<Message> publisher, String platformId){
 		this.iotivityClient = iotivityClient;
+		this.deviceIndex = deviceIndex;
 		this.initialDeviceMap = initialDeviceMap;
 		this.message = message;
 		this.publisher = publisher;
 		this.platformId = platformId;
+		//the known devices (e.g. loaded from the snapshot) are removed if their link is not pushed
+		for (Entry<String, DeviceFingerprint> x : initialDeviceMap.entrySet()) {
+			if (x.getValue().getHref() != null) {
+				idsByHref.put(x.getValue().getHref(), x.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Sets the store where every change of the known devices is persisted
+	 */
+	public void setSnapshotStore(DeviceSnapshotStore snapshotStore) {
+		this.snapshotStore = snapshotStore;
+	}
+
+	/**
+	 * Sets the message whose conversation the device messages belong to
+	 */
+	public void setMessage(Message message) {
+		this.message = message;
 	}
 
 	@Override
 	public void run() {
 		try {
-			Map<String, JsonElement> map = iotivityClient.listDevices();		
-			for (Entry<String, JsonElement> x : map.entrySet()) {
-				if (!initialDeviceMap.containsKey(x.getKey())) {
-					deviceAdd(x.getKey(), x.getValue(), message);
-					initialDeviceMap.put(x.getKey(), x.getValue());
-				}
+			check();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Retrieves all devices and announces the new, changed and removed ones
+	 * 
+	 * @return the number of announced changes
+	 * @throws Exception in case the devices could not be retrieved
+	 */
+	public int check() throws Exception {
+		return check(false);
+	}
+	
+	/**
+	 * Retrieves all devices and announces the new, changed and removed ones
+	 * 
+	 * @param republish : if true all devices are announced, even if they did not change
+	 * @return the number of announced devices
+	 * @throws Exception in case the devices could not be retrieved
+	 */
+	public synchronized int check(boolean republish) throws Exception {
+		int changes = 0;
+		Map<String, Throwable> failures = new HashMap<String, Throwable>();
+		//the devices are retrieved by href, so that the pushed links can be diffed against the checked devices
+		Map<String, JsonElement> map = iotivityClient.listDevicesByHref(failures);
+		//one pass over the fresh devices for additions and updates, one over the known devices for removals
+		Set<String> deviceIds = new HashSet<String>();
+		for (Entry<String, Throwable> failure : failures.entrySet()) {
+			logger.warn("Device {} could not be retrieved: {}", failure.getKey(), failure.getValue().getMessage());
+			//the link of the device is still there, so the device is kept and checked again the next time
+			String deviceId = idsByHref.get(failure.getKey());
+			if (deviceId != null) {
+				deviceIds.add(deviceId);
+			}
+		}
+		for (Entry<String, JsonElement> x : map.entrySet()) {
+			String deviceId = x.getValue().getAsJsonObject().get("id").getAsString();
+			deviceIds.add(deviceId);
+			if (update(deviceId, x.getValue(), x.getKey(), republish)) {
+				changes++;
+			}
+		}
+		Set<String> deviceIdsForRemoval = new HashSet<String>();
+		for (String deviceId : initialDeviceMap.keySet()) {
+			if (!deviceIds.contains(deviceId)) {
+				deviceIdsForRemoval.add(deviceId);
+			}
+		}
+		for (String deviceId : deviceIdsForRemoval) {
+			if (remove(deviceId)) {
+				changes++;
+			}
+		}
+		return changes;
+	}
+	
+	/**
+	 * Diffs the given links against the known devices. Only the devices of new or changed links are retrieved
+	 * and the devices whose link vanished are removed
+	 * 
+	 * @param links : the links of the devices, as pushed by the server
+	 */
+	public synchronized void onDeviceLinks(JsonArray links) {
+		Set<String> hrefs = new HashSet<String>();
+		List<String> newHrefs = new ArrayList<String>();
+		for (JsonElement link : links) {
+			String href = IoTivityUtils.getHref(link);
+			if (href == null || !hrefs.add(href)) {
+				continue;
+			}
+			JsonElement previous = linksByHref.put(href, link);
+			if (!idsByHref.containsKey(href) || (previous != null && !previous.equals(link))) {
+				newHrefs.add(href);
+			}
+		}
+		linksByHref.keySet().retainAll(hrefs);
+		for (String href : newHrefs) {
+			try {
+				JsonElement device = iotivityClient.getDeviceAsync(href).join();
+				update(device.getAsJsonObject().get("id").getAsString(), device, href, false);
 			}
-			Set<String> deviceIdsForRemoval = new HashSet<String>();
-			for (Entry<String, JsonElement> x : initialDeviceMap.entrySet()) {
-				if (!map.containsKey(x.getKey())) {
-					deviceRemove(x.getKey(), x.getValue(), message);
-					deviceIdsForRemoval.add(x.getKey());
+			catch (Exception e) {
+				//retried with the next notification
+				linksByHref.remove(href);
+				logger.warn("Device {} could not be retrieved: {}", href, e.getMessage());
+			}
+		}
+		Set<String> deviceIdsForRemoval = new HashSet<String>();
+		for (Entry<String, String> x : idsByHref.entrySet()) {
+			if (!hrefs.contains(x.getKey())) {
+				deviceIdsForRemoval.add(x.getValue());
+			}
+		}
+		for (String deviceId : deviceIdsForRemoval) {
+			remove(deviceId);
+		}
+	}
+	
+	/**
+	 * Announces the given device if it is new or its fingerprint changed
+	 * 
+	 * @param republish : if true the device is announced even if it did not change
+	 * @return true if the device was announced
+	 */
+	private boolean update(String deviceId, JsonElement device, String href, boolean republish) {
+		DeviceFingerprint fingerprint = DeviceFingerprint.of(device, href);
+		DeviceFingerprint previous = initialDeviceMap.get(deviceId);
+		if (!republish && previous != null && previous.getFingerprint() == fingerprint.getFingerprint()) {
+			if (fingerprint.getHref() != null) {
+				idsByHref.put(fingerprint.getHref(), deviceId);
+				if (!fingerprint.getHref().equals(previous.getHref())) {
+					//e.g. a fingerprint persisted without href, it is kept up to date for the next warm start
+					if (previous.getHref() != null) {
+						idsByHref.remove(previous.getHref(), deviceId);
+					}
+					initialDeviceMap.put(deviceId, fingerprint);
+					persist(fingerprint);
 				}
 			}
-			for (String deviceId : deviceIdsForRemoval) {
-				initialDeviceMap.remove(deviceId);
+			return false;
+		}
+		try {
+			deviceAdd(deviceId, device, message);
+		}
+		catch (Exception e) {
+			logger.error("Device_Add message for device with id=" + deviceId + " could not be published: " + e.getMessage());
+			return false;
+		}
+		initialDeviceMap.put(deviceId, fingerprint);
+		persist(fingerprint);
+		if (previous != null && previous.getHref() != null) {
+			idsByHref.remove(previous.getHref(), deviceId);
+		}
+		if (fingerprint.getHref() != null) {
+			idsByHref.put(fingerprint.getHref(), deviceId);
+		}
+		if (deviceIndex != null) {
+			deviceIndex.put(device, href);
+		}
+		return true;
+	}
+	
+	private void persist(DeviceFingerprint fingerprint) {
+		if (snapshotStore != null) {
+			try {
+				snapshotStore.put(fingerprint);
+			}
+			catch (IOException e) {
+				logger.warn("Device {} could not be persisted: {}", fingerprint.getId(), e.getMessage());
+			}
+		}
+	}
+	
+	private boolean remove(String deviceId) {
+		DeviceFingerprint fingerprint = initialDeviceMap.remove(deviceId);
+		if (fingerprint == null) {
+			return false;
+		}
+		if (fingerprint.getHref() != null) {
+			idsByHref.remove(fingerprint.getHref(), deviceId);
+		}
+		if (snapshotStore != null) {
+			try {
+				snapshotStore.remove(deviceId);
 			}
+			catch (IOException e) {
+				logger.warn("The removal of device {} could not be persisted: {}", deviceId, e.getMessage());
+			}
+		}
+		if (deviceIndex != null) {
+			deviceIndex.remove(deviceId);
+		}
+		try {
+			deviceRemove(deviceId, fingerprint.toRepresentation(), message);
 		}
 		catch (Exception e) {
-			e.printStackTrace();
+			logger.error("Device_remove message for device with id=" + deviceId + " could not be published: " + e.getMessage());
 		}
+		return true;
 	}
 	
-	private Message deviceAdd(String deviceId, JsonElement deviceRepresentation, Message message) throws Exception {
+	protected Message deviceAdd(String deviceId, JsonElement deviceRepresentation, Message message) throws Exception {
 		sendDeviceMessage(deviceId, deviceRepresentation, message, URIManagerMessageMetadata.MessageTypesEnum.DEVICE_ADD_OR_UPDATE);
 	    logger.debug("Device_Add message for device with id="+deviceId+" has been published upstream.");
 	    return message;
 	}
 	
-	private Message deviceRemove(String deviceId, JsonElement deviceRepresentation, Message message) throws Exception {
+	protected Message deviceRemove(String deviceId, JsonElement deviceRepresentation, Message message) throws Exception {
 		sendDeviceMessage(deviceId, deviceRepresentation, message, URIManagerMessageMetadata.MessageTypesEnum.DEVICE_REMOVE);
 	    logger.debug("Device_remove message for device with id="+deviceId+" has been published upstream.");
 	    return message;
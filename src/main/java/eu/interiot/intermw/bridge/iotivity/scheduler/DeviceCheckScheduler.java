@@ -1,13 +1,26 @@
 package eu.interiot.intermw.bridge.iotivity.scheduler;
 
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.gson.JsonElement;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonArray;
+
+import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
 import eu.interiot.intermw.bridge.iotivity.client.IoTivityClient;
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceFingerprint;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceIndex;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceSnapshotStore;
 import eu.interiot.intermw.comm.broker.Publisher;
 import eu.interiot.message.Message;
 
@@ -15,8 +28,14 @@ import eu.interiot.message.Message;
  * 
  * @author stavrotheodoros
  *
- * This scheduler uses a fix number of threads to periodically check if there are any changes in the registered devices
- * (new addition or removal)
+ * This scheduler tracks the changes in the registered devices (new addition or removal)
+ * The links of the devices (/oic/res) are observed, so that the server pushes every change and only the
+ * new devices are retrieved, while all devices are still checked at a low rate (every 10 minutes)
+ * to detect the devices whose representation changed. In case the server does not support the observation of /oic/res
+ * (or the observation fails) the devices are checked periodically by a fix number of threads
+ * The interval between two checks is adapted (see {@link AdaptiveInterval}): it is shortened while the devices
+ * change and it is increased while they are stable or the server is slow. The next check is scheduled when the
+ * previous one is completed, so two checks never overlap
  * 
  */
 public class DeviceCheckScheduler {
@@ -24,27 +43,368 @@ public class DeviceCheckScheduler {
 	//number of threads used by this scheduler
 	private static final int NUM_OF_THREADS = 1;
 	
-	//the time between each execution
+	//the initial time between each execution
 	private static final int SECONDS_INTERVAL = 60;
+	//the bounds of the adapted time between each execution
+	private static final int MIN_SECONDS_INTERVAL = 15;
+	private static final int MAX_SECONDS_INTERVAL = 600;
+	//the time between two checks while the changes are pushed by the server
+	private static final int RECONCILIATION_SECONDS_INTERVAL = MAX_SECONDS_INTERVAL;
+	//the maximum deviation of the time between each execution
+	private static final double JITTER = 0.1;
 		
 	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(NUM_OF_THREADS);
+	private final Logger logger = LoggerFactory.getLogger(DeviceCheckScheduler.class);
+	private final AdaptiveInterval interval = new AdaptiveInterval(TimeUnit.SECONDS.toMillis(SECONDS_INTERVAL),
+			TimeUnit.SECONDS.toMillis(MIN_SECONDS_INTERVAL), TimeUnit.SECONDS.toMillis(MAX_SECONDS_INTERVAL), JITTER, new Random());
+	private final AtomicLong pollCount = new AtomicLong();
+	private final AtomicLong changeCount = new AtomicLong();
+	private volatile long lastPollDuration;
+	private volatile int lastChangeCount;
+	private CheckDevicesTask task;
+	private ScheduledFuture<?> polling;
+	private ScheduledFuture<?> reconciliation;
+	private long reconciliationInterval = TimeUnit.SECONDS.toMillis(RECONCILIATION_SECONDS_INTERVAL);
+	private volatile boolean stopped;
 	
 	protected IoTivityClient iotivityClient;
-	protected Map<String, JsonElement> initialDeviceMap;
+	protected DeviceIndex deviceIndex;
+	protected Map<String, DeviceFingerprint> initialDeviceMap;
+	protected DeviceSnapshotStore snapshotStore;
 	protected Message message;
 	protected Publisher<Message> publisher;
 	protected String platformId;
 	
-	public DeviceCheckScheduler(IoTivityClient iotivityClient, Map<String, JsonElement> initialDeviceMap, Message message, Publisher<Message> publisher, String platformId){
+	/**
+	 * Constructor. The devices are tracked after {@link #start(Message)} is called
+	 * 
+	 * @param initialDeviceMap : the fingerprints of the already known devices (id -> fingerprint), it is updated with every change
+	 */
+	public DeviceCheckScheduler(IoTivityClient iotivityClient, DeviceIndex deviceIndex, Map<String, DeviceFingerprint> initialDeviceMap, Publisher<Message> publisher, String platformId){
+		this(iotivityClient, deviceIndex, initialDeviceMap, null, publisher, platformId);
+	}
+	
+	/**
+	 * Constructor. The devices are tracked after {@link #start(Message)} is called
+	 * 
+	 * @param initialDeviceMap : the fingerprints of the already known devices (id -> fingerprint), it is updated with every change
+	 * @param snapshotStore : the store where every change of the known devices is persisted (may be null)
+	 */
+	public DeviceCheckScheduler(IoTivityClient iotivityClient, DeviceIndex deviceIndex, Map<String, DeviceFingerprint> initialDeviceMap, DeviceSnapshotStore snapshotStore, Publisher<Message> publisher, String platformId){
 		this.iotivityClient = iotivityClient;
+		this.deviceIndex = deviceIndex;
 		this.initialDeviceMap = initialDeviceMap;
-		this.message = message;
+		this.snapshotStore = snapshotStore;
 		this.publisher = publisher;
 		this.platformId = platformId;
 	}
 	
-	public void check() {
-	       final Runnable retreive = new CheckDevicesTask(iotivityClient, initialDeviceMap, message, publisher, platformId);
-	       scheduler.scheduleAtFixedRate(retreive, 0 , SECONDS_INTERVAL, TimeUnit.SECONDS);
-	};	
+	/**
+	 * Starts tracking the devices. If the devices are already tracked, they are resynchronized instead
+	 * (see {@link #resync(Message)})
+	 * 
+	 * @param message : the message (e.g. LIST_DEVICES) whose conversation the device messages belong to
+	 */
+	public synchronized void start(Message message) {
+		if (stopped) {
+			throw new IllegalStateException("The device tracking of platform " + platformId + " has been stopped");
+		}
+		if (task != null) {
+			resync(message);
+			return;
+		}
+		this.message = message;
+		task = createTask();
+		task.setSnapshotStore(snapshotStore);
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				startTracking();
+			}
+		});
+	}
+	
+	/**
+	 * Checks all devices immediately and announces every device again (not only the changed ones),
+	 * e.g. after the registry of the middleware has been initialized again
+	 * 
+	 * @param message : the message whose conversation the device messages belong to
+	 */
+	public synchronized void resync(Message message) {
+		if (task == null) {
+			start(message);
+			return;
+		}
+		this.message = message;
+		task.setMessage(message);
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					int changes = task.check(true);
+					logger.debug("Resynchronization of platform {} announced {} devices", platformId, changes);
+				}
+				catch (Exception e) {
+					logger.warn("The devices of platform " + platformId + " could not be resynchronized: " + e.getMessage());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Stops tracking the devices. The scheduler can not be started again
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (polling != null) {
+			polling.cancel(false);
+		}
+		if (reconciliation != null) {
+			reconciliation.cancel(false);
+		}
+		if (task != null && !isPolling()) {
+			iotivityClient.stopObservingDeviceLinks();
+		}
+		scheduler.shutdownNow();
+		logger.debug("Device tracking of platform {} has been stopped", platformId);
+	}
+	
+	/**
+	 * @return true if the devices are tracked
+	 */
+	public synchronized boolean isStarted() {
+		return task != null && !stopped;
+	}
+	
+	/**
+	 * @return the message whose conversation the device messages belong to or {@code null} if not started
+	 */
+	public synchronized Message getMessage() {
+		return message;
+	}
+	
+	/**
+	 * @return the store where the known devices are persisted or {@code null}
+	 */
+	public DeviceSnapshotStore getSnapshotStore() {
+		return snapshotStore;
+	}
+	
+	/**
+	 * @return the fingerprints of the known devices (id -> fingerprint)
+	 */
+	public Map<String, DeviceFingerprint> getDeviceMap() {
+		return initialDeviceMap;
+	}
+	
+	/**
+	 * Sets the time between two checks of all devices while the changes are pushed by the server.
+	 * It must be called before {@link #start(Message)}
+	 * 
+	 * @param reconciliationInterval : a positive interval in milliseconds
+	 */
+	public synchronized void setReconciliationInterval(long reconciliationInterval) {
+		if (reconciliationInterval <= 0) {
+			throw new IllegalArgumentException("The reconciliation interval must be positive: " + reconciliationInterval);
+		}
+		this.reconciliationInterval = reconciliationInterval;
+	}
+	
+	protected CheckDevicesTask createTask() {
+		return new CheckDevicesTask(iotivityClient, deviceIndex, initialDeviceMap, message, publisher, platformId);
+	}
+
+	
+	private void execute(Runnable runnable) {
+		if (!stopped) {
+			scheduler.execute(runnable);
+		}
+	}
+	
+	/**
+	 * @return true if the devices are checked periodically, false if the changes are pushed by the server
+	 */
+	public synchronized boolean isPolling() {
+		return polling != null;
+	}
+	
+	/**
+	 * Observes the links of the devices and falls back to polling if the observation is not supported
+	 */
+	private void startTracking() {
+		try {
+			if (iotivityClient.observeDeviceLinks(new DeviceLinksHandler())) {
+				logger.info("Tracking the devices of platform " + platformId + " through the observation of /oic/res");
+				checkBeforePush();
+				startReconciliation();
+				return;
+			}
+			logger.info("The server does not support the observation of /oic/res, the devices are checked periodically");
+		}
+		catch (Exception e) {
+			logger.warn("The observation of /oic/res failed, the devices are checked periodically: " + e.getMessage());
+		}
+		startPolling();
+	}
+	
+	/**
+	 * Checks all devices once, before the pushed links are diffed (they are handled by this thread afterwards),
+	 * so that the known devices that changed or vanished while the bridge was down are announced.
+	 * The pushed links only reveal new and vanished hrefs
+	 */
+	private void checkBeforePush() {
+		try {
+			int changes = task.check();
+			logger.debug("Initial check of platform {} found {} changes", platformId, changes);
+		}
+		catch (Exception e) {
+			logger.warn("The devices of platform " + platformId + " could not be checked, they are diffed against the pushed links: " + e.getMessage());
+		}
+	}
+	
+	private synchronized void startPolling() {
+		if (reconciliation != null) {
+			reconciliation.cancel(false);
+			reconciliation = null;
+		}
+		if (polling == null) {
+			schedulePoll(0);
+		}
+	}
+	
+	/**
+	 * Checks all devices at a fixed low rate, while the links are pushed by the server
+	 */
+	private synchronized void startReconciliation() {
+		if (stopped || polling != null) {
+			return;
+		}
+		reconciliation = scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					int changes = task.check();
+					logger.debug("Reconciliation of platform {} found {} changes", platformId, changes);
+				}
+				catch (Exception e) {
+					logger.warn("The devices of platform " + platformId + " could not be reconciled: " + e.getMessage());
+				}
+			}
+		}, reconciliationInterval, reconciliationInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	private synchronized void schedulePoll(long delay) {
+		if (stopped) {
+			return;
+		}
+		polling = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Checks the devices once, adapts the interval and schedules the next check
+	 */
+	private void poll() {
+		long start = System.nanoTime();
+		int changes = 0;
+		try {
+			changes = task.check();
+		}
+		catch (Exception e) {
+			logger.warn("The devices of platform " + platformId + " could not be checked: " + e.getMessage());
+		}
+		long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		pollCount.incrementAndGet();
+		changeCount.addAndGet(changes);
+		lastChangeCount = changes;
+		lastPollDuration = duration;
+		interval.update(changes, duration);
+		long next = interval.nextDelay();
+		logger.debug("Device check of platform {} found {} changes in {} ms, next check in {} ms", platformId, changes, duration, next);
+		schedulePoll(next);
+	}
+	
+	/**
+	 * @return the number of completed periodic checks
+	 */
+	public long getPollCount() {
+		return pollCount.get();
+	}
+	
+	/**
+	 * @return the duration (in milliseconds) of the last periodic check
+	 */
+	public long getLastPollDuration() {
+		return lastPollDuration;
+	}
+	
+	/**
+	 * @return the number of changes found by the last periodic check
+	 */
+	public int getLastChangeCount() {
+		return lastChangeCount;
+	}
+	
+	/**
+	 * @return the number of changes found by all periodic checks
+	 */
+	public long getChangeCount() {
+		return changeCount.get();
+	}
+	
+	/**
+	 * @return the current time (in milliseconds) between two periodic checks, without jitter
+	 */
+	public long getEffectiveInterval() {
+		return interval.getInterval();
+	}
+	
+	/**
+	 * 
+	 * Handler of the notifications of /oic/res. The links are diffed by the thread of the scheduler,
+	 * so that the threads of the COAP endpoint are not blocked while the new devices are retrieved
+	 *
+	 */
+	private class DeviceLinksHandler implements CoapHandler {
+		
+		@Override
+		public void onLoad(CoapResponse response) {
+			if (!response.isSuccess()) {
+				logger.warn("Notification of /oic/res with code " + response.getCode());
+				return;
+			}
+			if (!response.getOptions().hasObserve()) {
+				//the server does not support the observation, the devices are polled instead
+				return;
+			}
+			final JsonArray links;
+			try {
+				links = IoTivityUtils.getDeviceList(EncodingUtils.coapResponseToJson(response.getPayload()));
+			}
+			catch (Exception e) {
+				logger.warn("Invalid notification of /oic/res: " + e.getMessage());
+				return;
+			}
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					task.onDeviceLinks(links);
+				}
+			});
+		}
+
+		@Override
+		public void onError() {
+			if (stopped) {
+				return;
+			}
+			logger.warn("The observation of /oic/res failed, the devices are checked periodically");
+			iotivityClient.stopObservingDeviceLinks();
+			startPolling();
+		}
+	}
 }
@@ -2,21 +2,18 @@ package eu.interiot.intermw.ontology;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.OntModel;
-import org.apache.jena.ontology.OntProperty;
-import org.apache.jena.ontology.OntResource;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
-import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.rdf.model.StmtIterator;
-import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.rdf.model.ResourceFactory;
 
-import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
 import eu.interiot.intermw.ontology.entities.Device;
 import eu.interiot.intermw.ontology.entities.Resource;
 /**
@@ -28,20 +25,26 @@ import eu.interiot.intermw.ontology.entities.Resource;
  */
 public class OntologyHandler {
 	
-	private OntModel model;
+	//the full model is loaded only when it is needed (see getModel)
+	private volatile OntModel model;
 	//private static final String ONTOLOGY_FILENAME = "./src/main/resources/ontology/iotivity data model.owl";
-	private static final String ONTOLOGY_FILENAME = "/ontology/iotivity_data_model.owl";
+	static final String ONTOLOGY_FILENAME = "/ontology/iotivity_data_model.owl";
+	//precompiled lookup tables of the ontology (see OntologySnapshot)
+	static final String SNAPSHOT_FILENAME = "/ontology/iotivity_data_model.snapshot";
 	public static final String IOTIVITY_PREFIX = "http://inter-iot.eu/syntax/Iotivity.owl#";
 	public static final String RESOURCE_TYPE = "rt";
 	private static OntologyHandler instance = new OntologyHandler();
 	
-	private Set<String> deviceResourceTypes = new HashSet<String>();
+	//lookup tables compiled from the model, used by all public lookups
+	private volatile OntologyIndex index = OntologyIndex.EMPTY;
 
 	
 	private OntologyHandler() {
 		try {
-			loadOntology();
-			initializeStructures();
+			if (!loadSnapshot()) {
+				loadOntology();
+				initializeStructures();
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -61,46 +64,61 @@ public class OntologyHandler {
 //		File file = new File(classLoader.getResource(ONTOLOGY_FILENAME).getFile());
 		//File file = new File(ONTOLOGY_FILENAME);
 		//readOntologyModel(file);
-		model = ModelFactory.createOntologyModel();
+		OntModel ontModel = ModelFactory.createOntologyModel();
 		InputStream in = getClass().getResourceAsStream(ONTOLOGY_FILENAME);
 		System.out.println(in);
-		model = (OntModel) model.read(in, null, "RDF/XML");
-	}
-	
-	private void initializeStructures() {
-		getAllDeviceResourceTypes();
+		model = (OntModel) ontModel.read(in, null, "RDF/XML");
 	}
 	
-	private void getAllDeviceResourceTypes(){
+	/**
+	 * Loads the lookup tables from the snapshot of the ontology, without loading the ontology model
+	 * @return false in case there is no snapshot or it does not match the ontology file
+	 */
+	private boolean loadSnapshot() {
+		InputStream in = getClass().getResourceAsStream(SNAPSHOT_FILENAME);
+		if (in == null) {
+			return false;
+		}
 		try {
-			Set<OntClass> allDevices = getAllDevices();
-			for (OntClass cl : allDevices) {
-				deviceResourceTypes.addAll(getResourceTypes(cl));
+			String owlHash = OntologySnapshot.hash(OntologySnapshot.readResource(ONTOLOGY_FILENAME));
+			index = OntologySnapshot.read(in, owlHash);
+			return true;
+		} catch (IOException e) {
+			System.out.println("The ontology snapshot is not used: " + e.getMessage());
+			return false;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
 	}
 	
-	public Set<String> getAllDeviceUris() throws Exception{
-		Set<String> set = new HashSet<String>();
-		Set<OntClass> allDevices = getAllDevices();
-		for (OntClass cl : allDevices) {
-			set.add(cl.getURI());
-		}
-		set.add(IoTivityUtils.AiotesEntityTypeDevice);
-		return set;
+	private void initializeStructures() {
+		index = OntologyIndex.build(model);
 	}
 	
-	private Set<OntClass> getAllDevices() throws Exception{
-		Set<OntClass> set = new HashSet<OntClass>();
-		OntClass d = findByResourceType("oic.wk.d");
-		set.add(d);
-		ExtendedIterator<OntClass> it = d.listSubClasses();
-		while (it.hasNext()) {
-			set.add(it.next());
+	/**
+	 * Returns the ontology model. It is loaded on the first call in case the lookup tables were loaded from the snapshot
+	 */
+	public OntModel getModel() throws Exception {
+		OntModel ontModel = model;
+		if (ontModel == null) {
+			synchronized (this) {
+				if (model == null) {
+					loadOntology();
+				}
+				ontModel = model;
+			}
 		}
-		return set;
+		return ontModel;
+	}
+	
+	/**
+	 * @return the uris of all device classes (the returned set is unmodifiable)
+	 */
+	public Set<String> getAllDeviceUris() throws Exception{
+		return index.getDeviceUris();
 	}
 	
 	/**
@@ -123,211 +141,129 @@ public class OntologyHandler {
 	}
 	
 	/**
-	 * Parses all ontology classes and finds the one with the given resource type
+	 * Finds the ontology class with the given resource type
 	 * @throws Exception in case no class was found
 	 */
 	public OntClass findByResourceType(String rt) throws Exception {
-		ExtendedIterator<OntClass> it = model.listClasses();
-		while (it.hasNext()) {
-			OntClass cl = it.next();
-			Set<String> resourceType = getResourceTypes(cl);
-			if (resourceType != null && resourceType.contains(rt)) {
-					return cl;
-			}
-		}
-		throw new Exception("No class was found with rt=" + rt);
+		return getModel().getOntClass(findClassUriByResourceType(rt));
 	}
 	
 	/**
-	 * Parses all ontology classes and finds the one with the given resource type
+	 * Finds the ontology class with the given resource types
 	 * @throws Exception in case no class was found
 	 */
 	public OntClass findByResourceTypes(Set<String> resourceTypes) throws Exception {
-		if (resourceTypes.size() > 1) {
-			resourceTypes.remove("oic.wk.d");
+		return getModel().getOntClass(findClassUriByResourceTypes(resourceTypes));
+	}
+	
+	private String findClassUriByResourceType(String rt) throws Exception {
+		String uri = index.getClassUri(rt);
+		if (uri == null) {
+			throw new Exception("No class was found with rt=" + rt);
 		}
-		return findByResourceType(resourceTypes.iterator().next());		
+		return uri;
+	}
+	
+	private String findClassUriByResourceTypes(Set<String> resourceTypes) throws Exception {
+		Set<String> clone = new HashSet<String>(resourceTypes);
+		if (clone.size() > 1) {
+			clone.remove(OntologyIndex.DEVICE_RESOURCE_TYPE);
+		}
+		if (clone.isEmpty()) {
+			throw new Exception("No class was found with rt=" + resourceTypes);
+		}
+		return findClassUriByResourceType(clone.iterator().next());
 	}
 	
 	public Device findDeviceByResourceType(String rt) throws Exception {
-		return ontClassToDevice(findByResourceType(rt));
+		return createDevice(findClassUriByResourceType(rt));
 	}
 	
 	public Device findDeviceByResourceTypes(Set<String> rt) throws Exception {
-		return ontClassToDevice(findByResourceTypes(rt));
+		return createDevice(findClassUriByResourceTypes(rt));
 	}
 	
 	public Resource findResourceByResourceType(String rt) throws Exception {
-		return ontClassToResource(findByResourceType(rt));
+		return createResource(findClassUriByResourceType(rt));
 	}
 	
 	public Resource findResourceByResourceTypes(Set<String> rt) throws Exception {
-		return ontClassToResource(findByResourceTypes(rt));
+		return createResource(findClassUriByResourceTypes(rt));
 	}
 	
 	/**
 	 * Creates from the given ontology class the equivalent Device instance
-	 * @throws Exception in case the resource type is wrong
 	 */
-	private Device ontClassToDevice(OntClass cl) throws Exception {
-		Device d = new Device(cl.getURI());
-		d.setResourceType(getResourceTypes(cl));
+	private Device createDevice(String classUri) {
+		Device d = new Device(classUri);
+		d.setResourceType(new HashSet<String>(index.getResourceTypes(classUri)));
 		return d;
 	}
 	
 	/**
 	 * Creates from the given ontology class the equivalent Resource instance
-	 * @throws Exception in case the resource type is wrong
 	 */
-	private Resource ontClassToResource(OntClass cl) throws Exception {
-		Resource r = new Resource(cl.getURI());
-		r.setResourceType(getResourceTypes(cl));
-		r.setComment(getComment(cl));
-		r.setInterfaces(getInterfaces(cl));
+	private Resource createResource(String classUri) {
+		Resource r = new Resource(classUri);
+		r.setResourceType(new HashSet<String>(index.getResourceTypes(classUri)));
+		r.setComment(index.getComment(classUri));
+		r.setInterfaces(new HashSet<String>(index.getInterfaces(classUri)));
 		return r;
 	}
 	
 	/**
-	 * Finds and returns the property value of the comment property
-	 * (http://www.w3.org/2000/01/rdf-schema#comment)
-	 */
-	private String getComment(OntClass cl) {
-		return getStringDataPropertyOfClass(cl, "http://www.w3.org/2000/01/rdf-schema#comment");
-	}
-	
-	/**
-	 * Finds and returns the property value of the resource type property
-	 * (http://inter-iot.eu/syntax/Iotivity.owl#rt)
-	 */
-	private Set<String> getResourceTypes(OntClass cl) {
-		Set<String> resourceTypes = new HashSet<String>();
-		StmtIterator it = cl.listProperties();
-		while (it.hasNext()) {
-			Statement st = it.next();
-			Property p = st.getPredicate();
-			if (p.getURI().equals( IOTIVITY_PREFIX + RESOURCE_TYPE)) {
-				resourceTypes.add(st.getObject().asLiteral().getString());
-			}
-		}
-		return resourceTypes;
-	}
-	
-	/**
-	 * Finds and returns all the property values of the interface property
-	 * (http://inter-iot.eu/syntax/Iotivity.owl#if)
-	 */
-	private Set<String> getInterfaces(OntClass cl){
-		Set<String> interfaces = new HashSet<String>();
-		StmtIterator it = cl.listProperties();
-		while (it.hasNext()) {
-			Statement st = it.next();
-			Property p = st.getPredicate();
-			if (p.getURI().equals( IOTIVITY_PREFIX + "if")) {
-				interfaces.add(st.getObject().asLiteral().getString());
-			}
-		}
-		return interfaces;
-	}
-	
-	/**
-	 * Method that parses the given ontology class, and find the value of the given property
-	 * @param cl : the ontology class
-	 * @param propertyName : the name of the property (full name)
-	 * @return
-	 */
-	private String getStringDataPropertyOfClass(OntClass cl, String propertyName) {
-		Statement st = cl.getProperty(model.getProperty(propertyName));
-		if (st != null) {
-			return st.getObject().asLiteral().getString();
-		}
-		return null;
-	}
-	
-	/**
-	 * Method that lists all properties and finds those with the given label
-	 * Then it checks the domain of the found properties
-	 * If the given resource belongs to the domain then the property is returned
+	 * Finds the property with the given label that has the given resource (or one of its superclasses) in its domain
 	 * @param resourceUri : the uri of a device or resource
 	 * @param propertyLabel : the label of a property
 	 * @return the uri of the property with the given label that has in its domain the given resource
-	 * @throws Exception
+	 * @throws Exception in case there is no such property
 	 */
 	public String findPropertyOfResourceByLabel(String resourceUri, String propertyLabel) throws Exception {
-		OntClass resource = model.getOntClass(resourceUri);
-		ExtendedIterator<OntProperty> it = model.listAllOntProperties();
-		while (it.hasNext()) {
-			OntProperty p = it.next();
-			try {
-				String label = findLabelOfProperty(p);
-				if (label.equals(propertyLabel)) {
-					ExtendedIterator<? extends OntResource> d = p.listDomain();
-					while (d.hasNext()) {
-						OntResource r = d.next();
-						if (r.getURI().equals(resourceUri) || isSubclass(resource, r.getURI())) {
-							return p.getURI();
-						}
-					}
-				}
-			}
-			catch (Exception e) {
-				
-			}
-		}
-		throw new Exception("The resource "+resourceUri+" has not a property with label="+propertyLabel);
-	}
-	
-	private boolean isSubclass(OntClass child, String parentUri) {
-		ExtendedIterator<OntClass> it = child.listSuperClasses();
-		while (it.hasNext()) {
-			OntClass superClass = it.next();
-			if (superClass.getURI().equals(parentUri)) {
-				return true;
-			}
+		String propertyUri = index.getPropertyUri(resourceUri, propertyLabel);
+		if (propertyUri == null) {
+			throw new Exception("The resource "+resourceUri+" has not a property with label="+propertyLabel);
 		}
-		return false;
+		return propertyUri;
 	}
 	
 	/**
 	 * Method that finds and returns the label of the given property
 	 * @param property
 	 * @return
-	 * @throws Exception
+	 * @throws Exception in case the property has no label
 	 */
 	public String findLabelOfProperty(Property property) throws Exception {
-		StmtIterator it = property.listProperties();
-		while (it.hasNext()) {
-			Statement st = it.next();
-			Property p = st.getPredicate();
-			if (p.getURI().equals("http://www.w3.org/2000/01/rdf-schema#label")) {
-				return st.getObject().asLiteral().getString();
-			}
+		String label = index.getLabel(property.getURI());
+		if (label == null) {
+			throw new Exception("The given property ("+property.getURI()+") has not a label");
 		}
-		throw new Exception("The given property ("+property.getURI()+") has not a label");
+		return label;
 	}
 	
+	/**
+	 * @return the label of the given property or its local name if it has no label
+	 */
 	public String findLabelOfProperty(String propertyUri) {
-		Property p = model.getProperty(propertyUri);
-		try {
-			return findLabelOfProperty(p);
+		String label = index.getLabel(propertyUri);
+		if (label != null) {
+			return label;
 		}
-		catch (Exception e) {};
-		return p.getLocalName();
+		return ResourceFactory.createProperty(propertyUri).getLocalName();
 	}
 	
+	/**
+	 * @return the resource types of the given class (unmodifiable) or null if there is no such class
+	 */
 	public Set<String> findResourceType(String typeUri){
-		OntClass cl = model.getOntClass(typeUri);
-		if (cl == null) return null;
-		return getResourceTypes(cl);
+		return index.getResourceTypes(typeUri);
 	}
 	
 	public boolean isDevice(String resourceType) {
-		return deviceResourceTypes.contains(resourceType);
+		return index.getDeviceResourceTypes().contains(resourceType);
 	}
 	
 	public boolean isDevice(Set<String> resourceTypes) {
-		Set<String> clone = new HashSet<String>(resourceTypes);
-		clone.retainAll(deviceResourceTypes);
-		return clone.size() > 0;
+		return !Collections.disjoint(resourceTypes, index.getDeviceResourceTypes());
 	}
 	
 }
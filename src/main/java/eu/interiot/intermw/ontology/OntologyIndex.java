@@ -0,0 +1,267 @@
+package eu.interiot.intermw.ontology;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntProperty;
+import org.apache.jena.ontology.OntResource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDFS;
+
+import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
+
+/**
+ *
+ * Immutable lookup tables compiled from the IoTivity ontology
+ * The tables are built once, when the ontology is loaded, so that the lookups of the translator
+ * do not iterate over the classes and properties of the ontology model.
+ * All tables are unmodifiable, hence an instance can be used concurrently without locking
+ *
+ */
+public class OntologyIndex {
+
+	public static final String DEVICE_RESOURCE_TYPE = "oic.wk.d";
+	//index used until the ontology is loaded
+	public static final OntologyIndex EMPTY = new OntologyIndex(Collections.<String, String>emptyMap(),
+			Collections.<String, Set<String>>emptyMap(), Collections.<String, Set<String>>emptyMap(), Collections.<String, String>emptyMap(),
+			Collections.<String, Map<String, String>>emptyMap(), Collections.<String, String>emptyMap(),
+			Collections.<String>emptySet(), Collections.<String>emptySet());
+
+	//resource type -> uri of the first class with this resource type
+	private final Map<String, String> classUriByResourceType;
+	//class uri -> resource types of the class
+	private final Map<String, Set<String>> resourceTypesByClassUri;
+	//class uri -> interfaces of the class
+	private final Map<String, Set<String>> interfacesByClassUri;
+	//class uri -> comment of the class
+	private final Map<String, String> commentByClassUri;
+	//class uri -> (property label -> property uri), for the properties that have the class (or a superclass) in their domain
+	private final Map<String, Map<String, String>> propertyUriByClassAndLabel;
+	//property uri -> label of the property
+	private final Map<String, String> labelByPropertyUri;
+	private final Set<String> deviceUris;
+	private final Set<String> deviceResourceTypes;
+
+	public OntologyIndex(Map<String, String> classUriByResourceType, Map<String, Set<String>> resourceTypesByClassUri,
+			Map<String, Set<String>> interfacesByClassUri, Map<String, String> commentByClassUri,
+			Map<String, Map<String, String>> propertyUriByClassAndLabel, Map<String, String> labelByPropertyUri,
+			Set<String> deviceUris, Set<String> deviceResourceTypes) {
+		this.classUriByResourceType = Collections.unmodifiableMap(new HashMap<String, String>(classUriByResourceType));
+		this.resourceTypesByClassUri = unmodifiableSetMap(resourceTypesByClassUri);
+		this.interfacesByClassUri = unmodifiableSetMap(interfacesByClassUri);
+		this.commentByClassUri = Collections.unmodifiableMap(new HashMap<String, String>(commentByClassUri));
+		Map<String, Map<String, String>> properties = new HashMap<String, Map<String, String>>();
+		for (Entry<String, Map<String, String>> entry : propertyUriByClassAndLabel.entrySet()) {
+			properties.put(entry.getKey(), Collections.unmodifiableMap(new HashMap<String, String>(entry.getValue())));
+		}
+		this.propertyUriByClassAndLabel = Collections.unmodifiableMap(properties);
+		this.labelByPropertyUri = Collections.unmodifiableMap(new HashMap<String, String>(labelByPropertyUri));
+		this.deviceUris = Collections.unmodifiableSet(new HashSet<String>(deviceUris));
+		this.deviceResourceTypes = Collections.unmodifiableSet(new HashSet<String>(deviceResourceTypes));
+	}
+
+	/**
+	 * Compiles the lookup tables of the given ontology model
+	 * The tables give the same results as the iteration over the model, e.g. a resource type is mapped to
+	 * the first class (in the order of the model) that has it
+	 *
+	 * @param model : the ontology model
+	 * @return the index of the model
+	 */
+	public static OntologyIndex build(OntModel model) {
+		Map<String, String> classUriByResourceType = new HashMap<String, String>();
+		Map<String, Set<String>> resourceTypesByClassUri = new HashMap<String, Set<String>>();
+		Map<String, Set<String>> interfacesByClassUri = new HashMap<String, Set<String>>();
+		Map<String, String> commentByClassUri = new HashMap<String, String>();
+		ExtendedIterator<OntClass> classes = model.listClasses();
+		while (classes.hasNext()) {
+			OntClass cl = classes.next();
+			if (cl.getURI() == null || resourceTypesByClassUri.containsKey(cl.getURI())) {
+				continue;
+			}
+			Set<String> resourceTypes = new LinkedHashSet<String>();
+			Set<String> interfaces = new LinkedHashSet<String>();
+			StmtIterator it = cl.listProperties();
+			while (it.hasNext()) {
+				Statement st = it.next();
+				String predicate = st.getPredicate().getURI();
+				if (predicate.equals(OntologyHandler.IOTIVITY_PREFIX + OntologyHandler.RESOURCE_TYPE)) {
+					resourceTypes.add(st.getObject().asLiteral().getString());
+				}
+				else if (predicate.equals(OntologyHandler.IOTIVITY_PREFIX + "if")) {
+					interfaces.add(st.getObject().asLiteral().getString());
+				}
+			}
+			Statement comment = cl.getProperty(RDFS.comment);
+			if (comment != null) {
+				commentByClassUri.put(cl.getURI(), comment.getObject().asLiteral().getString());
+			}
+			resourceTypesByClassUri.put(cl.getURI(), resourceTypes);
+			interfacesByClassUri.put(cl.getURI(), interfaces);
+			for (String rt : resourceTypes) {
+				classUriByResourceType.putIfAbsent(rt, cl.getURI());
+			}
+		}
+
+		Map<String, String> labelByPropertyUri = new HashMap<String, String>();
+		StmtIterator labels = model.listStatements(null, RDFS.label, (String) null);
+		while (labels.hasNext()) {
+			Statement st = labels.next();
+			if (st.getSubject().isURIResource() && st.getObject().isLiteral()) {
+				labelByPropertyUri.putIfAbsent(st.getSubject().getURI(), st.getObject().asLiteral().getString());
+			}
+		}
+
+		Map<String, Map<String, String>> propertyUriByClassAndLabel = new HashMap<String, Map<String, String>>();
+		ExtendedIterator<OntProperty> properties = model.listAllOntProperties();
+		while (properties.hasNext()) {
+			OntProperty p = properties.next();
+			String label = p.getURI() == null ? null : labelByPropertyUri.get(p.getURI());
+			if (label == null) {
+				continue;
+			}
+			ExtendedIterator<? extends OntResource> domains = p.listDomain();
+			while (domains.hasNext()) {
+				OntResource domain = domains.next();
+				if (domain.getURI() == null) {
+					continue;
+				}
+				addProperty(propertyUriByClassAndLabel, domain.getURI(), label, p.getURI());
+				if (domain.isClass()) {
+					ExtendedIterator<OntClass> subClasses = domain.asClass().listSubClasses();
+					while (subClasses.hasNext()) {
+						OntClass subClass = subClasses.next();
+						if (subClass.getURI() != null) {
+							addProperty(propertyUriByClassAndLabel, subClass.getURI(), label, p.getURI());
+						}
+					}
+				}
+			}
+		}
+
+		Set<String> deviceUris = new HashSet<String>();
+		Set<String> deviceResourceTypes = new HashSet<String>();
+		String deviceClassUri = classUriByResourceType.get(DEVICE_RESOURCE_TYPE);
+		if (deviceClassUri != null) {
+			deviceUris.add(deviceClassUri);
+			ExtendedIterator<OntClass> subClasses = model.getOntClass(deviceClassUri).listSubClasses();
+			while (subClasses.hasNext()) {
+				OntClass subClass = subClasses.next();
+				if (subClass.getURI() != null) {
+					deviceUris.add(subClass.getURI());
+				}
+			}
+			for (String uri : deviceUris) {
+				Set<String> resourceTypes = resourceTypesByClassUri.get(uri);
+				if (resourceTypes != null) {
+					deviceResourceTypes.addAll(resourceTypes);
+				}
+			}
+		}
+		deviceUris.add(IoTivityUtils.AiotesEntityTypeDevice);
+
+		return new OntologyIndex(classUriByResourceType, resourceTypesByClassUri, interfacesByClassUri, commentByClassUri,
+				propertyUriByClassAndLabel, labelByPropertyUri, deviceUris, deviceResourceTypes);
+	}
+
+	private static void addProperty(Map<String, Map<String, String>> propertyUriByClassAndLabel, String classUri, String label, String propertyUri) {
+		Map<String, String> properties = propertyUriByClassAndLabel.get(classUri);
+		if (properties == null) {
+			properties = new HashMap<String, String>();
+			propertyUriByClassAndLabel.put(classUri, properties);
+		}
+		properties.putIfAbsent(label, propertyUri);
+	}
+
+	private static Map<String, Set<String>> unmodifiableSetMap(Map<String, Set<String>> map) {
+		Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+		for (Entry<String, Set<String>> entry : map.entrySet()) {
+			copy.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<String>(entry.getValue())));
+		}
+		return Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * @return the uri of the class with the given resource type or {@code null}
+	 */
+	public String getClassUri(String resourceType) {
+		return classUriByResourceType.get(resourceType);
+	}
+
+	/**
+	 * @return the resource types of the given class or {@code null} if the ontology has no such class
+	 */
+	public Set<String> getResourceTypes(String classUri) {
+		return resourceTypesByClassUri.get(classUri);
+	}
+
+	/**
+	 * @return the interfaces of the given class or {@code null} if the ontology has no such class
+	 */
+	public Set<String> getInterfaces(String classUri) {
+		return interfacesByClassUri.get(classUri);
+	}
+
+	/**
+	 * @return the comment of the given class or {@code null}
+	 */
+	public String getComment(String classUri) {
+		return commentByClassUri.get(classUri);
+	}
+
+	/**
+	 * @return the uri of the property with the given label that has the given class in its domain or {@code null}
+	 */
+	public String getPropertyUri(String classUri, String label) {
+		Map<String, String> properties = propertyUriByClassAndLabel.get(classUri);
+		return properties == null ? null : properties.get(label);
+	}
+
+	/**
+	 * @return the label of the given property or {@code null}
+	 */
+	public String getLabel(String propertyUri) {
+		return labelByPropertyUri.get(propertyUri);
+	}
+
+	public Set<String> getDeviceUris() {
+		return deviceUris;
+	}
+
+	public Set<String> getDeviceResourceTypes() {
+		return deviceResourceTypes;
+	}
+
+	Map<String, String> getClassUriByResourceType() {
+		return classUriByResourceType;
+	}
+
+	Map<String, Set<String>> getResourceTypesByClassUri() {
+		return resourceTypesByClassUri;
+	}
+
+	Map<String, Set<String>> getInterfacesByClassUri() {
+		return interfacesByClassUri;
+	}
+
+	Map<String, String> getCommentByClassUri() {
+		return commentByClassUri;
+	}
+
+	Map<String, Map<String, String>> getPropertyUriByClassAndLabel() {
+		return propertyUriByClassAndLabel;
+	}
+
+	Map<String, String> getLabelByPropertyUri() {
+		return labelByPropertyUri;
+	}
+}
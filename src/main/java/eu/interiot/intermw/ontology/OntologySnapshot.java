@@ -0,0 +1,247 @@
+package eu.interiot.intermw.ontology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.rdf.model.ModelFactory;
+
+/**
+ *
+ * Compact binary form of an {@link OntologyIndex}
+ * The snapshot is generated from the OWL file and it is loaded in a few milliseconds, instead of
+ * parsing the OWL file into an inferencing model. It contains the SHA-256 hash of the OWL file it was
+ * generated from, so that an outdated snapshot is detected and ignored.
+ *
+ * The snapshot shipped with the bridge is regenerated after any change of the ontology with:
+ *   mvn compile exec:java -Dexec.mainClass=eu.interiot.intermw.ontology.OntologySnapshot
+ *     -Dexec.args="src/main/resources/ontology/iotivity_data_model.snapshot"
+ *
+ * Format: magic, version, OWL hash, string table and then the tables of the index as indexes of the string table
+ *
+ */
+public class OntologySnapshot {
+
+	private static final int MAGIC = 0x494F4E58;
+	private static final int VERSION = 1;
+
+	private OntologySnapshot() {
+	}
+
+	/**
+	 * Generates the snapshot of the OWL file of the bridge
+	 *
+	 * @param args : the path of the snapshot file to be written
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 1) {
+			System.err.println("Usage: OntologySnapshot <snapshot file>");
+			System.exit(1);
+		}
+		byte[] owl = readResource(OntologyHandler.ONTOLOGY_FILENAME);
+		OntModel model = ModelFactory.createOntologyModel();
+		model.read(new ByteArrayInputStream(owl), null, "RDF/XML");
+		OntologyIndex index = OntologyIndex.build(model);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(args[0]));
+		try {
+			write(index, hash(owl), out);
+		}
+		finally {
+			out.close();
+		}
+		System.out.println("Snapshot written to " + args[0]);
+	}
+
+	/**
+	 * Writes the given index
+	 *
+	 * @param index : the index to be written
+	 * @param owlHash : the hash of the OWL file the index was built from
+	 * @param out : the stream the snapshot is written to (it is not closed)
+	 */
+	public static void write(OntologyIndex index, String owlHash, OutputStream out) throws IOException {
+		List<String> strings = new ArrayList<String>();
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		ByteArrayOutputStream tables = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(tables);
+
+		writeStringMap(body, index.getClassUriByResourceType(), strings, ids);
+		writeSetMap(body, index.getResourceTypesByClassUri(), strings, ids);
+		writeSetMap(body, index.getInterfacesByClassUri(), strings, ids);
+		writeStringMap(body, index.getCommentByClassUri(), strings, ids);
+		body.writeInt(index.getPropertyUriByClassAndLabel().size());
+		for (Entry<String, Map<String, String>> entry : index.getPropertyUriByClassAndLabel().entrySet()) {
+			body.writeInt(id(entry.getKey(), strings, ids));
+			writeStringMap(body, entry.getValue(), strings, ids);
+		}
+		writeStringMap(body, index.getLabelByPropertyUri(), strings, ids);
+		writeSet(body, index.getDeviceUris(), strings, ids);
+		writeSet(body, index.getDeviceResourceTypes(), strings, ids);
+		body.flush();
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeUTF(owlHash);
+		data.writeInt(strings.size());
+		for (String s : strings) {
+			data.writeUTF(s);
+		}
+		tables.writeTo(data);
+		data.flush();
+	}
+
+	/**
+	 * Reads a snapshot
+	 *
+	 * @param in : the stream of the snapshot
+	 * @param owlHash : the hash of the current OWL file or {@code null} if it should not be checked
+	 * @return the index of the snapshot
+	 * @throws IOException in case the snapshot is not valid or it was generated from another OWL file
+	 */
+	public static OntologyIndex read(InputStream in, String owlHash) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+			throw new IOException("Not an ontology snapshot of version " + VERSION);
+		}
+		String snapshotHash = data.readUTF();
+		if (owlHash != null && !owlHash.equals(snapshotHash)) {
+			throw new IOException("The ontology snapshot was generated from another version of the ontology");
+		}
+		String[] strings = new String[data.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = data.readUTF();
+		}
+		Map<String, String> classUriByResourceType = readStringMap(data, strings);
+		Map<String, Set<String>> resourceTypesByClassUri = readSetMap(data, strings);
+		Map<String, Set<String>> interfacesByClassUri = readSetMap(data, strings);
+		Map<String, String> commentByClassUri = readStringMap(data, strings);
+		int size = data.readInt();
+		Map<String, Map<String, String>> propertyUriByClassAndLabel = new HashMap<String, Map<String, String>>(size * 2);
+		for (int i = 0; i < size; i++) {
+			String classUri = strings[data.readInt()];
+			propertyUriByClassAndLabel.put(classUri, readStringMap(data, strings));
+		}
+		Map<String, String> labelByPropertyUri = readStringMap(data, strings);
+		Set<String> deviceUris = readSet(data, strings);
+		Set<String> deviceResourceTypes = readSet(data, strings);
+		return new OntologyIndex(classUriByResourceType, resourceTypesByClassUri, interfacesByClassUri, commentByClassUri,
+				propertyUriByClassAndLabel, labelByPropertyUri, deviceUris, deviceResourceTypes);
+	}
+
+	/**
+	 * @return the SHA-256 hash (hex) of the given bytes
+	 */
+	public static String hash(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the content of the given classpath resource
+	 * @throws IOException in case the resource does not exist
+	 */
+	static byte[] readResource(String name) throws IOException {
+		InputStream in = OntologySnapshot.class.getResourceAsStream(name);
+		if (in == null) {
+			throw new IOException("Resource " + name + " not found");
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static int id(String s, List<String> strings, Map<String, Integer> ids) {
+		Integer id = ids.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			ids.put(s, id);
+		}
+		return id;
+	}
+
+	private static void writeSet(DataOutputStream out, Set<String> set, List<String> strings, Map<String, Integer> ids) throws IOException {
+		out.writeInt(set.size());
+		for (String s : set) {
+			out.writeInt(id(s, strings, ids));
+		}
+	}
+
+	private static void writeStringMap(DataOutputStream out, Map<String, String> map, List<String> strings, Map<String, Integer> ids) throws IOException {
+		out.writeInt(map.size());
+		for (Entry<String, String> entry : map.entrySet()) {
+			out.writeInt(id(entry.getKey(), strings, ids));
+			out.writeInt(id(entry.getValue(), strings, ids));
+		}
+	}
+
+	private static void writeSetMap(DataOutputStream out, Map<String, Set<String>> map, List<String> strings, Map<String, Integer> ids) throws IOException {
+		out.writeInt(map.size());
+		for (Entry<String, Set<String>> entry : map.entrySet()) {
+			out.writeInt(id(entry.getKey(), strings, ids));
+			writeSet(out, entry.getValue(), strings, ids);
+		}
+	}
+
+	private static Set<String> readSet(DataInputStream in, String[] strings) throws IOException {
+		int size = in.readInt();
+		Set<String> set = new LinkedHashSet<String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			set.add(strings[in.readInt()]);
+		}
+		return set;
+	}
+
+	private static Map<String, String> readStringMap(DataInputStream in, String[] strings) throws IOException {
+		int size = in.readInt();
+		Map<String, String> map = new HashMap<String, String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			map.put(strings[in.readInt()], strings[in.readInt()]);
+		}
+		return map;
+	}
+
+	private static Map<String, Set<String>> readSetMap(DataInputStream in, String[] strings) throws IOException {
+		int size = in.readInt();
+		Map<String, Set<String>> map = new HashMap<String, Set<String>>(size * 2);
+		for (int i = 0; i < size; i++) {
+			map.put(strings[in.readInt()], readSet(in, strings));
+		}
+		return map;
+	}
+}
@@ -20,7 +20,9 @@
  */
 package eu.interiot.intermw.translators.syntax.iotivity;
 
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -51,8 +53,9 @@ import org.apache.jena.rdf.model.SimpleSelector;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.vocabulary.RDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -60,6 +63,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ValueNode;
 
 import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
 import eu.interiot.intermw.ontology.OntologyHandler;
 import eu.interiot.intermw.ontology.entities.Device;
 import eu.interiot.translators.syntax.IllegalSyntaxException;
@@ -75,6 +79,11 @@ public class IotivityTranslator extends SyntacticTranslator<String> {
 
 	public static String iotivityBaseURI = "http://inter-iot.eu/syntax/Iotivity#";
 	public static String interIoT = "http://inter-iot.eu/";
+	
+	//the mapper is thread-safe, so it is shared by all translations
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final Logger logger = LoggerFactory.getLogger(IotivityTranslator.class);
 
 	private Resource arrayType;
 	private Resource valueType;
@@ -130,8 +139,7 @@ public class IotivityTranslator extends SyntacticTranslator<String> {
 			StmtIterator typesIt = getTypesOfResource(jenaModel, resultNode.asResource());
 			Set<String> types = typesIt.toSet().stream().map(x -> x.getObject().asResource().getURI()).collect(Collectors.toSet());
 			Set<String> deviceTypes = OntologyHandler.gi().getAllDeviceUris();
-			deviceTypes.retainAll(types);
-			if (!deviceTypes.isEmpty()) {
+			if (!Collections.disjoint(deviceTypes, types)) {
 				JsonNode someTopLevelNode = parseRDFEntityToJson(resultNode.asResource(), jenaModel, mapper);
 				if (someTopLevelNode != null) {
 					jsonNodeList.add(someTopLevelNode);
@@ -159,9 +167,29 @@ public class IotivityTranslator extends SyntacticTranslator<String> {
 	 * @see eu.interiot.translators.syntax.SyntacticTranslator#toJenaModel(java.lang.Object)
 	 */
 	public Model toJenaModel(String formatXString) throws Exception {
-		ObjectMapper mapper = new ObjectMapper();
-		JsonParser parser = mapper.getFactory().createParser(formatXString);
-		JsonNode topLevelNode = mapper.readTree(parser);
+		return toJenaModel(MAPPER.readTree(formatXString));
+	}
+	
+	/**
+	 * Translates the CBOR payload of a COAP response (e.g. an observation) to a JENA model
+	 * The payload is decoded once to a JSON tree, without any intermediate JSON text, and the
+	 * resulting model is the same as the one of {@link #toJenaModel(String)} for the equivalent JSON
+	 * 
+	 * @param cborPayload : the bytes of the payload, as received by the IoTivity server
+	 * @return the equivalent JENA model
+	 * @throws Exception
+	 */
+	public Model toJenaModel(byte[] cborPayload) throws Exception {
+		return toJenaModel(EncodingUtils.decodeToJsonNode(cborPayload));
+	}
+	
+	/**
+	 * Translates the given JSON tree to a JENA model
+	 * 
+	 * @param topLevelNode : the root of the JSON tree
+	 * @return the equivalent JENA model
+	 */
+	public Model toJenaModel(JsonNode topLevelNode) {
 		Model jenaModel = ModelFactory.createDefaultModel();
 		if (topLevelNode.isObject()) {
 			Resource myEntity;
@@ -181,9 +209,11 @@ public class IotivityTranslator extends SyntacticTranslator<String> {
 			valueResource.addProperty(RDF.type, valueType);
 			parseValueToJena(valueResource, topLevelNode, jenaModel);
 		}
-		//jenaModel.write(System.out, "TTL") ;
-		jenaModel.write(System.out, "JSON-LD") ;
-
+		if (logger.isTraceEnabled()) {
+			StringWriter writer = new StringWriter();
+			jenaModel.write(writer, "JSON-LD");
+			logger.trace("Translated model: {}", writer);
+		}
 		return jenaModel;
 	}
 	
@@ -299,7 +329,9 @@ public class IotivityTranslator extends SyntacticTranslator<String> {
 					String propertyLocalName = property.getLocalName();
 					if (propertyLocalName.equals("type")) {
 						Set<String> resourceTypes = OntologyHandler.gi().findResourceType(st.getObject().asResource().getURI());
-						types.addAll(resourceTypes);
+						if (resourceTypes != null) {
+							types.addAll(resourceTypes);
+						}
 						typePropertyLabel = "rt";
 					}
 					if (!propertyLocalName.equals("type") && !propertyLocalName.equals("IsHostedBy")) {
@@ -491,10 +523,10 @@ public class IotivityTranslator extends SyntacticTranslator<String> {
 	 * @param value: the value
 	 */
 	private void parseLiteral(Resource objectResource, Property property, JsonNode value) {
-		if (value.canConvertToInt()) {
+		if (value.isIntegralNumber() && value.canConvertToInt()) {
 			objectResource.addLiteral(property, value.asInt());
 		}
-		else if (value.isLong()) {
+		else if (value.isIntegralNumber()) {
 			objectResource.addLiteral(property, value.asLong());
 		}
 		else if (value.isBoolean()) {
@@ -503,9 +535,21 @@ public class IotivityTranslator extends SyntacticTranslator<String> {
 		else if (value.isTextual()) {
 			objectResource.addLiteral(property, value.asText());
 		}
-		else if (value.isDouble()) {
-			objectResource.addLiteral(property, value.asDouble());
+		else if (value.isFloatingPointNumber()) {
+			objectResource.addLiteral(property, toDouble(value));
+		}
+	}
+	
+	/**
+	 * @return the value of the given floating point node as a double. CBOR float32 and half-float values
+	 * are decoded to {@code FloatNode}s, which are converted through their decimal form, so that the
+	 * literal is the same as the one of the equivalent JSON number (e.g. 21.1 and not 21.100000381469727)
+	 */
+	private static double toDouble(JsonNode value) {
+		if (value.isFloat()) {
+			return Double.parseDouble(Float.toString(value.floatValue()));
 		}
+		return value.asDouble();
 	}
 	
 
@@ -0,0 +1,174 @@
+package eu.interiot.intermw.bridge.testing.module;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+
+/**
+ *
+ * An IoTivity server on the loopback interface, for the tests of the components that list and retrieve devices
+ * It serves the links of /oic/res and the devices under /a, and it counts the requests of both
+ *
+ */
+public class IoTivityTestServer {
+
+	private final CoapServer server = new CoapServer();
+	private final CoapResource links;
+	private final CoapResource devices = new CoapResource("a");
+	//href -> resource types of the link, guarded by itself
+	private final Map<String, List<String>> hrefs = new LinkedHashMap<String, List<String>>();
+	private final AtomicInteger linkRequests = new AtomicInteger();
+	private final AtomicInteger deviceRequests = new AtomicInteger();
+	private IoTivityCoapClientImpl client;
+
+	public IoTivityTestServer() {
+		server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		CoapResource oic = new CoapResource("oic");
+		links = new CoapResource("res") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				linkRequests.incrementAndGet();
+				respond(exchange, links());
+			}
+		};
+		oic.add(links);
+		server.add(oic);
+		server.add(devices);
+	}
+
+	/**
+	 * Adds a device, whose representation is created by the given function for every GET.
+	 * The device responds with 5.00 if the function returns null
+	 *
+	 * @param name : the name of the device, which is served at /a/name
+	 */
+	public void addDevice(final String name, final Function<CoapExchange, Map<String, Object>> representation) {
+		devices.add(new CoapResource(name) {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				deviceRequests.incrementAndGet();
+				Map<String, Object> device = representation.apply(exchange);
+				if (device == null) {
+					exchange.respond(ResponseCode.INTERNAL_SERVER_ERROR);
+					return;
+				}
+				respond(exchange, device);
+			}
+		});
+	}
+
+	/**
+	 * Adds a link to /oic/res
+	 */
+	public void addLink(String href, String... resourceTypes) {
+		synchronized (hrefs) {
+			hrefs.put(href, resourceTypes.length == 0 ? null : new ArrayList<String>(Arrays.asList(resourceTypes)));
+		}
+	}
+
+	public void removeLink(String href) {
+		synchronized (hrefs) {
+			hrefs.remove(href);
+		}
+	}
+
+	public void clearLinks() {
+		synchronized (hrefs) {
+			hrefs.clear();
+		}
+	}
+
+	/**
+	 * Sets whether /oic/res can be observed; it must be called before {@link #start()}
+	 */
+	public void setLinksObservable(boolean observable) {
+		links.setObservable(observable);
+	}
+
+	/**
+	 * Notifies the observers of /oic/res
+	 */
+	public void linksChanged() {
+		links.changed();
+	}
+
+	/**
+	 * Starts the server and a client that uses its port
+	 *
+	 * @return the started client
+	 */
+	public IoTivityCoapClientImpl start() throws Exception {
+		server.start();
+		int port = server.getEndpoints().get(0).getAddress().getPort();
+		client = new IoTivityCoapClientImpl("127.0.0.1", null, String.valueOf(port));
+		client.start();
+		client.discoverServer();
+		return client;
+	}
+
+	/**
+	 * Shuts the client down and destroys the server
+	 */
+	public void stop() {
+		if (client != null) {
+			client.shutdown();
+		}
+		server.destroy();
+	}
+
+	/**
+	 * @return the number of GET requests of /oic/res
+	 */
+	public int getLinkRequests() {
+		return linkRequests.get();
+	}
+
+	/**
+	 * @return the number of GET requests of the devices
+	 */
+	public int getDeviceRequests() {
+		return deviceRequests.get();
+	}
+
+	private Map<String, Object> links() {
+		List<Object> list = new ArrayList<Object>();
+		synchronized (hrefs) {
+			for (Map.Entry<String, List<String>> href : hrefs.entrySet()) {
+				Map<String, Object> link = new LinkedHashMap<String, Object>();
+				link.put("href", href.getKey());
+				if (href.getValue() != null) {
+					link.put("rt", new ArrayList<String>(href.getValue()));
+				}
+				list.add(link);
+			}
+		}
+		Map<String, Object> resources = new LinkedHashMap<String, Object>();
+		resources.put("links", list);
+		return resources;
+	}
+
+	/**
+	 * Responds with the CBOR encoding of the given content
+	 */
+	private static void respond(CoapExchange exchange, Map<String, Object> content) {
+		try {
+			exchange.respond(ResponseCode.CONTENT, EncodingUtils.encodeResourceToCbor(content), MediaTypeRegistry.APPLICATION_CBOR);
+		} catch (Exception e) {
+			exchange.respond(ResponseCode.INTERNAL_SERVER_ERROR);
+		}
+	}
+}
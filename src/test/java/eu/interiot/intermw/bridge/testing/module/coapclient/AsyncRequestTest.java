@@ -0,0 +1,130 @@
+package eu.interiot.intermw.bridge.testing.module.coapclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+
+public class AsyncRequestTest {
+
+	private CoapServer server;
+	private IoTivityCoapClientImpl client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new CoapServer();
+		server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		CoapResource a = new CoapResource("a");
+		a.add(new CoapResource("light") {
+			@Override
+			public void handlePUT(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CHANGED);
+			}
+
+			@Override
+			public void handlePOST(CoapExchange exchange) {
+				exchange.setLocationPath("a/light/1");
+				exchange.respond(ResponseCode.CREATED);
+			}
+
+			@Override
+			public void handleDELETE(CoapExchange exchange) {
+				exchange.respond(ResponseCode.DELETED);
+			}
+		});
+		a.add(new CoapResource("locked") {
+			@Override
+			public void handlePUT(CoapExchange exchange) {
+				exchange.respond(ResponseCode.BAD_REQUEST);
+			}
+
+			@Override
+			public void handlePOST(CoapExchange exchange) {
+				exchange.respond(ResponseCode.FORBIDDEN);
+			}
+
+			@Override
+			public void handleDELETE(CoapExchange exchange) {
+				exchange.respond(ResponseCode.INTERNAL_SERVER_ERROR);
+			}
+		});
+		server.add(a);
+		server.start();
+		int port = server.getEndpoints().get(0).getAddress().getPort();
+
+		client = new IoTivityCoapClientImpl("127.0.0.1", null, String.valueOf(port));
+		client.start();
+		client.discoverServer();
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.destroy();
+	}
+
+	@Test
+	public void testSuccessfulResponsesComplete() throws Exception {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("value", 1);
+		client.editResourceAsync(attributes, "/a/light").get();
+		//the href of the created resource is returned
+		assertEquals("/a/light/1", client.createResourceAsync(attributes, "/a/light").get());
+		client.deleteResourceAsync("/a/light").get();
+	}
+
+	@Test
+	public void testErrorResponsesFail() throws Exception {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("value", 1);
+		assertFails(() -> client.editResourceAsync(attributes, "/a/locked").get(), "4.00");
+		assertFails(() -> client.createResourceAsync(attributes, "/a/locked").get(), "4.03");
+		assertFails(() -> client.deleteResourceAsync("/a/locked").get(), "5.00");
+		//the resource does not exist
+		assertFails(() -> client.deleteResourceAsync("/a/missing").get(), "4.04");
+		try {
+			client.deleteResource("/a/missing");
+			fail("The blocking DELETE did not throw");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("4.04"));
+		}
+	}
+
+	@Test
+	public void testRequestOfShutDownClientFails() throws Exception {
+		client.shutdown();
+		try {
+			client.getResourceAsync("/a/light").get();
+			fail("The request of a shut down client did not fail");
+		} catch (ExecutionException e) {
+			//the future fails instead of the call
+		}
+	}
+
+	private interface Request {
+		void send() throws Exception;
+	}
+
+	private static void assertFails(Request request, String code) throws Exception {
+		try {
+			request.send();
+			fail("The request did not fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(code));
+		}
+	}
+}
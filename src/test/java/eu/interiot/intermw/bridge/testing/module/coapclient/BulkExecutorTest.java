@@ -0,0 +1,67 @@
+package eu.interiot.intermw.bridge.testing.module.coapclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.BulkExecutor;
+
+public class BulkExecutorTest {
+
+	private final ScheduledExecutorService server = Executors.newScheduledThreadPool(8);
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		server.shutdownNow();
+	}
+
+	@Test
+	public void testOperationsAreWindowedAndEveryOutcomeIsReported() throws Exception {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			ids.add("light" + i);
+		}
+		BulkExecutor.Result result = new BulkExecutor(4).execute(ids, id -> {
+			if (id.equals("light7")) {
+				throw new IllegalArgumentException("invalid device " + id);
+			}
+			return request(!id.equals("light13"));
+		});
+
+		assertTrue(maxInFlight.get() <= 4);
+		assertEquals(ids, new ArrayList<String>(result.getOutcomes().keySet()));
+		assertEquals(48, result.getSuccessCount());
+		assertEquals(2, result.getFailures().size());
+		assertEquals("invalid device light7", result.getFailures().get("light7").getMessage());
+		assertEquals("The request failed", result.getFailures().get("light13").getMessage());
+		assertNull(result.getOutcomes().get("light8"));
+	}
+
+	private CompletableFuture<Void> request(boolean succeeds) {
+		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		CompletableFuture<Void> request = new CompletableFuture<Void>();
+		server.schedule(() -> {
+			inFlight.decrementAndGet();
+			if (succeeds) {
+				request.complete(null);
+			}
+			else {
+				request.completeExceptionally(new Exception("The request failed"));
+			}
+		}, 5, TimeUnit.MILLISECONDS);
+		return request;
+	}
+}
@@ -0,0 +1,86 @@
+package eu.interiot.intermw.bridge.testing.module.coapclient;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import eu.interiot.intermw.bridge.iotivity.client.impls.CoapClientPool;
+
+/**
+ *
+ * Compares the requests per second of a new {@code CoapClient} per request (previous behaviour)
+ * with the pooled clients that share one endpoint, against a local Californium server
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=eu.interiot.intermw.bridge.testing.module.coapclient.CoapClientPoolBenchmark
+ *
+ */
+public class CoapClientPoolBenchmark {
+
+	private static final int WARMUP_REQUESTS = 2000;
+	private static final int REQUESTS = 10000;
+	private static final byte[] PAYLOAD = new byte[] {(byte) 0xa1, 0x61, 0x78, 0x01}; // {"x":1} in CBOR
+
+	public static void main(String[] args) throws Exception {
+		CoapServer server = new CoapServer();
+		server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		server.add(new CoapResource("bench") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, PAYLOAD, MediaTypeRegistry.APPLICATION_CBOR);
+			}
+		});
+		server.start();
+		int port = server.getEndpoints().get(0).getAddress().getPort();
+		String uri = "coap://127.0.0.1:" + port + "/bench";
+
+		CoapClientPool pool = new CoapClientPool(5000);
+		pool.start();
+		try {
+			runNewClientPerRequest(uri, WARMUP_REQUESTS);
+			runPooled(pool, uri, WARMUP_REQUESTS);
+
+			long start = System.nanoTime();
+			runNewClientPerRequest(uri, REQUESTS);
+			report("new client per request", start);
+
+			start = System.nanoTime();
+			runPooled(pool, uri, REQUESTS);
+			report("pooled client, shared endpoint", start);
+		}
+		finally {
+			pool.shutdown();
+			server.destroy();
+		}
+	}
+
+	private static void runNewClientPerRequest(String uri, int requests) {
+		for (int i = 0; i < requests; i++) {
+			CoapClient client = new CoapClient(uri);
+			client.setTimeout(5000L);
+			check(client.get());
+		}
+	}
+
+	private static void runPooled(CoapClientPool pool, String uri, int requests) throws Exception {
+		for (int i = 0; i < requests; i++) {
+			check(pool.getClient(uri).get());
+		}
+	}
+
+	private static void check(CoapResponse response) {
+		if (response == null || !response.isSuccess()) {
+			throw new IllegalStateException("Request failed");
+		}
+	}
+
+	private static void report(String name, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%-32s %8.0f req/s", name, REQUESTS / seconds));
+	}
+}
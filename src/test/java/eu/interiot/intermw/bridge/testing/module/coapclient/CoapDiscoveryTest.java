@@ -0,0 +1,83 @@
+package eu.interiot.intermw.bridge.testing.module.coapclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.CoapDiscovery;
+import eu.interiot.intermw.bridge.iotivity.client.utils.CoapDiscovery.DiscoveredServer;
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+
+public class CoapDiscoveryTest {
+
+	private static final String LOOPBACK = "127.0.0.1";
+
+	private CoapServer server;
+	private int port;
+
+	@Before
+	public void setUp() throws Exception {
+		Map<String, Object> link = new LinkedHashMap<String, Object>();
+		link.put("href", "/a/light");
+		List<Object> links = new ArrayList<Object>();
+		links.add(link);
+		Map<String, Object> resources = new LinkedHashMap<String, Object>();
+		resources.put("links", links);
+		final byte[] payload = EncodingUtils.encodeResourceToCbor(resources);
+
+		server = new CoapServer();
+		server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		CoapResource oic = new CoapResource("oic");
+		oic.add(new CoapResource("res") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, payload, MediaTypeRegistry.APPLICATION_CBOR);
+			}
+		});
+		server.add(oic);
+		server.start();
+		port = server.getEndpoints().get(0).getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		server.destroy();
+	}
+
+	@Test
+	public void testDiscoverOnLoopback() throws Exception {
+		CoapDiscovery discovery = new CoapDiscovery(300, CoapDiscovery.DEFAULT_TTL);
+		DiscoveredServer discovered = discovery.discover(LOOPBACK, port, false);
+		assertNotNull(discovered);
+		assertEquals(port, discovered.getPort());
+		assertEquals("/a/light", discovered.getResources().getAsJsonObject().get("links").getAsJsonArray()
+				.get(0).getAsJsonObject().get("href").getAsString());
+	}
+
+	@Test
+	public void testDiscoveredServerIsCached() throws Exception {
+		CoapDiscovery discovery = new CoapDiscovery(300, CoapDiscovery.DEFAULT_TTL);
+		DiscoveredServer discovered = discovery.discover(LOOPBACK, port, false);
+		server.stop();
+		assertSame(discovered, discovery.discover(LOOPBACK, port, false));
+
+		discovery.invalidate(LOOPBACK);
+		assertNull(discovery.discover(LOOPBACK, port, false));
+	}
+}
@@ -0,0 +1,195 @@
+package eu.interiot.intermw.bridge.testing.module.coapclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.rdf.model.Model;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.ObservationMultiplexer;
+import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.bridge.iotivity.pipeline.ObservationPipeline;
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+import eu.interiot.message.Message;
+import eu.interiot.message.MessageMetadata;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+public class ObservationMultiplexerTest {
+
+	private final AtomicInteger translations = new AtomicInteger();
+	private final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicInteger value = new AtomicInteger();
+	private CoapServer server;
+	private CoapResource light;
+	private IoTivityCoapClientImpl client;
+	private ObservationPipeline pipeline;
+	private ObservationMultiplexer multiplexer;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new CoapServer();
+		server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		CoapResource a = new CoapResource("a");
+		light = new CoapResource("light") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				Map<String, Object> device = new LinkedHashMap<String, Object>();
+				device.put("id", "light");
+				device.put("value", value.get());
+				try {
+					exchange.respond(ResponseCode.CONTENT, EncodingUtils.encodeResourceToCbor(device), MediaTypeRegistry.APPLICATION_CBOR);
+				} catch (Exception e) {
+					exchange.respond(ResponseCode.INTERNAL_SERVER_ERROR);
+				}
+			}
+		};
+		light.setObservable(true);
+		a.add(light);
+		server.add(a);
+		server.start();
+		int port = server.getEndpoints().get(0).getAddress().getPort();
+		client = new IoTivityCoapClientImpl("127.0.0.1", null, String.valueOf(port));
+		client.start();
+		client.discoverServer();
+
+		IotivityTranslator translator = new IotivityTranslator() {
+			@Override
+			public Model toJenaModel(byte[] cborPayload) throws Exception {
+				translations.incrementAndGet();
+				return super.toJenaModel(cborPayload);
+			}
+		};
+		pipeline = new ObservationPipeline(translator, null) {
+			@Override
+			protected void publish(Message observationMessage) {
+				published.add(observationMessage.getMetadata().getConversationId().orElse(null));
+			}
+		};
+		pipeline.start();
+		multiplexer = new ObservationMultiplexer(client, pipeline);
+	}
+
+	@After
+	public void tearDown() {
+		multiplexer.close();
+		pipeline.shutdown();
+		client.shutdown();
+		server.destroy();
+	}
+
+	@Test
+	public void testSubscriptionsShareOneRelation() throws Exception {
+		assertTrue(multiplexer.subscribe("/a/light", "c1", metadata("c1")));
+		assertFalse(multiplexer.subscribe("/a/light", "c2", metadata("c2")));
+		assertEquals(1, multiplexer.getRelationCount());
+		assertEquals(2, multiplexer.getSubscriptionCount("/a/light"));
+		waitForObservers(1);
+		//the initial response is published to both subscriptions
+		waitForPublished(2);
+
+		value.set(1);
+		light.changed();
+		waitForPublished(4);
+		//each notification is translated once
+		assertEquals(2, translations.get());
+		assertEquals(2, Collections.frequency(published, "c1"));
+		assertEquals(2, Collections.frequency(published, "c2"));
+		assertEquals(1, light.getObserverCount());
+	}
+
+	@Test
+	public void testLastUnsubscriptionCancelsTheRelation() throws Exception {
+		multiplexer.subscribe("/a/light", "c1", metadata("c1"));
+		multiplexer.subscribe("/a/light", "c2", metadata("c2"));
+		waitForObservers(1);
+
+		assertTrue(multiplexer.unsubscribe("/a/light", "c1"));
+		assertFalse(multiplexer.unsubscribe("/a/light", "c1"));
+		assertEquals(1, client.getObservations().size());
+
+		assertTrue(multiplexer.unsubscribe("/a/light", "c2"));
+		assertEquals(0, multiplexer.getRelationCount());
+		assertEquals(0, client.getObservations().size());
+		waitForObservers(0);
+	}
+
+	@Test
+	public void testRestartObservesTheNewAddress() throws Exception {
+		multiplexer.subscribe("/a/light", "c1", metadata("c1"));
+		waitForObservers(1);
+		waitForPublished(1);
+
+		CoapServer moved = new CoapServer();
+		moved.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		CoapResource a = new CoapResource("a");
+		CoapResource movedLight = new CoapResource("light") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, "{}");
+			}
+		};
+		movedLight.setObservable(true);
+		a.add(movedLight);
+		moved.add(a);
+		moved.start();
+		try {
+			client.setPort(moved.getEndpoints().get(0).getAddress().getPort());
+			multiplexer.restart();
+			assertEquals(1, multiplexer.getRelationCount());
+			long deadline = System.currentTimeMillis() + 5000;
+			while (movedLight.getObserverCount() != 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(1, movedLight.getObserverCount());
+
+			//the notifications of the old address are no longer received
+			int count = published.size();
+			value.set(1);
+			light.changed();
+			Thread.sleep(200);
+			assertEquals(count, published.size());
+		} finally {
+			moved.destroy();
+		}
+	}
+
+	private static PlatformMessageMetadata metadata(String conversationId) {
+		PlatformMessageMetadata metadata = new MessageMetadata().asPlatformMessageMetadata();
+		metadata.initializeMetadata();
+		metadata.setConversationId(conversationId);
+		return metadata;
+	}
+
+	private void waitForObservers(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (light.getObserverCount() != count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(count, light.getObserverCount());
+	}
+
+	private void waitForPublished(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (published.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(count, published.size());
+	}
+}
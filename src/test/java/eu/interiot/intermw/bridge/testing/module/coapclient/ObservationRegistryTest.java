@@ -0,0 +1,124 @@
+package eu.interiot.intermw.bridge.testing.module.coapclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.impls.CoapClientPool;
+import eu.interiot.intermw.bridge.iotivity.client.impls.ObservationRegistry;
+
+public class ObservationRegistryTest {
+
+	private static final CoapHandler HANDLER = new CoapHandler() {
+		@Override
+		public void onLoad(CoapResponse response) {
+		}
+
+		@Override
+		public void onError() {
+		}
+	};
+
+	private CoapServer server;
+	private CoapResource light;
+	private CoapClientPool pool;
+	private ObservationRegistry registry;
+	private String uri;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new CoapServer();
+		server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		light = new CoapResource("light") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond("on");
+			}
+		};
+		light.setObservable(true);
+		server.add(light);
+		server.start();
+		uri = "coap://127.0.0.1:" + server.getEndpoints().get(0).getAddress().getPort() + "/light";
+		pool = new CoapClientPool(5000);
+		registry = new ObservationRegistry();
+	}
+
+	@After
+	public void tearDown() {
+		registry.shutdown();
+		pool.shutdown();
+		server.destroy();
+	}
+
+	@Test
+	public void testConversationsDoNotOverwriteEachOther() throws Exception {
+		CoapClient client = pool.getClient(uri);
+		registry.observe("/light", "c1", client, HANDLER).get(5, TimeUnit.SECONDS);
+		registry.observe("/light", "c2", client, HANDLER).get(5, TimeUnit.SECONDS);
+		assertEquals(2, registry.getLiveRelationCount());
+
+		assertTrue(registry.cancel("/light", "c1"));
+		assertEquals(1, registry.size());
+		assertTrue(registry.isObserved("/light", "c2"));
+
+		//observing again for the same conversation replaces the relation
+		registry.observe("/light", "c2", client, HANDLER).get(5, TimeUnit.SECONDS);
+		assertEquals(1, registry.getLiveRelationCount());
+		assertEquals(1, registry.cancelResource("/light"));
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void testConcurrentObserveAndCancel() throws Exception {
+		final CoapClient client = pool.getClient(uri);
+		ExecutorService callers = Executors.newFixedThreadPool(16);
+		List<Future<?>> calls = new ArrayList<Future<?>>();
+		for (int t = 0; t < 16; t++) {
+			final Random random = new Random(t);
+			calls.add(callers.submit(() -> {
+				for (int i = 0; i < 250; i++) {
+					String conversation = "c" + random.nextInt(50);
+					if (random.nextBoolean()) {
+						registry.observe("/light", conversation, client, HANDLER);
+					}
+					else {
+						registry.cancel("/light", conversation);
+					}
+				}
+			}));
+		}
+		for (Future<?> call : calls) {
+			call.get(30, TimeUnit.SECONDS);
+		}
+		callers.shutdown();
+		assertTrue(registry.size() <= 50);
+
+		registry.cancelAll();
+		assertEquals(0, registry.size());
+		//the pending requests complete and their relations are cancelled
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((registry.getPendingCount() > 0 || light.getObserverCount() > 0) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, registry.getLiveRelationCount());
+		assertEquals(0, light.getObserverCount());
+	}
+}
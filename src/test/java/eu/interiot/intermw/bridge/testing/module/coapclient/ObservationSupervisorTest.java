@@ -0,0 +1,206 @@
+package eu.interiot.intermw.bridge.testing.module.coapclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.ObservationSupervisor;
+import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+
+public class ObservationSupervisorTest {
+
+	private final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicInteger rejections = new AtomicInteger();
+	private volatile String value = "on";
+	private CoapServer server;
+	private CoapResource light;
+	private IoTivityCoapClientImpl client;
+	private ScheduledExecutorService scheduler;
+	private ObservationSupervisor supervisor;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new CoapServer();
+		server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder().setPort(0).build());
+		CoapResource a = new CoapResource("a");
+		light = new CoapResource("light") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				if (rejections.getAndDecrement() > 0) {
+					exchange.respond(ResponseCode.SERVICE_UNAVAILABLE);
+					return;
+				}
+				exchange.respond(value);
+			}
+		};
+		light.setObservable(true);
+		a.add(light);
+		server.add(a);
+		server.start();
+		int port = server.getEndpoints().get(0).getAddress().getPort();
+		client = new IoTivityCoapClientImpl("127.0.0.1", null, String.valueOf(port));
+		client.start();
+		client.discoverServer();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		supervisor = new ObservationSupervisor(client, "/a/light", new CoapHandler() {
+			@Override
+			public void onLoad(CoapResponse response) {
+				delivered.add(response.getResponseText());
+			}
+
+			@Override
+			public void onError() {
+			}
+		}, scheduler, 10, 100);
+	}
+
+	@After
+	public void tearDown() {
+		supervisor.stop();
+		scheduler.shutdownNow();
+		client.shutdown();
+		server.destroy();
+	}
+
+	@Test
+	public void testStaleNotificationsAreDropped() {
+		supervisor.onLoad(notification(5, "a"));
+		supervisor.onLoad(notification(4, "x"));
+		supervisor.onLoad(notification(5, "x"));
+		supervisor.onLoad(notification(6, "b"));
+		assertEquals(Arrays.asList("a", "b"), delivered);
+		assertEquals(2, supervisor.getStaleCount());
+		assertEquals(0, supervisor.getGapCount());
+
+		//the sequence numbers wrap around
+		supervisor.onLoad(notification(6 + (1 << 23) + 1, "x"));
+		supervisor.onLoad(notification(7, "c"));
+		assertEquals(Arrays.asList("a", "b", "c"), delivered);
+	}
+
+	@Test
+	public void testGapIsFollowedByCatchUp() throws Exception {
+		value = "c";
+		supervisor.onLoad(notification(10, "a"));
+		supervisor.onLoad(notification(12, "b"));
+		waitForDelivered(3);
+		assertEquals(Arrays.asList("a", "b", "c"), delivered);
+		assertEquals(1, supervisor.getGapCount());
+
+		//the catch-up repeats the last notification
+		supervisor.onLoad(notification(13, "c"));
+		Thread.sleep(200);
+		assertEquals(3, delivered.size());
+		assertEquals(1, supervisor.getDuplicateCount());
+	}
+
+	@Test
+	public void testFailedRelationIsRegisteredAgain() throws Exception {
+		supervisor.start();
+		waitForDelivered(1);
+		waitForObservers(1);
+
+		supervisor.onError();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (supervisor.getDuplicateCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		//the first response of the new relation repeats the last notification
+		assertEquals(1, supervisor.getDuplicateCount());
+		assertEquals(1, supervisor.getReregistrationCount());
+		waitForObservers(1);
+
+		value = "off";
+		light.changed();
+		waitForDelivered(2);
+		assertEquals(Arrays.asList("on", "off"), delivered);
+	}
+
+	@Test
+	public void testRejectedRegistrationIsRetried() throws Exception {
+		rejections.set(3);
+		supervisor.start();
+		waitForDelivered(1);
+		assertEquals(3, supervisor.getReregistrationCount());
+		waitForObservers(1);
+	}
+
+	@Test
+	public void testSlowHandlerDoesNotBlockTheSupervisor() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ObservationSupervisor slow = new ObservationSupervisor(client, "/a/light", new CoapHandler() {
+			@Override
+			public void onLoad(CoapResponse response) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				delivered.add(response.getResponseText());
+			}
+
+			@Override
+			public void onError() {
+			}
+		}, scheduler, 10, 100);
+		Thread notifier = new Thread(() -> slow.onLoad(notification(1, "a")));
+		notifier.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		//the supervisor is not blocked by the handler, the notification is passed in order by the busy thread
+		slow.onLoad(notification(2, "b"));
+		assertFalse(slow.isEstablished());
+		release.countDown();
+		notifier.join(5000);
+		assertEquals(Arrays.asList("a", "b"), delivered);
+		slow.stop();
+	}
+
+	private static CoapResponse notification(int sequence, String text) {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.getOptions().setObserve(sequence);
+		response.setPayload(text);
+		return new CoapResponse(response) {
+		};
+	}
+
+	private void waitForDelivered(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (delivered.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(delivered.toString(), count, delivered.size());
+	}
+
+	private void waitForObservers(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (light.getObserverCount() != count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(count, light.getObserverCount());
+	}
+}
@@ -0,0 +1,112 @@
+package eu.interiot.intermw.bridge.testing.module.encoding;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORParser;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+
+/**
+ *
+ * Compares the decodings per second of the previous CBOR decoding (CBOR to List/Map, Gson serialization
+ * and parsing, with a second decoding for map roots) with the single-pass decoding of {@code EncodingUtils}
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=eu.interiot.intermw.bridge.testing.module.encoding.EncodingUtilsBenchmark
+ *
+ */
+public class EncodingUtilsBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 50000;
+	private static final int ITERATIONS = 200000;
+
+	public static void main(String[] args) throws Exception {
+		ObjectMapper mapper = EncodingUtils.getCborMapper();
+		byte[] observation = mapper.writeValueAsBytes(createObservation());
+		List<Object> devices = new ArrayList<Object>();
+		for (int i = 0; i < 10; i++) {
+			devices.add(createObservation());
+		}
+		byte[] deviceList = mapper.writeValueAsBytes(devices);
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			legacyCoapResponseToJson(observation);
+			EncodingUtils.coapResponseToJson(observation);
+			EncodingUtils.decodeToJsonNode(observation);
+		}
+		run("map root, previous decoding", observation, Decoder.LEGACY);
+		run("map root, single pass to Gson", observation, Decoder.GSON);
+		run("map root, single pass to Jackson", observation, Decoder.JACKSON);
+		run("array root, previous decoding", deviceList, Decoder.LEGACY);
+		run("array root, single pass to Gson", deviceList, Decoder.GSON);
+		run("array root, single pass to Jackson", deviceList, Decoder.JACKSON);
+	}
+
+	private enum Decoder { LEGACY, GSON, JACKSON }
+
+	private static void run(String name, byte[] payload, Decoder decoder) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			switch (decoder) {
+			case LEGACY:
+				legacyCoapResponseToJson(payload);
+				break;
+			case GSON:
+				EncodingUtils.coapResponseToJson(payload);
+				break;
+			default:
+				EncodingUtils.decodeToJsonNode(payload);
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%-36s %10.0f ops/s", name, ITERATIONS / seconds));
+	}
+
+	/**
+	 * Copy of the decoding used before the single-pass decoding
+	 */
+	private static JsonElement legacyCoapResponseToJson(byte[] payload) throws Exception {
+		CBORFactory f = new CBORFactory();
+		CBORParser parser = f.createParser(payload);
+		ObjectMapper mapper = new ObjectMapper(f);
+		JsonParser jsonParser = new JsonParser();
+		try {
+			List<Map<String, Object>> list = mapper.readValue(parser, new TypeReference<List<Map<String, Object>>>() { });
+			parser.close();
+			try {
+				return jsonParser.parse(new Gson().toJson(list)).getAsJsonObject();
+			}
+			catch (Exception e){
+				return jsonParser.parse(new Gson().toJson(list)).getAsJsonArray();
+			}
+		}
+		catch(Exception ex){
+			Map<String, Object> map = mapper.readValue(parser, new TypeReference<Map<String, Object>>() { });
+			parser.close();
+			return jsonParser.parse(new Gson().toJson(map)).getAsJsonObject();
+		}
+	}
+
+	private static Map<String, Object> createObservation() {
+		Map<String, Object> observation = new LinkedHashMap<String, Object>();
+		observation.put("id", "bloodpressure1");
+		observation.put("href", "/a/devices/bloodpressure");
+		List<String> rt = new ArrayList<String>();
+		rt.add("oic.r.blood.pressure");
+		observation.put("rt", rt);
+		observation.put("systolic", 120);
+		observation.put("diastolic", 80);
+		observation.put("units", "mmHg");
+		observation.put("timestamp", 1546300800000L);
+		return observation;
+	}
+}
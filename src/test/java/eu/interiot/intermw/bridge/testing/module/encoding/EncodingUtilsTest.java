@@ -0,0 +1,90 @@
+package eu.interiot.intermw.bridge.testing.module.encoding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+
+public class EncodingUtilsTest {
+
+	private final JsonParser jsonParser = new JsonParser();
+
+	@Test
+	public void testMapRoot() throws Exception {
+		byte[] payload = EncodingUtils.getCborMapper().writeValueAsBytes(createResource());
+		JsonElement json = EncodingUtils.coapResponseToJson(payload);
+		assertTrue(json.isJsonObject());
+		assertEquals(jsonParser.parse("{\"id\":\"bp1\",\"systolic\":120,\"temperature\":36.6,\"on\":true,"
+				+ "\"rt\":[\"oic.r.blood.pressure\"],\"link\":{\"href\":\"/a/bp\"},\"none\":null}"), json);
+		assertEquals(120, json.getAsJsonObject().get("systolic").getAsInt());
+	}
+
+	@Test
+	public void testArrayRoot() throws Exception {
+		List<Object> platforms = new ArrayList<Object>();
+		platforms.add(createResource());
+		platforms.add(createResource());
+		byte[] payload = EncodingUtils.getCborMapper().writeValueAsBytes(platforms);
+		JsonElement json = EncodingUtils.coapResponseToJson(payload);
+		assertTrue(json.isJsonArray());
+		assertEquals(2, json.getAsJsonArray().size());
+		assertEquals("/a/bp", json.getAsJsonArray().get(1).getAsJsonObject().get("link").getAsJsonObject().get("href").getAsString());
+	}
+
+	@Test
+	public void testEncodedResourceRoundTrip() throws Exception {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("id", "door1");
+		map.put("openAlarm", true);
+		byte[] payload = EncodingUtils.encodeResourceToCbor(map);
+		assertEquals(jsonParser.parse("{\"id\":\"door1\",\"openAlarm\":true}"), EncodingUtils.coapResponseToJson(payload));
+
+		JsonNode node = EncodingUtils.decodeToJsonNode(payload);
+		assertEquals("door1", node.get("id").asText());
+		assertTrue(node.get("openAlarm").asBoolean());
+	}
+
+	@Test
+	public void testByteStringsAreDecodedAlike() throws Exception {
+		Map<String, Object> resource = createResource();
+		resource.put("data", new byte[] {1, 2, -1});
+		byte[] payload = EncodingUtils.getCborMapper().writeValueAsBytes(resource);
+		JsonElement json = EncodingUtils.coapResponseToJson(payload);
+		assertEquals(jsonParser.parse("[1,2,-1]"), json.getAsJsonObject().get("data"));
+		//both trees have the same content
+		assertEquals(json, jsonParser.parse(EncodingUtils.decodeToJsonNode(payload).toString()));
+	}
+
+	@Test
+	public void testEmptyPayload() throws Exception {
+		assertTrue(EncodingUtils.coapResponseToJson(new byte[0]).isJsonNull());
+		assertTrue(EncodingUtils.decodeToJsonNode(new byte[0]).isMissingNode());
+	}
+
+	private static Map<String, Object> createResource() {
+		Map<String, Object> resource = new LinkedHashMap<String, Object>();
+		resource.put("id", "bp1");
+		resource.put("systolic", 120);
+		resource.put("temperature", 36.6);
+		resource.put("on", true);
+		List<String> rt = new ArrayList<String>();
+		rt.add("oic.r.blood.pressure");
+		resource.put("rt", rt);
+		Map<String, Object> link = new LinkedHashMap<String, Object>();
+		link.put("href", "/a/bp");
+		resource.put("link", link);
+		resource.put("none", null);
+		return resource;
+	}
+}
@@ -0,0 +1,55 @@
+package eu.interiot.intermw.bridge.testing.module.ontology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.IoTivityUtils;
+import eu.interiot.intermw.ontology.OntologyHandler;
+import eu.interiot.intermw.ontology.OntologyIndex;
+import eu.interiot.intermw.ontology.entities.Resource;
+
+public class OntologyHandlerTest {
+
+	private static final String BLOOD_PRESSURE = OntologyHandler.IOTIVITY_PREFIX + "BloodPressure";
+
+	private final OntologyHandler handler = OntologyHandler.gi();
+
+	@Test
+	public void testResourceLookups() throws Exception {
+		Resource resource = handler.findResourceByResourceType("oic.r.blood.pressure");
+		assertEquals(BLOOD_PRESSURE, resource.getUri());
+		assertTrue(resource.getInterfaces().contains("oic.if.s"));
+		assertTrue(handler.findResourceType(BLOOD_PRESSURE).contains("oic.r.blood.pressure"));
+		assertEquals(OntologyHandler.IOTIVITY_PREFIX + "systolic", handler.findPropertyOfResourceByLabel(BLOOD_PRESSURE, "systolic"));
+		assertEquals("systolic", handler.findLabelOfProperty(OntologyHandler.IOTIVITY_PREFIX + "systolic"));
+	}
+
+	@Test
+	public void testLookupWithSeveralResourceTypesDoesNotChangeTheGivenSet() throws Exception {
+		Set<String> resourceTypes = new HashSet<String>();
+		resourceTypes.add(OntologyIndex.DEVICE_RESOURCE_TYPE);
+		resourceTypes.add("oic.r.blood.pressure");
+		assertEquals(BLOOD_PRESSURE, handler.findResourceByResourceTypes(resourceTypes).getUri());
+		assertEquals(2, resourceTypes.size());
+	}
+
+	@Test
+	public void testDevices() throws Exception {
+		Set<String> deviceUris = handler.getAllDeviceUris();
+		assertTrue(deviceUris.contains(IoTivityUtils.AiotesEntityTypeDevice));
+		assertTrue(handler.isDevice(OntologyIndex.DEVICE_RESOURCE_TYPE));
+		assertFalse(handler.isDevice("oic.r.blood.pressure"));
+		try {
+			deviceUris.clear();
+		} catch (UnsupportedOperationException e) {
+			return;
+		}
+		throw new AssertionError("The device uris must not be modifiable");
+	}
+}
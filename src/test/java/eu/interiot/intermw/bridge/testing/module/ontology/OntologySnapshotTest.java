@@ -0,0 +1,101 @@
+package eu.interiot.intermw.bridge.testing.module.ontology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import eu.interiot.intermw.ontology.OntologyHandler;
+import eu.interiot.intermw.ontology.OntologyIndex;
+import eu.interiot.intermw.ontology.OntologySnapshot;
+
+public class OntologySnapshotTest {
+
+	private static final String OWL = "/ontology/iotivity_data_model.owl";
+	private static final String SNAPSHOT = "/ontology/iotivity_data_model.snapshot";
+	private static final String BLOOD_PRESSURE = OntologyHandler.IOTIVITY_PREFIX + "BloodPressure";
+	private static final String SYSTOLIC = OntologyHandler.IOTIVITY_PREFIX + "systolic";
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		OntologyIndex index = createIndex();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OntologySnapshot.write(index, "hash", out);
+		OntologyIndex read = OntologySnapshot.read(new ByteArrayInputStream(out.toByteArray()), "hash");
+
+		assertEquals(BLOOD_PRESSURE, read.getClassUri("oic.r.blood.pressure"));
+		assertEquals(index.getResourceTypes(BLOOD_PRESSURE), read.getResourceTypes(BLOOD_PRESSURE));
+		assertEquals(index.getInterfaces(BLOOD_PRESSURE), read.getInterfaces(BLOOD_PRESSURE));
+		assertEquals("Blood pressure", read.getComment(BLOOD_PRESSURE));
+		assertEquals(SYSTOLIC, read.getPropertyUri(BLOOD_PRESSURE, "systolic"));
+		assertNull(read.getPropertyUri(BLOOD_PRESSURE, "unknown"));
+		assertEquals("systolic", read.getLabel(SYSTOLIC));
+		assertEquals(index.getDeviceUris(), read.getDeviceUris());
+		assertEquals(index.getDeviceResourceTypes(), read.getDeviceResourceTypes());
+	}
+
+	@Test(expected = IOException.class)
+	public void testOutdatedSnapshotIsRejected() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OntologySnapshot.write(createIndex(), "hash", out);
+		OntologySnapshot.read(new ByteArrayInputStream(out.toByteArray()), "another hash");
+	}
+
+	@Test
+	public void testShippedSnapshotMatchesOntology() throws Exception {
+		String owlHash = OntologySnapshot.hash(readResource(OWL));
+		InputStream in = getClass().getResourceAsStream(SNAPSHOT);
+		try {
+			//fails if the ontology was changed without regenerating the snapshot
+			OntologyIndex index = OntologySnapshot.read(in, owlHash);
+			assertEquals(BLOOD_PRESSURE, index.getClassUri("oic.r.blood.pressure"));
+			assertEquals(SYSTOLIC, index.getPropertyUri(BLOOD_PRESSURE, "systolic"));
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static OntologyIndex createIndex() {
+		Set<String> resourceTypes = new LinkedHashSet<String>();
+		resourceTypes.add("oic.r.blood.pressure");
+		Set<String> interfaces = new LinkedHashSet<String>();
+		interfaces.add("oic.if.s");
+		interfaces.add("oic.if.baseline");
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("systolic", SYSTOLIC);
+		Set<String> deviceUris = new HashSet<String>();
+		deviceUris.add(OntologyHandler.IOTIVITY_PREFIX + "Device");
+		return new OntologyIndex(Collections.singletonMap("oic.r.blood.pressure", BLOOD_PRESSURE),
+				Collections.singletonMap(BLOOD_PRESSURE, resourceTypes), Collections.singletonMap(BLOOD_PRESSURE, interfaces),
+				Collections.singletonMap(BLOOD_PRESSURE, "Blood pressure"), Collections.singletonMap(BLOOD_PRESSURE, properties),
+				Collections.singletonMap(SYSTOLIC, "systolic"), deviceUris, Collections.singleton(OntologyIndex.DEVICE_RESOURCE_TYPE));
+	}
+
+	private byte[] readResource(String name) throws IOException {
+		InputStream in = getClass().getResourceAsStream(name);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+}
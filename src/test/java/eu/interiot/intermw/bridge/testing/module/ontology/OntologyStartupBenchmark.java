@@ -0,0 +1,70 @@
+package eu.interiot.intermw.bridge.testing.module.ontology;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.rdf.model.ModelFactory;
+
+import eu.interiot.intermw.ontology.OntologyIndex;
+import eu.interiot.intermw.ontology.OntologySnapshot;
+
+/**
+ *
+ * Measures the startup time and the retained heap of the two ways the ontology lookup tables are loaded:
+ * from the precompiled snapshot (default) or by parsing the OWL file into an inferencing model
+ * Each mode should run in its own JVM, so that class loading is counted
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=eu.interiot.intermw.bridge.testing.module.ontology.OntologyStartupBenchmark -Dexec.args="snapshot|model"
+ *
+ */
+public class OntologyStartupBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		boolean snapshot = args.length == 0 || args[0].equals("snapshot");
+		long heapBefore = usedHeap();
+		long start = System.nanoTime();
+		Object retained;
+		if (snapshot) {
+			byte[] owl = read("/ontology/iotivity_data_model.owl");
+			InputStream in = OntologyStartupBenchmark.class.getResourceAsStream("/ontology/iotivity_data_model.snapshot");
+			retained = OntologySnapshot.read(in, OntologySnapshot.hash(owl));
+			in.close();
+		}
+		else {
+			OntModel model = ModelFactory.createOntologyModel();
+			model.read(new ByteArrayInputStream(read("/ontology/iotivity_data_model.owl")), null, "RDF/XML");
+			OntologyIndex index = OntologyIndex.build(model);
+			retained = new Object[] {model, index};
+		}
+		double millis = (System.nanoTime() - start) / 1e6;
+		long heap = usedHeap() - heapBefore;
+		System.out.println(String.format("%-8s startup %10.1f ms   retained heap %8d KB", snapshot ? "snapshot" : "model", millis, heap / 1024));
+		if (retained == null) {
+			throw new IllegalStateException();
+		}
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static byte[] read(String name) throws Exception {
+		InputStream in = OntologyStartupBenchmark.class.getResourceAsStream(name);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,89 @@
+package eu.interiot.intermw.bridge.testing.module.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.bridge.iotivity.pipeline.FilterPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.Observation;
+import eu.interiot.intermw.bridge.iotivity.pipeline.ObservationFilter;
+import eu.interiot.message.MessageMetadata;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+public class ObservationFilterTest {
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private final List<Observation> released = new CopyOnWriteArrayList<Observation>();
+	private final PlatformMessageMetadata metadata = new MessageMetadata().asPlatformMessageMetadata();
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testUnchangedPayloadIsDropped() throws Exception {
+		ObservationFilter filter = new ObservationFilter(new FilterPolicy(0, 0, true), scheduler, released::add);
+		assertTrue(filter.accept("/a/light1", payload("light1", 1), metadata));
+		assertFalse(filter.accept("/a/light1", payload("light1", 1), metadata));
+		//the state is kept per device
+		assertTrue(filter.accept("/a/light2", payload("light2", 1), metadata));
+		assertTrue(filter.accept("/a/light1", payload("light1", 2), metadata));
+		assertEquals(1, filter.getUnchangedCount());
+	}
+
+	@Test
+	public void testSmallChangesAreSuppressedByTheDeadband() throws Exception {
+		ObservationFilter filter = new ObservationFilter(new FilterPolicy(0, 5, false), scheduler, released::add);
+		assertTrue(filter.accept("/a/oximeter", payload("oximeter", 95), metadata));
+		assertFalse(filter.accept("/a/oximeter", payload("oximeter", 97), metadata));
+		assertFalse(filter.accept("/a/oximeter", payload("oximeter", 99), metadata));
+		//the change is measured from the last forwarded value, so a slow drift is forwarded eventually
+		assertTrue(filter.accept("/a/oximeter", payload("oximeter", 100), metadata));
+		assertEquals(2, filter.getDeadbandCount());
+
+		//a change of a non numeric attribute is always forwarded
+		Map<String, Object> device = new LinkedHashMap<String, Object>();
+		device.put("id", "oximeter");
+		device.put("value", 100);
+		device.put("state", "alarm");
+		assertTrue(filter.accept("/a/oximeter", EncodingUtils.encodeResourceToCbor(device), metadata));
+	}
+
+	@Test
+	public void testOnlyTheLatestObservationOfTheIntervalIsForwarded() throws Exception {
+		ObservationFilter filter = new ObservationFilter(new FilterPolicy(200, 0, false), scheduler, released::add);
+		assertTrue(filter.accept("/a/light1", payload("light1", 1), metadata));
+		for (int i = 2; i <= 10; i++) {
+			assertFalse(filter.accept("/a/light1", payload("light1", i), metadata));
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (released.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, released.size());
+		assertArrayEquals(payload("light1", 10), released.get(0).getPayload());
+		assertEquals(8, filter.getConflatedCount());
+		//the release starts a new interval
+		assertFalse(filter.accept("/a/light1", payload("light1", 11), metadata));
+	}
+
+	private static byte[] payload(String id, int value) throws Exception {
+		Map<String, Object> device = new LinkedHashMap<String, Object>();
+		device.put("id", id);
+		device.put("value", value);
+		return EncodingUtils.encodeResourceToCbor(device);
+	}
+}
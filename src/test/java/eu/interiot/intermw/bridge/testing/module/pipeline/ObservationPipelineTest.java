@@ -0,0 +1,231 @@
+package eu.interiot.intermw.bridge.testing.module.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.bridge.iotivity.pipeline.BatchPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.FilterPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.ObservationPipeline;
+import eu.interiot.intermw.bridge.iotivity.pipeline.OverflowPolicy;
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+import eu.interiot.message.Message;
+import eu.interiot.message.MessageMetadata;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+public class ObservationPipelineTest {
+
+	private static final IotivityTranslator TRANSLATOR = new IotivityTranslator();
+	private final AtomicInteger published = new AtomicInteger();
+	private final List<Message> messages = new CopyOnWriteArrayList<Message>();
+	private final CountDownLatch broker = new CountDownLatch(1);
+
+	@Test
+	public void testSlowPublisherDoesNotBlockTheCallers() throws Exception {
+		ObservationPipeline pipeline = createPipeline(4, OverflowPolicy.DROP_NEWEST);
+		byte[] payload = payload("light1", 1);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			pipeline.submit("/a/light1", payload, subscribers());
+		}
+		//the broker is stuck, but the observations were queued or dropped without waiting
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertTrue(pipeline.getDroppedCount() > 0);
+		assertTrue(pipeline.getQueueDepth() <= 4);
+
+		broker.countDown();
+		pipeline.shutdown();
+		assertEquals(100, published.get() + pipeline.getDroppedCount());
+		assertEquals(0, pipeline.getFailedCount());
+	}
+
+	@Test
+	public void testShutdownPublishesTheQueuedObservations() throws Exception {
+		broker.countDown();
+		ObservationPipeline pipeline = createPipeline(16, OverflowPolicy.BLOCK);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(pipeline.submit("/a/light" + i, payload("light" + i, i), subscribers()));
+		}
+		pipeline.shutdown();
+		assertEquals(10, published.get());
+		assertEquals(10, pipeline.getTranslatedCount());
+		assertEquals(0, pipeline.getQueueDepth() + pipeline.getPublishQueueDepth());
+	}
+
+	@Test
+	public void testObservationsOfASubscriptionArePublishedInBatches() throws Exception {
+		broker.countDown();
+		ObservationPipeline pipeline = createPipeline(16, OverflowPolicy.BLOCK);
+		pipeline.setBatchPolicy("conversation1", new BatchPolicy(4, 60000));
+		for (int i = 0; i < 8; i++) {
+			assertTrue(pipeline.submit("/a/light" + i, payload("light" + i, i), subscribers("conversation1")));
+		}
+		//another subscription is not batched
+		assertTrue(pipeline.submit("/a/light0", payload("light0", 1), subscribers("conversation2")));
+		pipeline.shutdown();
+		assertEquals(3, messages.size());
+		assertEquals(8, pipeline.getBatchedCount());
+		int batches = 0;
+		for (Message message : messages) {
+			if (message.getMetadata().getConversationId().get().equals("conversation1")) {
+				//each observation of the batch is an entity of its own
+				assertEquals(4, entities(message.getPayload().getJenaModel()));
+				batches++;
+			}
+		}
+		assertEquals(2, batches);
+	}
+
+	@Test
+	public void testBatchIsPublishedAfterTheLingerTime() throws Exception {
+		broker.countDown();
+		ObservationPipeline pipeline = createPipeline(16, OverflowPolicy.BLOCK);
+		pipeline.setBatchPolicy(null, new BatchPolicy(100, 50));
+		assertTrue(pipeline.submit("/a/light1", payload("light1", 1), subscribers()));
+		assertTrue(pipeline.submit("/a/light2", payload("light2", 1), subscribers()));
+		//a second observation of a device starts a new batch
+		assertTrue(pipeline.submit("/a/light1", payload("light1", 2), subscribers()));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (messages.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, messages.size());
+		assertEquals(2, entities(messages.get(0).getPayload().getJenaModel()));
+		assertEquals(1, entities(messages.get(1).getPayload().getJenaModel()));
+		pipeline.shutdown();
+	}
+
+	@Test
+	public void testFilteredObservationsAreNotTranslated() throws Exception {
+		broker.countDown();
+		ObservationPipeline pipeline = createPipeline(16, OverflowPolicy.BLOCK);
+		pipeline.setFilterPolicy("conversation1", new FilterPolicy(0, 0, true));
+		for (int i = 0; i < 5; i++) {
+			assertTrue(pipeline.submit("/a/light1", payload("light1", 1), subscribers("conversation1")));
+		}
+		pipeline.shutdown();
+		assertEquals(1, published.get());
+		assertEquals(1, pipeline.getTranslatedCount());
+		assertEquals(4, pipeline.getFilteredCount());
+		assertEquals(4, pipeline.getFilter("conversation1").getUnchangedCount());
+	}
+
+	@Test
+	public void testReleasedObservationIsNotConflatedWithNewerOne() throws Exception {
+		broker.countDown();
+		final byte[] blocker = payload("blocker", 0);
+		final CountDownLatch translation = new CountDownLatch(1);
+		IotivityTranslator translator = new IotivityTranslator() {
+			@Override
+			public Model toJenaModel(byte[] cborPayload) throws Exception {
+				if (Arrays.equals(cborPayload, blocker)) {
+					translation.await();
+				}
+				return super.toJenaModel(cborPayload);
+			}
+		};
+		ObservationPipeline pipeline = createPipeline(translator, 16, OverflowPolicy.CONFLATE);
+		pipeline.setFilterPolicy("conversation1", new FilterPolicy(200, 0, false));
+		List<PlatformMessageMetadata> subscribers = new ArrayList<PlatformMessageMetadata>();
+		subscribers.addAll(subscribers("conversation1"));
+		subscribers.addAll(subscribers("conversation2"));
+		assertTrue(pipeline.submit("/a/light1", payload("light1", 1), subscribers));
+		waitForMessages(2);
+		//conflated by the filter of conversation1, released after its interval
+		assertTrue(pipeline.submit("/a/light1", payload("light1", 2), subscribers));
+		waitForMessages(3);
+		//the translation is stuck, so the newest observation is queued when the conflated one is released
+		assertTrue(pipeline.submit("/a/blocker", blocker, subscribers()));
+		assertTrue(pipeline.submit("/a/light1", payload("light1", 3), subscribers));
+		Thread.sleep(600);
+		translation.countDown();
+		pipeline.shutdown();
+
+		List<Integer> values1 = new ArrayList<Integer>();
+		List<Integer> values2 = new ArrayList<Integer>();
+		for (Message message : messages) {
+			String conversationId = message.getMetadata().getConversationId().orElse("");
+			for (Statement st : message.getPayload().getJenaModel().listStatements().toList()) {
+				if (st.getPredicate().getURI().endsWith("value") && st.getObject().isLiteral()) {
+					if (conversationId.equals("conversation1")) {
+						values1.add(st.getInt());
+					}
+					else if (conversationId.equals("conversation2")) {
+						values2.add(st.getInt());
+					}
+				}
+			}
+		}
+		//the plain subscription gets every observation, the conflating one does not get the released value after the newer one
+		assertEquals(Arrays.asList(1, 2, 3), values2);
+		assertEquals(Arrays.asList(1, 3), values1);
+	}
+
+	private void waitForMessages(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (messages.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, messages.size());
+	}
+
+	private ObservationPipeline createPipeline(int queueSize, OverflowPolicy policy) {
+		return createPipeline(TRANSLATOR, queueSize, policy);
+	}
+
+	private ObservationPipeline createPipeline(IotivityTranslator translator, int queueSize, OverflowPolicy policy) {
+		ObservationPipeline pipeline = new ObservationPipeline(translator, null, queueSize, 1, policy) {
+			@Override
+			protected void publish(Message observationMessage) throws Exception {
+				broker.await();
+				messages.add(observationMessage);
+				published.incrementAndGet();
+			}
+		};
+		pipeline.start();
+		return pipeline;
+	}
+
+	private static Collection<PlatformMessageMetadata> subscribers() {
+		return Collections.singletonList(new MessageMetadata().asPlatformMessageMetadata());
+	}
+
+	private static Collection<PlatformMessageMetadata> subscribers(String conversationId) {
+		PlatformMessageMetadata metadata = new MessageMetadata().asPlatformMessageMetadata();
+		metadata.setConversationId(conversationId);
+		return Collections.singletonList(metadata);
+	}
+
+	private static int entities(Model model) {
+		int entities = 0;
+		for (Resource subject : model.listSubjects().toList()) {
+			if (subject.isURIResource()) {
+				entities++;
+			}
+		}
+		return entities;
+	}
+
+	private static byte[] payload(String id, int value) throws Exception {
+		Map<String, Object> device = new LinkedHashMap<String, Object>();
+		device.put("id", id);
+		device.put("value", value);
+		return EncodingUtils.encodeResourceToCbor(device);
+	}
+}
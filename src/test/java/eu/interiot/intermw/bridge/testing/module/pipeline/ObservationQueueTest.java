@@ -0,0 +1,90 @@
+package eu.interiot.intermw.bridge.testing.module.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.pipeline.Observation;
+import eu.interiot.intermw.bridge.iotivity.pipeline.ObservationQueue;
+import eu.interiot.intermw.bridge.iotivity.pipeline.OverflowPolicy;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+public class ObservationQueueTest {
+
+	@Test
+	public void testDropPolicies() throws Exception {
+		ObservationQueue oldest = new ObservationQueue(2, OverflowPolicy.parse("drop-oldest"));
+		assertTrue(oldest.offer(observation("/a/light1", 1)));
+		assertTrue(oldest.offer(observation("/a/light2", 1)));
+		assertTrue(oldest.offer(observation("/a/light3", 1)));
+		assertEquals(1, oldest.getDroppedOldestCount());
+		assertEquals("/a/light2", oldest.take().getHref());
+		assertEquals("/a/light3", oldest.take().getHref());
+
+		ObservationQueue newest = new ObservationQueue(2, OverflowPolicy.DROP_NEWEST);
+		assertTrue(newest.offer(observation("/a/light1", 1)));
+		assertTrue(newest.offer(observation("/a/light2", 1)));
+		assertFalse(newest.offer(observation("/a/light3", 1)));
+		assertEquals(1, newest.getDroppedNewestCount());
+		assertEquals("/a/light1", newest.take().getHref());
+		assertEquals(1, newest.size());
+	}
+
+	@Test
+	public void testConflationKeepsTheLatestObservationOfEachDevice() throws Exception {
+		ObservationQueue queue = new ObservationQueue(2, OverflowPolicy.CONFLATE);
+		queue.offer(observation("/a/light1", 1));
+		queue.offer(observation("/a/light2", 1));
+		//the queue is full, but light1 has a queued observation
+		assertTrue(queue.offer(observation("/a/light1", 2)));
+		assertEquals(2, queue.size());
+		assertEquals(1, queue.getConflatedCount());
+
+		Observation first = queue.take();
+		assertEquals("/a/light1", first.getHref());
+		assertEquals(2, first.getPayload()[0]);
+		//light1 is not queued anymore, so its next observation is queued after light2
+		queue.offer(observation("/a/light1", 3));
+		assertEquals("/a/light2", queue.take().getHref());
+		assertEquals(3, queue.take().getPayload()[0]);
+	}
+
+	@Test
+	public void testBlockedOfferWaitsForRoom() throws Exception {
+		final ObservationQueue queue = new ObservationQueue(1, OverflowPolicy.BLOCK);
+		queue.offer(observation("/a/light1", 1));
+		CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> offer(queue, "/a/light2"));
+		Thread.sleep(100);
+		assertFalse(blocked.isDone());
+
+		queue.take();
+		assertTrue(blocked.get(5, TimeUnit.SECONDS));
+		assertEquals(1, queue.getBlockedCount());
+
+		//closing the queue releases a blocked offer
+		blocked = CompletableFuture.supplyAsync(() -> offer(queue, "/a/light3"));
+		Thread.sleep(100);
+		assertEquals(1, queue.close());
+		assertFalse(blocked.get(5, TimeUnit.SECONDS));
+		assertEquals("/a/light2", queue.take().getHref());
+		assertEquals(null, queue.take());
+	}
+
+	private static boolean offer(ObservationQueue queue, String href) {
+		try {
+			return queue.offer(observation(href, 1));
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Observation observation(String href, int value) {
+		return new Observation(href, new byte[] {(byte) value}, Collections.<PlatformMessageMetadata>emptyList());
+	}
+}
@@ -0,0 +1,69 @@
+package eu.interiot.intermw.bridge.testing.module.pipeline;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.bridge.iotivity.pipeline.Observation;
+import eu.interiot.intermw.bridge.iotivity.pipeline.OverflowPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.PartitionedExecutor;
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+/**
+ *
+ * Measures the observations translated per second by the translation stage of the observation pipeline
+ * with 1, 4 and 16 partitions, for observations of 64 devices
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=eu.interiot.intermw.bridge.testing.module.pipeline.PartitionedExecutorBenchmark
+ *
+ */
+public class PartitionedExecutorBenchmark {
+
+	private static final int DEVICES = 64;
+	private static final int WARMUP_OBSERVATIONS = 5000;
+	private static final int OBSERVATIONS = 20000;
+
+	public static void main(String[] args) throws Exception {
+		IotivityTranslator translator = new IotivityTranslator();
+		byte[][] payloads = new byte[DEVICES][];
+		for (int d = 0; d < DEVICES; d++) {
+			Map<String, Object> device = new LinkedHashMap<String, Object>();
+			device.put("id", "light" + d);
+			device.put("rt", "oic.r.switch.binary");
+			device.put("value", true);
+			device.put("dimmingSetting", d);
+			payloads[d] = EncodingUtils.encodeResourceToCbor(device);
+		}
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+		run(translator, payloads, 1, WARMUP_OBSERVATIONS);
+		for (int partitions : new int[] {1, 4, 16}) {
+			long start = System.nanoTime();
+			run(translator, payloads, partitions, OBSERVATIONS);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%2d partitions: %8.0f observations/s%n", partitions, OBSERVATIONS / seconds);
+		}
+	}
+
+	private static void run(IotivityTranslator translator, byte[][] payloads, int partitions, int observations) throws Exception {
+		final CountDownLatch done = new CountDownLatch(observations);
+		PartitionedExecutor executor = new PartitionedExecutor(partitions, 1024, OverflowPolicy.BLOCK, observation -> {
+			try {
+				translator.toJenaModel(observation.getPayload());
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			done.countDown();
+		}, "benchmark");
+		executor.start();
+		for (int i = 0; i < observations; i++) {
+			int device = i % DEVICES;
+			executor.submit(new Observation("/a/light" + device, payloads[device], Collections.<PlatformMessageMetadata>emptyList()));
+		}
+		done.await();
+		executor.close();
+	}
+}
@@ -0,0 +1,105 @@
+package eu.interiot.intermw.bridge.testing.module.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.pipeline.Observation;
+import eu.interiot.intermw.bridge.iotivity.pipeline.OverflowPolicy;
+import eu.interiot.intermw.bridge.iotivity.pipeline.PartitionedExecutor;
+import eu.interiot.message.metadata.PlatformMessageMetadata;
+
+public class PartitionedExecutorTest {
+
+	private static final int DEVICES = 32;
+	private static final int OBSERVATIONS = 2000;
+
+	@Test
+	public void testObservationsOfADeviceAreProcessedInOrder() throws Exception {
+		final Map<String, Integer> last = new ConcurrentHashMap<String, Integer>();
+		final AtomicInteger outOfOrder = new AtomicInteger();
+		final AtomicInteger processed = new AtomicInteger();
+		final PartitionedExecutor executor = new PartitionedExecutor(4, 64, OverflowPolicy.BLOCK, observation -> {
+			int value = observation.getPayload()[0] << 8 | (observation.getPayload()[1] & 0xff);
+			Integer previous = last.put(observation.getHref(), value);
+			if (previous != null && previous + 1 != value) {
+				outOfOrder.incrementAndGet();
+			}
+			processed.incrementAndGet();
+		}, "test");
+		executor.start();
+
+		//each producer owns some devices, as the CoAP endpoint delivers the notifications of a device in order
+		ExecutorService producers = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int p = 0; p < 4; p++) {
+			final int producer = p;
+			futures.add(producers.submit(() -> {
+				for (int i = 0; i < OBSERVATIONS; i++) {
+					for (int d = producer; d < DEVICES; d += 4) {
+						executor.submit(observation("/a/light" + d, i));
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get(30, TimeUnit.SECONDS);
+		}
+		producers.shutdown();
+		executor.close();
+		assertTrue(executor.awaitTermination(10000));
+		assertEquals(DEVICES * OBSERVATIONS, processed.get());
+		assertEquals(0, outOfOrder.get());
+		assertEquals(0, executor.getDroppedCount());
+	}
+
+	@Test
+	public void testSlowDeviceDoesNotDelayTheOtherPartitions() throws Exception {
+		final CountDownLatch slow = new CountDownLatch(1);
+		final CountDownLatch other = new CountDownLatch(1);
+		final PartitionedExecutor executor = new PartitionedExecutor(4, 16, OverflowPolicy.BLOCK, observation -> {
+			try {
+				if (observation.getHref().equals("/a/slow")) {
+					slow.await();
+				}
+				else {
+					other.countDown();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "test");
+		executor.start();
+		String fast = "/a/light0";
+		for (int i = 1; executor.partition(fast) == executor.partition("/a/slow"); i++) {
+			fast = "/a/light" + i;
+		}
+		assertNotEquals(executor.partition(fast), executor.partition("/a/slow"));
+
+		executor.submit(observation("/a/slow", 0));
+		executor.submit(observation(fast, 0));
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		slow.countDown();
+		executor.close();
+		assertTrue(executor.awaitTermination(5000));
+	}
+
+	private static Observation observation(String href, int value) {
+		return new Observation(href, new byte[] {(byte) (value >> 8), (byte) value}, Collections.<PlatformMessageMetadata>emptyList());
+	}
+}
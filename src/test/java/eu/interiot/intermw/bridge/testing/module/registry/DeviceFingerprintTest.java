@@ -0,0 +1,37 @@
+package eu.interiot.intermw.bridge.testing.module.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceFingerprint;
+
+public class DeviceFingerprintTest {
+
+	private final JsonParser parser = new JsonParser();
+
+	@Test
+	public void testFingerprintIgnoresAttributeOrder() {
+		JsonElement a = parser.parse("{\"id\":\"light1\",\"rt\":[\"oic.r.switch.binary\"],\"value\":true,\"href\":\"/a/light1\"}");
+		JsonElement b = parser.parse("{\"href\":\"/a/light1\",\"value\":true,\"id\":\"light1\",\"rt\":[\"oic.r.switch.binary\"]}");
+		assertEquals(DeviceFingerprint.hash(a), DeviceFingerprint.hash(b));
+
+		DeviceFingerprint fingerprint = DeviceFingerprint.of(a, null);
+		assertEquals("light1", fingerprint.getId());
+		assertEquals("/a/light1", fingerprint.getHref());
+		assertEquals(parser.parse("{\"id\":\"light1\",\"href\":\"/a/light1\",\"rt\":[\"oic.r.switch.binary\"]}"), fingerprint.toRepresentation());
+	}
+
+	@Test
+	public void testFingerprintDetectsChanges() {
+		long base = DeviceFingerprint.hash(parser.parse("{\"id\":\"light1\",\"value\":1}"));
+		assertNotEquals(base, DeviceFingerprint.hash(parser.parse("{\"id\":\"light1\",\"value\":2}")));
+		assertNotEquals(base, DeviceFingerprint.hash(parser.parse("{\"id\":\"light1\",\"value\":\"1\"}")));
+		assertNotEquals(base, DeviceFingerprint.hash(parser.parse("{\"id\":\"light1\",\"value\":[1]}")));
+		assertNotEquals(DeviceFingerprint.hash(parser.parse("[\"ab\",\"c\"]")), DeviceFingerprint.hash(parser.parse("[\"a\",\"bc\"]")));
+	}
+}
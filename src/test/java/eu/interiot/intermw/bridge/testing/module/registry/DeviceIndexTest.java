@@ -0,0 +1,102 @@
+package eu.interiot.intermw.bridge.testing.module.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceEntry;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceIndex;
+import eu.interiot.intermw.bridge.testing.module.IoTivityTestServer;
+
+public class DeviceIndexTest {
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private IoTivityTestServer server;
+	private IoTivityCoapClientImpl client;
+	private DeviceIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new IoTivityTestServer();
+		for (final String name : new String[] {"light1", "light2", "light3", "light4"}) {
+			server.addDevice(name, exchange -> {
+				maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				inFlight.decrementAndGet();
+				Map<String, Object> device = new LinkedHashMap<String, Object>();
+				device.put("id", name);
+				device.put("rt", new ArrayList<String>(Arrays.asList("oic.r.switch.binary")));
+				return device;
+			});
+		}
+		client = server.start();
+		index = new DeviceIndex(client);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testLookupRefreshesOnlyOnMiss() throws Exception {
+		server.addLink("/a/light1");
+		DeviceEntry entry = index.lookup("light1");
+		assertNotNull(entry);
+		assertEquals("/a/light1", entry.getHref());
+		assertEquals(1, server.getLinkRequests());
+
+		index.lookup("light1");
+		assertEquals(1, server.getLinkRequests());
+		assertEquals(1, server.getDeviceRequests());
+
+		server.addLink("/a/light2");
+		assertNotNull(index.lookup("light2"));
+		assertEquals(2, server.getLinkRequests());
+		//the already indexed device is not retrieved again
+		assertEquals(2, server.getDeviceRequests());
+	}
+
+	@Test
+	public void testRefreshRemovesVanishedDevices() throws Exception {
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		index.refresh();
+		assertEquals(2, index.size());
+
+		server.removeLink("/a/light2");
+		index.refresh();
+		assertEquals(1, index.size());
+		assertNull(index.get("light2"));
+		assertNull(index.lookup("unknown"));
+	}
+
+	@Test
+	public void testRefreshRespectsDiscoveryConcurrency() throws Exception {
+		client.setDiscoveryConcurrency(2);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		server.addLink("/a/light3");
+		server.addLink("/a/light4");
+		index.refresh();
+		assertEquals(4, index.size());
+		assertTrue(maxInFlight.get() <= 2);
+	}
+}
@@ -0,0 +1,95 @@
+package eu.interiot.intermw.bridge.testing.module.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceFingerprint;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceSnapshotStore;
+
+public class DeviceSnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testChangesSurviveRestart() throws Exception {
+		File file = new File(folder.getRoot(), "platform.snapshot");
+		DeviceSnapshotStore store = new DeviceSnapshotStore(file);
+		assertTrue(store.load().isEmpty());
+		store.put(device("light1", 1));
+		store.put(device("light2", 2));
+		store.put(device("light1", 3));
+		store.remove("light2");
+		store.close();
+
+		Map<String, DeviceFingerprint> devices = new DeviceSnapshotStore(file).load();
+		assertEquals(1, devices.size());
+		DeviceFingerprint light1 = devices.get("light1");
+		assertEquals(3, light1.getFingerprint());
+		assertEquals("/a/light1", light1.getHref());
+		assertEquals(Collections.singleton("oic.r.switch.binary"), light1.getResourceTypes());
+	}
+
+	@Test
+	public void testIncompleteRecordIsIgnored() throws Exception {
+		File file = new File(folder.getRoot(), "platform.snapshot");
+		DeviceSnapshotStore store = new DeviceSnapshotStore(file);
+		store.load();
+		store.put(device("light1", 1));
+		store.put(device("light2", 2));
+		store.close();
+		//a crash in the middle of the last record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		store = new DeviceSnapshotStore(file);
+		Map<String, DeviceFingerprint> devices = store.load();
+		assertEquals(1, devices.size());
+		assertTrue(devices.containsKey("light1"));
+		//the file was rewritten, so new records are readable
+		store.put(device("light3", 3));
+		store.close();
+		assertEquals(2, new DeviceSnapshotStore(file).load().size());
+	}
+
+	@Test
+	public void testInvalidFileIsOverwritten() throws Exception {
+		File file = new File(folder.getRoot(), "platform.snapshot");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("not a snapshot".getBytes("UTF-8"));
+		out.close();
+		DeviceSnapshotStore store = new DeviceSnapshotStore(file);
+		assertTrue(store.load().isEmpty());
+		store.put(device("light1", 1));
+		store.delete();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testLogIsCompacted() throws Exception {
+		DeviceSnapshotStore store = new DeviceSnapshotStore(new File(folder.getRoot(), "platform.snapshot"));
+		store.load();
+		for (int i = 0; i < 5000; i++) {
+			store.put(device("light1", i));
+		}
+		assertEquals(1, store.size());
+		assertTrue(store.getRecordCount() <= 1025);
+		store.close();
+	}
+
+	private static DeviceFingerprint device(String id, long fingerprint) {
+		return new DeviceFingerprint(id, "/a/" + id, Collections.singleton("oic.r.switch.binary"), fingerprint);
+	}
+}
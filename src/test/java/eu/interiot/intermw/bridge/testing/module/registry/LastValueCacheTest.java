@@ -0,0 +1,128 @@
+package eu.interiot.intermw.bridge.testing.module.registry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.registry.LastValueCache;
+
+public class LastValueCacheTest {
+
+	private final List<CompletableFuture<byte[]>> requests = new CopyOnWriteArrayList<CompletableFuture<byte[]>>();
+	private final Function<String, CompletableFuture<byte[]>> loader = href -> {
+		CompletableFuture<byte[]> request = new CompletableFuture<byte[]>();
+		requests.add(request);
+		return request;
+	};
+
+	@Test
+	public void testLeastRecentlyUsedDevicesAreEvicted() throws Exception {
+		//room for two entries of 100 bytes
+		LastValueCache cache = new LastValueCache(2 * (96 + 2 * "/a/light1".length() + 100), 60000, 0);
+		cache.put("/a/light1", new byte[100]);
+		cache.put("/a/light2", new byte[100]);
+		cache.get("/a/light1", false, loader);
+		cache.put("/a/light3", new byte[100]);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+
+		//light2 was evicted, so it is retrieved from the device
+		ExecutorService query = Executors.newSingleThreadExecutor();
+		Future<byte[]> light2 = query.submit(() -> cache.get("/a/light2", false, loader));
+		waitForRequests(1);
+		requests.get(0).complete(new byte[] {2});
+		assertArrayEquals(new byte[] {2}, light2.get(5, TimeUnit.SECONDS));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		query.shutdown();
+	}
+
+	@Test
+	public void testStaleEntryIsServedWhileItIsRefreshed() throws Exception {
+		LastValueCache cache = new LastValueCache(LastValueCache.DEFAULT_MAX_BYTES, 50, 60000);
+		cache.put("/a/light1", new byte[] {1});
+		assertArrayEquals(new byte[] {1}, cache.get("/a/light1", false, loader));
+		assertTrue(requests.isEmpty());
+
+		Thread.sleep(100);
+		//the stale value is returned at once and a single request refreshes it
+		assertArrayEquals(new byte[] {1}, cache.get("/a/light1", false, loader));
+		assertArrayEquals(new byte[] {1}, cache.get("/a/light1", false, loader));
+		assertEquals(1, requests.size());
+		assertEquals(2, cache.getStaleHitCount());
+
+		requests.get(0).complete(new byte[] {2});
+		assertArrayEquals(new byte[] {2}, cache.get("/a/light1", false, loader));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1.0, cache.getHitRate(), 0);
+		long[] histogram = cache.getAgeHistogram();
+		assertEquals(2, histogram[0]);
+		assertEquals(2, histogram[1]);
+	}
+
+	@Test
+	public void testObservedDeviceIsServedWhateverItsAge() throws Exception {
+		LastValueCache cache = new LastValueCache(LastValueCache.DEFAULT_MAX_BYTES, 10, 0);
+		cache.put("/a/light1", new byte[] {1});
+		Thread.sleep(50);
+		assertArrayEquals(new byte[] {1}, cache.get("/a/light1", true, loader));
+		assertTrue(requests.isEmpty());
+
+		//a response older than a notification does not replace it
+		ExecutorService query = Executors.newSingleThreadExecutor();
+		Future<byte[]> light1 = query.submit(() -> cache.get("/a/light1", false, loader));
+		waitForRequests(1);
+		cache.put("/a/light1", new byte[] {3});
+		requests.get(0).complete(new byte[] {2});
+		assertArrayEquals(new byte[] {2}, light1.get(5, TimeUnit.SECONDS));
+		assertArrayEquals(new byte[] {3}, cache.get("/a/light1", true, loader));
+
+		cache.invalidate("/a/light1");
+		assertFalse(cache.getBytes() > 0);
+		query.shutdown();
+	}
+
+	@Test
+	public void testResponseOfAnInvalidatedEntryIsNotStored() throws Exception {
+		LastValueCache cache = new LastValueCache(LastValueCache.DEFAULT_MAX_BYTES, 60000, 0);
+		CompletableFuture<byte[]> light1 = cache.getAsync("/a/light1", false, loader);
+		//the device is updated while the request is in progress
+		cache.invalidate("/a/light1");
+		requests.get(0).complete(new byte[] {1});
+		assertArrayEquals(new byte[] {1}, light1.get());
+		assertEquals(0, cache.size());
+
+		//the next request is stored again
+		CompletableFuture<byte[]> light1Again = cache.getAsync("/a/light1", false, loader);
+		requests.get(1).complete(new byte[] {2});
+		assertArrayEquals(new byte[] {2}, light1Again.get());
+		assertEquals(1, cache.size());
+
+		//the address of the server changed while a request was in progress
+		CompletableFuture<byte[]> light2 = cache.getAsync("/a/light2", false, loader);
+		cache.clear();
+		requests.get(2).complete(new byte[] {3});
+		assertArrayEquals(new byte[] {3}, light2.get());
+		assertEquals(0, cache.size());
+	}
+
+	private void waitForRequests(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (requests.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, requests.size());
+	}
+}
@@ -0,0 +1,99 @@
+package eu.interiot.intermw.bridge.testing.module.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.rdf.model.Resource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceIndex;
+import eu.interiot.intermw.bridge.iotivity.registry.MultiDeviceQuery;
+import eu.interiot.intermw.bridge.testing.module.IoTivityTestServer;
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+
+public class MultiDeviceQueryTest {
+
+	private static final int DEVICES = 20;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private IoTivityTestServer server;
+	private IoTivityCoapClientImpl client;
+	private MultiDeviceQuery query;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new IoTivityTestServer();
+		for (int i = 0; i < DEVICES; i++) {
+			final String name = "light" + i;
+			server.addDevice(name, exchange -> {
+				if (name.equals("light3") && exchange.getRequestOptions().getUriQuery().isEmpty()) {
+					//the device is indexed, but its state cannot be read
+					return null;
+				}
+				Map<String, Object> device = new LinkedHashMap<String, Object>();
+				device.put("id", name);
+				device.put("value", 1);
+				return device;
+			});
+			server.addLink("/a/" + name);
+		}
+		client = server.start();
+		query = new MultiDeviceQuery(new DeviceIndex(client), this::fetch, new IotivityTranslator(), 4, 2);
+	}
+
+	@After
+	public void tearDown() {
+		query.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testDevicesAreMergedAndFailuresReported() throws Exception {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < DEVICES; i++) {
+			ids.add("light" + i);
+		}
+		ids.add("unknown");
+		MultiDeviceQuery.Result result = query.query(ids);
+
+		//a single refresh resolved all the devices
+		assertEquals(1, server.getLinkRequests());
+		assertEquals(DEVICES - 1, result.getDeviceCount());
+		assertEquals(2, result.getFailures().size());
+		assertTrue(result.getFailures().containsKey("light3"));
+		assertTrue(result.getFailures().containsKey("unknown"));
+		Set<String> instances = new HashSet<String>();
+		for (Resource subject : result.getModel().listSubjects().toList()) {
+			if (subject.isURIResource()) {
+				instances.add(subject.getURI().substring(subject.getURI().lastIndexOf('/') + 1));
+			}
+		}
+		for (int i = 0; i < DEVICES; i++) {
+			assertEquals(i != 3, instances.contains("light" + i));
+		}
+		assertTrue(maxInFlight.get() <= 4);
+	}
+
+	private CompletableFuture<byte[]> fetch(String href) {
+		maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+		return client.getResourceResponseAsync(href).thenApply(response -> {
+			inFlight.decrementAndGet();
+			if (!response.isSuccess()) {
+				throw new IllegalStateException("The device responded with " + response.getCode());
+			}
+			return response.getPayload();
+		});
+	}
+}
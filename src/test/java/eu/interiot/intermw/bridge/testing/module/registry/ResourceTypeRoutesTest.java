@@ -0,0 +1,76 @@
+package eu.interiot.intermw.bridge.testing.module.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonParser;
+
+import eu.interiot.intermw.bridge.iotivity.registry.ResourceTypeRoutes;
+import eu.interiot.intermw.bridge.testing.module.IoTivityTestServer;
+
+public class ResourceTypeRoutesTest {
+
+	private IoTivityTestServer server;
+	private ResourceTypeRoutes routes;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new IoTivityTestServer();
+		routes = new ResourceTypeRoutes(server.start());
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testCreationsAreSpreadOverTheCandidates() throws Exception {
+		routes.load(new JsonParser().parse("[{\"links\":[{\"href\":\"/lights1\",\"rt\":[\"oic.wk.res\",\"oic.r.light\"]}]},"
+				+ "{\"links\":[{\"href\":\"/lights2\",\"rt\":[\"oic.wk.res\",\"oic.r.light\"]},{\"href\":\"/fans\",\"rt\":[\"oic.r.fan\"]}]}]"));
+		assertEquals(Arrays.asList("/lights1", "/lights2"), routes.getCandidates("oic.r.light"));
+		assertEquals("/lights1", routes.route("oic.r.light"));
+		assertEquals("/lights2", routes.route("oic.r.light"));
+		assertEquals("/lights1", routes.route("oic.r.light"));
+		assertEquals("/fans", routes.route("oic.r.fan"));
+		assertEquals("/fans", routes.route("oic.r.fan"));
+		//the table was loaded, so the server is not contacted
+		assertEquals(0, server.getLinkRequests());
+	}
+
+	@Test
+	public void testUnknownResourceTypeTriggersOneRefresh() throws Exception {
+		server.addLink("/lights", "oic.wk.res", "oic.r.light");
+		routes.refresh();
+		assertEquals(1, server.getLinkRequests());
+		assertEquals("/lights", routes.route("oic.r.light"));
+		assertEquals(1, server.getLinkRequests());
+
+		server.addLink("/fans", "oic.wk.res", "oic.r.fan");
+		assertEquals("/fans", routes.route("oic.r.fan"));
+		assertEquals(2, server.getLinkRequests());
+
+		assertNull(routes.route("oic.r.door"));
+		assertEquals(3, server.getLinkRequests());
+	}
+
+	@Test
+	public void testInvalidatedTableIsRebuilt() throws Exception {
+		server.addLink("/lights", "oic.wk.res", "oic.r.light");
+		assertEquals("/lights", routes.route("oic.r.light"));
+		assertEquals(1, server.getLinkRequests());
+
+		server.clearLinks();
+		server.addLink("/lamps", "oic.wk.res", "oic.r.light");
+		routes.invalidate();
+		assertEquals("/lamps", routes.route("oic.r.light"));
+		assertEquals(2, server.getLinkRequests());
+		assertEquals(2, routes.getRefreshCount());
+	}
+}
@@ -0,0 +1,49 @@
+package eu.interiot.intermw.bridge.testing.module.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.interiot.intermw.bridge.iotivity.scheduler.AdaptiveInterval;
+
+public class AdaptiveIntervalTest {
+
+	@Test
+	public void testIntervalAdaptsToChurnAndStability() {
+		AdaptiveInterval interval = new AdaptiveInterval(60000, 15000, 600000, 0, new Random(1));
+		assertEquals(30000, interval.update(3, 100));
+		assertEquals(15000, interval.update(1, 100));
+		//never below the minimum
+		assertEquals(15000, interval.update(1, 100));
+
+		assertEquals(30000, interval.update(0, 100));
+		assertEquals(60000, interval.update(0, 100));
+		for (int i = 0; i < 10; i++) {
+			interval.update(0, 100);
+		}
+		//never above the maximum
+		assertEquals(600000, interval.getInterval());
+	}
+
+	@Test
+	public void testSlowChecksBackOff() {
+		AdaptiveInterval interval = new AdaptiveInterval(60000, 15000, 600000, 0, new Random(1));
+		//changes were found, but the check took more than half of the interval
+		assertEquals(120000, interval.update(5, 40000));
+	}
+
+	@Test
+	public void testJitterIsBounded() {
+		AdaptiveInterval interval = new AdaptiveInterval(60000, 15000, 600000, 0.1, new Random(1));
+		boolean different = false;
+		for (int i = 0; i < 100; i++) {
+			long delay = interval.nextDelay();
+			assertTrue(delay >= 54000 && delay <= 66000);
+			different |= delay != 60000;
+		}
+		assertTrue(different);
+	}
+}
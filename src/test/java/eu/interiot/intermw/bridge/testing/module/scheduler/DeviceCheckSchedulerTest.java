@@ -0,0 +1,287 @@
+package eu.interiot.intermw.bridge.testing.module.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import eu.interiot.intermw.bridge.iotivity.client.impls.IoTivityCoapClientImpl;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceFingerprint;
+import eu.interiot.intermw.bridge.iotivity.registry.DeviceSnapshotStore;
+import eu.interiot.intermw.bridge.iotivity.scheduler.CheckDevicesTask;
+import eu.interiot.intermw.bridge.iotivity.scheduler.DeviceCheckScheduler;
+import eu.interiot.intermw.bridge.testing.module.IoTivityTestServer;
+import eu.interiot.message.Message;
+
+public class DeviceCheckSchedulerTest {
+
+	private final Set<String> devices = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger announcements = new AtomicInteger();
+	private final Map<String, Integer> values = new ConcurrentHashMap<String, Integer>();
+	private final Set<String> unavailable = ConcurrentHashMap.newKeySet();
+	private IoTivityTestServer server;
+	private IoTivityCoapClientImpl client;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void testChangesArePushedWhenObserveIsSupported() throws Exception {
+		start(true);
+		server.addLink("/a/light1");
+		DeviceCheckScheduler scheduler = createScheduler();
+		scheduler.start(null);
+		waitFor(1);
+		assertFalse(scheduler.isPolling());
+
+		server.addLink("/a/light2");
+		server.linksChanged();
+		waitFor(2);
+		//only the new device is retrieved
+		assertEquals(2, server.getDeviceRequests());
+
+		server.removeLink("/a/light1");
+		server.linksChanged();
+		waitFor(1);
+		assertTrue(devices.contains("light2"));
+		assertEquals(2, server.getDeviceRequests());
+	}
+
+	@Test
+	public void testChangedRepresentationIsDetectedWhilePushed() throws Exception {
+		start(true);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		DeviceCheckScheduler scheduler = createScheduler();
+		scheduler.setReconciliationInterval(200);
+		scheduler.start(null);
+		waitFor(2);
+		assertFalse(scheduler.isPolling());
+		assertEquals(2, announcements.get());
+
+		//the links do not change, only the representation of light2
+		values.put("light2", 1);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (announcements.get() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(3, announcements.get());
+		Thread.sleep(500);
+		assertEquals(3, announcements.get());
+		scheduler.stop();
+	}
+
+	@Test
+	public void testPollingWhenObserveIsNotSupported() throws Exception {
+		start(false);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		DeviceCheckScheduler scheduler = createScheduler();
+		scheduler.start(null);
+		waitFor(2);
+		assertTrue(scheduler.isPolling());
+		long deadline = System.currentTimeMillis() + 5000;
+		while (scheduler.getPollCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, scheduler.getPollCount());
+		assertEquals(2, scheduler.getLastChangeCount());
+		//the devices changed, so the next check comes sooner
+		assertEquals(30000, scheduler.getEffectiveInterval());
+	}
+
+	@Test
+	public void testRepeatedStartResynchronizes() throws Exception {
+		start(true);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		DeviceCheckScheduler scheduler = createScheduler();
+		scheduler.start(null);
+		waitFor(2);
+		assertEquals(2, announcements.get());
+
+		//all devices are announced again, although they did not change
+		scheduler.start(null);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (announcements.get() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(4, announcements.get());
+
+		scheduler.stop();
+		assertFalse(scheduler.isStarted());
+		server.removeLink("/a/light1");
+		server.linksChanged();
+		Thread.sleep(200);
+		assertEquals(2, devices.size());
+	}
+
+	@Test
+	public void testOnlyChangedDevicesAreAnnouncedAgain() throws Exception {
+		start(false);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		CheckDevicesTask task = createTask(new HashMap<String, DeviceFingerprint>());
+		task.run();
+		assertEquals(2, announcements.get());
+
+		task.run();
+		assertEquals(2, announcements.get());
+
+		values.put("light2", 1);
+		task.run();
+		assertEquals(3, announcements.get());
+		assertEquals(2, devices.size());
+	}
+
+	@Test
+	public void testUnavailableDeviceIsNotRemoved() throws Exception {
+		start(false);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		CheckDevicesTask task = createTask(new HashMap<String, DeviceFingerprint>());
+		assertEquals(2, task.check());
+
+		//the link of light2 is still there, only its GET fails
+		unavailable.add("light2");
+		assertEquals(0, task.check());
+		assertEquals(2, devices.size());
+
+		unavailable.remove("light2");
+		assertEquals(0, task.check());
+		assertEquals(2, announcements.get());
+	}
+
+	@Test
+	public void testWarmStartAnnouncesOnlyTheDelta() throws Exception {
+		start(false);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		File file = new File(folder.getRoot(), "platform.snapshot");
+		DeviceSnapshotStore store = new DeviceSnapshotStore(file);
+		store.load();
+		//light1 did not change while the bridge was down, light3 vanished
+		store.put(DeviceFingerprint.of(new JsonParser().parse("{\"id\":\"light1\",\"value\":0}"), "/a/light1"));
+		store.put(DeviceFingerprint.of(new JsonParser().parse("{\"id\":\"light3\",\"value\":0}"), "/a/light3"));
+		store.close();
+
+		store = new DeviceSnapshotStore(file);
+		CheckDevicesTask task = createTask(new HashMap<String, DeviceFingerprint>(store.load()));
+		task.setSnapshotStore(store);
+		assertEquals(2, task.check());
+		assertEquals(1, announcements.get());
+		store.close();
+
+		Map<String, DeviceFingerprint> persisted = new DeviceSnapshotStore(file).load();
+		assertEquals(2, persisted.size());
+		assertTrue(persisted.containsKey("light2"));
+		assertFalse(persisted.containsKey("light3"));
+	}
+
+	@Test
+	public void testWarmStartAnnouncesOnlyTheDeltaWhenPushed() throws Exception {
+		start(true);
+		server.addLink("/a/light1");
+		server.addLink("/a/light2");
+		File file = new File(folder.getRoot(), "platform.snapshot");
+		DeviceSnapshotStore store = new DeviceSnapshotStore(file);
+		store.load();
+		//light1 did not change while the bridge was down, light3 vanished
+		store.put(DeviceFingerprint.of(new JsonParser().parse("{\"id\":\"light1\",\"value\":0}"), "/a/light1"));
+		store.put(DeviceFingerprint.of(new JsonParser().parse("{\"id\":\"light3\",\"value\":0}"), "/a/light3"));
+		store.close();
+
+		store = new DeviceSnapshotStore(file);
+		DeviceCheckScheduler scheduler = createScheduler(new HashMap<String, DeviceFingerprint>(store.load()), store);
+		scheduler.start(null);
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((announcements.get() < 1 || scheduler.getDeviceMap().containsKey("light3")) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertFalse(scheduler.isPolling());
+		assertEquals(1, announcements.get());
+		assertTrue(devices.contains("light2"));
+		assertFalse(scheduler.getDeviceMap().containsKey("light3"));
+		scheduler.stop();
+		store.close();
+
+		Map<String, DeviceFingerprint> persisted = new DeviceSnapshotStore(file).load();
+		assertEquals(2, persisted.size());
+		assertFalse(persisted.containsKey("light3"));
+	}
+
+	private DeviceCheckScheduler createScheduler() {
+		return createScheduler(new HashMap<String, DeviceFingerprint>(), null);
+	}
+
+	private DeviceCheckScheduler createScheduler(Map<String, DeviceFingerprint> knownDevices, DeviceSnapshotStore store) {
+		return new DeviceCheckScheduler(client, null, knownDevices, store, null, "platform") {
+			@Override
+			protected CheckDevicesTask createTask() {
+				return DeviceCheckSchedulerTest.this.createTask(initialDeviceMap);
+			}
+		};
+	}
+
+	private CheckDevicesTask createTask(Map<String, DeviceFingerprint> initialDeviceMap) {
+		return new CheckDevicesTask(client, null, initialDeviceMap, null, null, "platform") {
+			@Override
+			protected Message deviceAdd(String deviceId, JsonElement deviceRepresentation, Message message) {
+				announcements.incrementAndGet();
+				devices.add(deviceId);
+				return message;
+			}
+
+			@Override
+			protected Message deviceRemove(String deviceId, JsonElement deviceRepresentation, Message message) {
+				devices.remove(deviceId);
+				return message;
+			}
+		};
+	}
+
+	private void start(boolean observable) throws Exception {
+		server = new IoTivityTestServer();
+		server.setLinksObservable(observable);
+		for (final String name : new String[] {"light1", "light2"}) {
+			server.addDevice(name, exchange -> {
+				if (unavailable.contains(name)) {
+					return null;
+				}
+				Map<String, Object> device = new LinkedHashMap<String, Object>();
+				device.put("id", name);
+				device.put("value", values.containsKey(name) ? values.get(name) : 0);
+				return device;
+			});
+		}
+		client = server.start();
+	}
+
+	private void waitFor(int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (devices.size() != size && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(size, devices.size());
+	}
+}
@@ -0,0 +1,69 @@
+package eu.interiot.intermw.bridge.testing.module.translator;
+
+import java.lang.management.ManagementFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+
+/**
+ *
+ * Compares the latency and the allocated bytes per notification of the previous observation path
+ * (CBOR to Gson, JSON text, Gson object, JSON text, Jackson tree and JENA model) with the translation
+ * of the CBOR payload through a single Jackson tree
+ * The observation has no resource type, so that the ontology lookups (the same for both paths) are not measured
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=eu.interiot.intermw.bridge.testing.module.translator.IotivityTranslatorBenchmark
+ *
+ */
+public class IotivityTranslatorBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int ITERATIONS = 50000;
+	private static final String OBSERVATION = "{\"id\":\"bp1\",\"if\":[\"oic.if.baseline\",\"oic.if.s\"],"
+			+ "\"systolic\":120,\"diastolic\":80,\"units\":\"mmHg\",\"timestamp\":1546300800000,\"valid\":true}";
+
+	public static void main(String[] args) throws Exception {
+		IotivityTranslator translator = new IotivityTranslator();
+		byte[] payload = EncodingUtils.getCborMapper().writeValueAsBytes(new ObjectMapper().readTree(OBSERVATION));
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			translateThroughText(translator, payload);
+			translator.toJenaModel(payload);
+		}
+		run("CBOR -> JSON text -> model", translator, payload, true);
+		run("CBOR -> Jackson tree -> model", translator, payload, false);
+	}
+
+	private static void run(String name, IotivityTranslator translator, byte[] payload, boolean throughText) throws Exception {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocated = threadBean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			if (throughText) {
+				translateThroughText(translator, payload);
+			}
+			else {
+				translator.toJenaModel(payload);
+			}
+		}
+		double micros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+		long bytes = (threadBean.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS;
+		System.out.println(String.format("%-32s %8.2f us/notification %8d bytes/notification", name, micros, bytes));
+	}
+
+	/**
+	 * The steps executed by the observation handler before the direct translation
+	 */
+	private static void translateThroughText(IotivityTranslator translator, byte[] payload) throws Exception {
+		JsonElement responseJson = EncodingUtils.coapResponseToJson(payload);
+		JsonObject observationObject = new JsonParser().parse(responseJson.toString()).getAsJsonObject();
+		translator.toJenaModel(observationObject.toString());
+	}
+}
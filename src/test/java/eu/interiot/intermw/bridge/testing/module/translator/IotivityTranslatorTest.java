@@ -0,0 +1,72 @@
+package eu.interiot.intermw.bridge.testing.module.translator;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Model;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.interiot.intermw.bridge.iotivity.client.utils.EncodingUtils;
+import eu.interiot.intermw.translators.syntax.iotivity.IotivityTranslator;
+
+public class IotivityTranslatorTest {
+
+	private static final String OBSERVATION = "{\"id\":\"bp1\",\"rt\":[\"oic.r.blood.pressure\"],\"if\":[\"oic.if.baseline\",\"oic.if.s\"],"
+			+ "\"systolic\":120,\"diastolic\":80,\"units\":\"mmHg\",\"timestamp\":1546300800000,\"valid\":true,\"ratio\":1.5}";
+	private static final String DEVICE_LIST = "[{\"id\":\"w1\",\"rt\":[\"oic.r.weight\"],\"weight\":70.5},{\"value\":[1,2,3]}]";
+
+	private final IotivityTranslator translator = new IotivityTranslator();
+
+	@Test
+	public void testCborTranslationIsSameAsStringTranslation() throws Exception {
+		assertSameTranslation(OBSERVATION);
+		assertSameTranslation(DEVICE_LIST);
+	}
+
+	@Test
+	public void testFloatValuesAreTranslated() throws Exception {
+		Map<String, Object> temperature = new LinkedHashMap<String, Object>();
+		temperature.put("id", "t1");
+		temperature.put("temperature", 21.1f);
+		temperature.put("humidity", 40);
+		//written as float32
+		byte[] payload = EncodingUtils.getCborMapper().writeValueAsBytes(temperature);
+		assertSameTranslation("{\"id\":\"t1\",\"temperature\":21.1,\"humidity\":40}", payload);
+		assertTrue(translator.toJenaModel(payload).containsLiteral(null, null, 21.1d));
+
+		//{"value": 1.5} with the value as half-float
+		payload = new byte[] {(byte) 0xA1, 0x65, 'v', 'a', 'l', 'u', 'e', (byte) 0xF9, 0x3E, 0x00};
+		assertSameTranslation("{\"value\":1.5}", payload);
+		assertTrue(translator.toJenaModel(payload).containsLiteral(null, null, 1.5d));
+	}
+
+	@Test
+	public void testByteStringsAreTranslated() throws Exception {
+		Map<String, Object> device = new LinkedHashMap<String, Object>();
+		device.put("id", "d1");
+		device.put("data", new byte[] {1, 2, 3});
+		//written as a byte string, which is translated as an array of numbers, as its JSON form
+		byte[] payload = EncodingUtils.getCborMapper().writeValueAsBytes(device);
+		assertSameTranslation("{\"id\":\"d1\",\"data\":[1,2,3]}", payload);
+		assertSameTranslation(EncodingUtils.coapResponseToJson(payload).toString(), payload);
+	}
+
+	private void assertSameTranslation(String json) throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		JsonNode node = mapper.readTree(json);
+		assertSameTranslation(json, EncodingUtils.getCborMapper().writeValueAsBytes(node));
+	}
+
+	private void assertSameTranslation(String json, byte[] payload) throws Exception {
+		Model expected = translator.toJenaModel(json);
+		Model actual = translator.toJenaModel(payload);
+		assertFalse(expected.isEmpty());
+		assertTrue(expected.isIsomorphicWith(actual));
+	}
+}